@@ -7,7 +7,7 @@ package io.flutter.plugins.inapppurchase;
 import android.content.Context;
 import androidx.annotation.NonNull;
 import com.android.billingclient.api.BillingClient;
-import io.flutter.plugin.common.MethodChannel;
+import com.android.billingclient.api.PurchasesUpdatedListener;
 
 /** Responsible for creating a {@link BillingClient} object. */
 interface BillingClientFactory {
@@ -16,11 +16,13 @@ interface BillingClientFactory {
    * Creates and returns a {@link BillingClient}.
    *
    * @param context The context used to create the {@link BillingClient}.
-   * @param channel The method channel used to create the {@link BillingClient}.
+   * @param listener The listener notified of the purchase updates of the {@link BillingClient}.
    * @param enablePendingPurchases Whether to enable pending purchases. Throws an exception if it is
    *     false.
    * @return The {@link BillingClient} object that is created.
    */
   BillingClient createBillingClient(
-      @NonNull Context context, @NonNull MethodChannel channel, boolean enablePendingPurchases);
+      @NonNull Context context,
+      @NonNull PurchasesUpdatedListener listener,
+      boolean enablePendingPurchases);
 }
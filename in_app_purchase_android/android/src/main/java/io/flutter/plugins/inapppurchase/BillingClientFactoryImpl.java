@@ -2,7 +2,7 @@ package io.flutter.plugins.inapppurchase;
 
 import android.content.Context;
 import com.android.billingclient.api.BillingClient;
-import io.flutter.plugin.common.MethodChannel;
+import com.android.billingclient.api.PurchasesUpdatedListener;
 
 /** The implementation for {@link BillingClientFactory} for the plugin. */
 final class BillingClientFactoryImpl implements BillingClientFactory {
@@ -11,11 +11,11 @@ final class BillingClientFactoryImpl implements BillingClientFactory {
 
   @Override
   public BillingClient createBillingClient(
-      Context context, MethodChannel channel, boolean enablePendingPurchases) {
+      Context context, PurchasesUpdatedListener listener, boolean enablePendingPurchases) {
     BillingClient.Builder builder = BillingClient.newBuilder(context);
     if (enablePendingPurchases) {
       builder.enablePendingPurchases();
     }
-    return builder.setListener(new PluginPurchaseListener(channel)).build();
+    return builder.setListener(listener).build();
   }
 }
@@ -0,0 +1,167 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import java.util.Random;
+
+/**
+ * Tracks the state of the connection to Play and schedules reconnects with jittered exponential
+ * backoff.
+ *
+ * <p>The delay before the n-th consecutive reconnect is drawn uniformly from {@code [base / 2,
+ * base]}, where {@code base} is {@code initialBackoffMillis * 2^n} capped at {@code
+ * maxBackoffMillis}. The attempt counter is only reset once a connection has stayed up for {@code
+ * stableConnectionMillis}, so a connection that keeps dropping right after setup backs off instead
+ * of flapping.
+ *
+ * <p>All methods must be called on the thread of the {@link Handler} the manager was created with.
+ */
+class BillingConnectionManager {
+  static final int STATE_DISCONNECTED = 0;
+  static final int STATE_CONNECTING = 1;
+  static final int STATE_CONNECTED = 2;
+  static final int STATE_WAITING_TO_RECONNECT = 3;
+
+  static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+  static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+  static final long DEFAULT_STABLE_CONNECTION_MILLIS = 30 * 1000;
+
+  /** Notified of every state transition. */
+  interface Listener {
+    /**
+     * @param state one of the {@code STATE_} constants
+     * @param attempt the number of consecutive reconnects scheduled so far
+     * @param retryDelayMillis the delay before the next reconnect when waiting to reconnect, 0
+     *     otherwise
+     */
+    void onConnectionStateChanged(int state, int attempt, long retryDelayMillis);
+  }
+
+  /** Source of the monotonic time used to decide whether a connection was stable. */
+  interface Clock {
+    long elapsedRealtime();
+  }
+
+  private final Handler handler;
+  private final Random random;
+  private final Clock clock;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final long stableConnectionMillis;
+
+  @Nullable private Listener listener;
+  @Nullable private Runnable pendingReconnect;
+  private int state = STATE_DISCONNECTED;
+  private int attempt;
+  private long connectedAt = -1;
+
+  BillingConnectionManager(@NonNull Handler handler) {
+    this(
+        handler,
+        new Random(),
+        SystemClock::elapsedRealtime,
+        DEFAULT_INITIAL_BACKOFF_MILLIS,
+        DEFAULT_MAX_BACKOFF_MILLIS,
+        DEFAULT_STABLE_CONNECTION_MILLIS);
+  }
+
+  @VisibleForTesting
+  BillingConnectionManager(
+      @NonNull Handler handler,
+      @NonNull Random random,
+      @NonNull Clock clock,
+      long initialBackoffMillis,
+      long maxBackoffMillis,
+      long stableConnectionMillis) {
+    if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+      throw new IllegalArgumentException("Invalid backoff bounds");
+    }
+    this.handler = handler;
+    this.random = random;
+    this.clock = clock;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+    this.stableConnectionMillis = stableConnectionMillis;
+  }
+
+  void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+    if (listener != null) {
+      listener.onConnectionStateChanged(state, attempt, 0);
+    }
+  }
+
+  int getState() {
+    return state;
+  }
+
+  /** A connection attempt was started. */
+  void onConnecting() {
+    cancelPendingReconnect();
+    setState(STATE_CONNECTING, 0);
+  }
+
+  /** Setup finished successfully. */
+  void onConnected() {
+    connectedAt = clock.elapsedRealtime();
+    setState(STATE_CONNECTED, 0);
+  }
+
+  /**
+   * The connection dropped or could not be set up. {@code reconnect} is run on the handler after
+   * the backoff delay, unless {@link #onConnecting()} or {@link #onDisconnected()} is called first.
+   */
+  void onConnectionLost(@NonNull Runnable reconnect) {
+    if (connectedAt >= 0 && clock.elapsedRealtime() - connectedAt >= stableConnectionMillis) {
+      attempt = 0;
+    }
+    connectedAt = -1;
+    cancelPendingReconnect();
+
+    final long delay = nextBackoffMillis();
+    attempt++;
+    pendingReconnect = reconnect;
+    handler.postDelayed(reconnect, delay);
+    setState(STATE_WAITING_TO_RECONNECT, delay);
+  }
+
+  /** The connection was ended on purpose, or dropped without reconnecting. */
+  void onDisconnected() {
+    cancelPendingReconnect();
+    attempt = 0;
+    connectedAt = -1;
+    setState(STATE_DISCONNECTED, 0);
+  }
+
+  @VisibleForTesting
+  long nextBackoffMillis() {
+    // Saturate the shift so long runs of failures keep using maxBackoffMillis.
+    long base =
+        attempt >= 62 || (initialBackoffMillis << attempt) >>> attempt != initialBackoffMillis
+            ? maxBackoffMillis
+            : Math.min(maxBackoffMillis, initialBackoffMillis << attempt);
+    long half = base / 2;
+    return half + (long) (random.nextDouble() * (base - half));
+  }
+
+  private void cancelPendingReconnect() {
+    if (pendingReconnect != null) {
+      handler.removeCallbacks(pendingReconnect);
+      pendingReconnect = null;
+    }
+  }
+
+  private void setState(int newState, long retryDelayMillis) {
+    state = newState;
+    if (listener != null) {
+      listener.onConnectionStateChanged(state, attempt, retryDelayMillis);
+    }
+  }
+}
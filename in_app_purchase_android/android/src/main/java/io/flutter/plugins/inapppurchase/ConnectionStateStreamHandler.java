@@ -0,0 +1,46 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.EventChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Streams the transitions of a {@link BillingConnectionManager} to Dart. */
+class ConnectionStateStreamHandler
+    implements EventChannel.StreamHandler, BillingConnectionManager.Listener {
+  private final BillingConnectionManager connectionManager;
+  @Nullable private EventChannel.EventSink events;
+
+  ConnectionStateStreamHandler(BillingConnectionManager connectionManager) {
+    this.connectionManager = connectionManager;
+  }
+
+  @Override
+  public void onListen(Object arguments, EventChannel.EventSink events) {
+    this.events = events;
+    // The current state is replayed right away.
+    connectionManager.setListener(this);
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    connectionManager.setListener(null);
+    events = null;
+  }
+
+  @Override
+  public void onConnectionStateChanged(int state, int attempt, long retryDelayMillis) {
+    if (events == null) {
+      return;
+    }
+    final Map<String, Object> event = new HashMap<>();
+    event.put("state", state);
+    event.put("attempt", attempt);
+    event.put("retryDelayMillis", retryDelayMillis);
+    events.success(event);
+  }
+}
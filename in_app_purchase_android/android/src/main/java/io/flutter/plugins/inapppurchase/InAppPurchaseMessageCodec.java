@@ -0,0 +1,98 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import io.flutter.plugin.common.StandardMessageCodec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link StandardMessageCodec} that writes {@link SerializedRecord}s as compact positional
+ * records.
+ *
+ * <p>A record is written as the {@code RECORD} type tag, the {@link RecordSchema} id and an int32
+ * bitmask of the fields that are present, followed by the present fields in schema order. Key names
+ * are never sent, and long, int and boolean fields are written without a type tag.
+ *
+ * <p>WARNING: The format needs to stay in sync with `InAppPurchaseMessageCodec` in
+ * lib/src/channel.dart.
+ */
+class InAppPurchaseMessageCodec extends StandardMessageCodec {
+  static final InAppPurchaseMessageCodec INSTANCE = new InAppPurchaseMessageCodec();
+
+  private static final byte RECORD = (byte) 128;
+
+  @Override
+  protected void writeValue(ByteArrayOutputStream stream, Object value) {
+    if (!(value instanceof SerializedRecord)) {
+      super.writeValue(stream, value);
+      return;
+    }
+
+    SerializedRecord record = (SerializedRecord) value;
+    RecordSchema schema = record.schema;
+    int presence = 0;
+    for (int i = 0; i < schema.fields.length; i++) {
+      // A null primitive can't be written untagged, treat it as absent instead.
+      if (record.isPresent(i)
+          && (schema.kinds[i] == RecordSchema.Kind.VALUE || record.valueAt(i) != null)) {
+        presence |= 1 << i;
+      }
+    }
+
+    stream.write(RECORD);
+    stream.write(schema.id);
+    writeInt(stream, presence);
+    for (int i = 0; i < schema.fields.length; i++) {
+      if ((presence & (1 << i)) == 0) {
+        continue;
+      }
+      Object field = record.valueAt(i);
+      switch (schema.kinds[i]) {
+        case RecordSchema.Kind.LONG:
+          writeLong(stream, ((Number) field).longValue());
+          break;
+        case RecordSchema.Kind.INT:
+          writeInt(stream, ((Number) field).intValue());
+          break;
+        case RecordSchema.Kind.BOOLEAN:
+          stream.write((Boolean) field ? 1 : 0);
+          break;
+        default:
+          writeValue(stream, field);
+      }
+    }
+  }
+
+  @Override
+  protected Object readValueOfType(byte type, ByteBuffer buffer) {
+    if (type != RECORD) {
+      return super.readValueOfType(type, buffer);
+    }
+
+    RecordSchema schema = RecordSchema.fromId(buffer.get());
+    int presence = buffer.getInt();
+    SerializedRecord record = new SerializedRecord(schema);
+    for (int i = 0; i < schema.fields.length; i++) {
+      if ((presence & (1 << i)) == 0) {
+        continue;
+      }
+      switch (schema.kinds[i]) {
+        case RecordSchema.Kind.LONG:
+          record.put(schema.fields[i], buffer.getLong());
+          break;
+        case RecordSchema.Kind.INT:
+          record.put(schema.fields[i], buffer.getInt());
+          break;
+        case RecordSchema.Kind.BOOLEAN:
+          record.put(schema.fields[i], buffer.get() != 0);
+          break;
+        default:
+          record.put(schema.fields[i], readValue(buffer));
+      }
+    }
+    return record;
+  }
+}
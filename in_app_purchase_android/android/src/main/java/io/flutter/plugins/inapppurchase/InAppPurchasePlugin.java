@@ -7,13 +7,18 @@ package io.flutter.plugins.inapppurchase;
 import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.android.billingclient.api.BillingClient;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
 import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel;
+import io.flutter.plugin.common.StandardMethodCodec;
 
 /** Wraps a {@link BillingClient} instance and responds to Dart calls for it. */
 public class InAppPurchasePlugin implements FlutterPlugin, ActivityAware {
@@ -34,11 +39,14 @@ public class InAppPurchasePlugin implements FlutterPlugin, ActivityAware {
     static final String ON_DISCONNECT = "BillingClientStateListener#onBillingServiceDisconnected()";
     static final String QUERY_SKU_DETAILS =
         "BillingClient#querySkuDetailsAsync(SkuDetailsParams, SkuDetailsResponseListener)";
+    static final String QUERY_CACHED_SKU_DETAILS =
+        "BillingClient#queryCachedSkuDetails(String, List<String>)";
     static final String LAUNCH_BILLING_FLOW =
         "BillingClient#launchBillingFlow(Activity, BillingFlowParams)";
     static final String ON_PURCHASES_UPDATED =
         "PurchasesUpdatedListener#onPurchasesUpdated(int, List<Purchase>)";
     static final String QUERY_PURCHASES = "BillingClient#queryPurchases(String)";
+    static final String QUERY_ALL_PURCHASES = "BillingClient#queryAllPurchases()";
     static final String QUERY_PURCHASE_HISTORY_ASYNC =
         "BillingClient#queryPurchaseHistoryAsync(String, PurchaseHistoryResponseListener)";
     static final String QUERY_PURCHASE_ASYNC =
@@ -47,15 +55,49 @@ public class InAppPurchasePlugin implements FlutterPlugin, ActivityAware {
         "BillingClient#consumeAsync(String, ConsumeResponseListener)";
     static final String ACKNOWLEDGE_PURCHASE =
         "BillingClient#(AcknowledgePurchaseParams params, (AcknowledgePurchaseParams, AcknowledgePurchaseResponseListener)";
+    static final String ACKNOWLEDGE_PURCHASES = "BillingClient#acknowledgePurchases(List<String>)";
+    static final String CONSUME_PURCHASES = "BillingClient#consumePurchases(List<String>)";
     static final String IS_FEATURE_SUPPORTED = "BillingClient#isFeatureSupported(String)";
     static final String LAUNCH_PRICE_CHANGE_CONFIRMATION_FLOW =
         "BillingClient#launchPriceChangeConfirmationFlow (Activity, PriceChangeFlowParams, PriceChangeConfirmationListener)";
+    static final String SET_PURCHASE_VERIFICATION_KEY =
+        "BillingClient#setPurchaseVerificationKey(String)";
+    static final String GET_SKU_CACHE_STATS = "BillingClient#getSkuCacheStats()";
+    static final String GET_METRICS = "BillingClient#getMetrics()";
 
     private MethodNames() {};
   }
 
+  /**
+   * Boolean {@code <meta-data>} of the application that makes the plugin connect to Play as soon as
+   * it is attached, see {@link #setConnectionWarmUpEnabled(boolean)}.
+   */
+  static final String WARM_UP_CONNECTION_METADATA_KEY =
+      "io.flutter.plugins.inapppurchase.WARM_UP_CONNECTION";
+
+  // Overrides the manifest when set.
+  @Nullable private static Boolean connectionWarmUpEnabled;
+
+  /**
+   * Integer {@code <meta-data>} of the application that bounds the number of cached sku details,
+   * see {@link #setSkuCacheMaxSize(int)}.
+   */
+  static final String SKU_CACHE_MAX_SIZE_METADATA_KEY =
+      "io.flutter.plugins.inapppurchase.SKU_CACHE_MAX_SIZE";
+
+  // Overrides the manifest when set.
+  @Nullable private static Integer skuCacheMaxSize;
+
+  static final String CONNECTION_STATE_CHANNEL_NAME =
+      "plugins.flutter.io/in_app_purchase_connection_state";
+
   private MethodChannel methodChannel;
+  private EventChannel connectionStateChannel;
+  private EventChannel purchaseHistoryChannel;
+  private EventChannel purchaseUpdatesChannel;
   private MethodCallHandlerImpl methodCallHandler;
+  private Context applicationContext;
+  private BillingClientFactory billingClientFactory = new BillingClientFactoryImpl();
 
   /** Plugin registration. */
   @SuppressWarnings("deprecation")
@@ -66,6 +108,44 @@ public class InAppPurchasePlugin implements FlutterPlugin, ActivityAware {
         .registerActivityLifecycleCallbacks(plugin.methodCallHandler);
   }
 
+  /**
+   * Routes the plugin's trace events at or above {@code minLevel} to {@code sink}. Pass {@code
+   * null} to turn tracing off, which is the default.
+   *
+   * @param minLevel one of the {@code LEVEL_} constants of {@link InAppPurchaseTraceSink}
+   */
+  public static void setTraceSink(@Nullable InAppPurchaseTraceSink sink, int minLevel) {
+    Tracer.setSink(sink, minLevel);
+  }
+
+  /**
+   * Makes the plugin build and connect its {@code BillingClient} as soon as it is attached to an
+   * engine, instead of waiting for the first Dart {@code startConnection} call. That call then
+   * reuses the connection that is already up or still in progress.
+   *
+   * <p>This overrides the {@code io.flutter.plugins.inapppurchase.WARM_UP_CONNECTION} {@code
+   * <meta-data>} of the application manifest, and must be called before the engine is created.
+   */
+  public static void setConnectionWarmUpEnabled(boolean enabled) {
+    connectionWarmUpEnabled = enabled;
+  }
+
+  /**
+   * Sets how many sku details the plugin keeps in memory and on disk, 1000 by default. Catalogs
+   * with more skus than that evict details, which {@code launchBillingFlow} then reports as {@code
+   * NOT_FOUND} until they are queried again. Watch the {@code evictionCount} of the Dart {@code
+   * getSkuCacheStats} to size it.
+   *
+   * <p>This overrides the {@code io.flutter.plugins.inapppurchase.SKU_CACHE_MAX_SIZE} {@code
+   * <meta-data>} of the application manifest, and must be called before the engine is created.
+   */
+  public static void setSkuCacheMaxSize(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize <= 0");
+    }
+    skuCacheMaxSize = maxSize;
+  }
+
   @Override
   public void onAttachedToEngine(FlutterPlugin.FlutterPluginBinding binding) {
     setupMethodChannel(
@@ -100,20 +180,119 @@ public class InAppPurchasePlugin implements FlutterPlugin, ActivityAware {
   }
 
   private void setupMethodChannel(Activity activity, BinaryMessenger messenger, Context context) {
-    methodChannel = new MethodChannel(messenger, "plugins.flutter.io/in_app_purchase");
+    // Calls are handled off the main thread, MethodCallHandlerImpl moves the UI ones back to it.
+    final BinaryMessenger.TaskQueue taskQueue = makeBackgroundTaskQueue(messenger);
+    methodChannel =
+        new MethodChannel(
+            messenger,
+            "plugins.flutter.io/in_app_purchase",
+            new StandardMethodCodec(InAppPurchaseMessageCodec.INSTANCE),
+            taskQueue);
+    final int skuCacheMaxSize = getSkuCacheMaxSize(context);
     methodCallHandler =
-        new MethodCallHandlerImpl(activity, context, methodChannel, new BillingClientFactoryImpl());
+        new MethodCallHandlerImpl(
+            activity,
+            context,
+            methodChannel,
+            billingClientFactory,
+            new SkuDetailsDiskCache(context, skuCacheMaxSize),
+            skuCacheMaxSize);
+    methodCallHandler.loadCachedSkus();
+    if (isConnectionWarmUpEnabled(context)) {
+      methodCallHandler.warmUpConnection();
+    }
     methodChannel.setMethodCallHandler(methodCallHandler);
+    connectionStateChannel = new EventChannel(messenger, CONNECTION_STATE_CHANNEL_NAME);
+    connectionStateChannel.setStreamHandler(
+        new ConnectionStateStreamHandler(methodCallHandler.getConnectionManager()));
+    purchaseHistoryChannel =
+        new EventChannel(
+            messenger,
+            PurchaseHistoryStreamHandler.CHANNEL_NAME,
+            new StandardMethodCodec(InAppPurchaseMessageCodec.INSTANCE));
+    purchaseHistoryChannel.setStreamHandler(new PurchaseHistoryStreamHandler(methodCallHandler));
+    purchaseUpdatesChannel =
+        new EventChannel(
+            messenger,
+            PurchaseUpdateStream.CHANNEL_NAME,
+            new StandardMethodCodec(InAppPurchaseMessageCodec.INSTANCE));
+    purchaseUpdatesChannel.setStreamHandler(methodCallHandler.getPurchaseUpdateStream());
+    applicationContext = context;
+    applicationContext.registerComponentCallbacks(methodCallHandler);
+  }
+
+  /** Returns a background task queue, or {@code null} if {@code messenger} does not support it. */
+  @Nullable
+  private static BinaryMessenger.TaskQueue makeBackgroundTaskQueue(BinaryMessenger messenger) {
+    try {
+      return messenger.makeBackgroundTaskQueue();
+    } catch (UnsupportedOperationException e) {
+      // Messengers not provided by the engine, calls then stay on the main thread.
+      return null;
+    }
   }
 
   private void teardownMethodChannel() {
+    applicationContext.unregisterComponentCallbacks(methodCallHandler);
+    applicationContext = null;
     methodChannel.setMethodCallHandler(null);
     methodChannel = null;
+    connectionStateChannel.setStreamHandler(null);
+    connectionStateChannel = null;
+    purchaseHistoryChannel.setStreamHandler(null);
+    purchaseHistoryChannel = null;
+    purchaseUpdatesChannel.setStreamHandler(null);
+    purchaseUpdatesChannel = null;
     methodCallHandler = null;
   }
 
+  private static boolean isConnectionWarmUpEnabled(Context context) {
+    if (connectionWarmUpEnabled != null) {
+      return connectionWarmUpEnabled;
+    }
+    PackageManager packageManager = context.getPackageManager();
+    if (packageManager == null) {
+      return false;
+    }
+    try {
+      ApplicationInfo info =
+          packageManager.getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+      return info != null
+          && info.metaData != null
+          && info.metaData.getBoolean(WARM_UP_CONNECTION_METADATA_KEY, false);
+    } catch (PackageManager.NameNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static int getSkuCacheMaxSize(Context context) {
+    if (skuCacheMaxSize != null) {
+      return skuCacheMaxSize;
+    }
+    PackageManager packageManager = context.getPackageManager();
+    if (packageManager == null) {
+      return SkuDetailsCache.DEFAULT_MAX_SIZE;
+    }
+    try {
+      ApplicationInfo info =
+          packageManager.getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+      final int maxSize =
+          info == null || info.metaData == null
+              ? 0
+              : info.metaData.getInt(SKU_CACHE_MAX_SIZE_METADATA_KEY, 0);
+      return maxSize > 0 ? maxSize : SkuDetailsCache.DEFAULT_MAX_SIZE;
+    } catch (PackageManager.NameNotFoundException e) {
+      return SkuDetailsCache.DEFAULT_MAX_SIZE;
+    }
+  }
+
   @VisibleForTesting
   void setMethodCallHandler(MethodCallHandlerImpl methodCallHandler) {
     this.methodCallHandler = methodCallHandler;
   }
+
+  @VisibleForTesting
+  void setBillingClientFactory(BillingClientFactory billingClientFactory) {
+    this.billingClientFactory = billingClientFactory;
+  }
 }
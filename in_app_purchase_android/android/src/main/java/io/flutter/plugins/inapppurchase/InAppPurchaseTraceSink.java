@@ -0,0 +1,45 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives structured trace events from the plugin.
+ *
+ * <p>Register an implementation with {@link InAppPurchasePlugin#setTraceSink} to route the events
+ * to a logging or metrics backend. Events may be delivered on any thread, and implementations
+ * should return quickly.
+ */
+public interface InAppPurchaseTraceSink {
+  /**
+   * A method call was dispatched, on whichever thread handles the channel, with the time the
+   * handler took to return. Matches {@code android.util.Log.VERBOSE}.
+   */
+  int LEVEL_VERBOSE = 2;
+  /** A billing request completed. Matches {@code android.util.Log.DEBUG}. */
+  int LEVEL_DEBUG = 3;
+  /** A billing request completed with a non OK response. Matches {@code android.util.Log.WARN}. */
+  int LEVEL_WARN = 5;
+
+  /** Passed as {@code count} when the event has no record count. */
+  int NO_COUNT = -1;
+  /** Passed as {@code responseCode} when the event has no {@code BillingResponseCode}. */
+  int NO_RESPONSE_CODE = Integer.MIN_VALUE;
+
+  /**
+   * Called for every event at or above the level the sink was registered with.
+   *
+   * @param level one of the {@code LEVEL_} constants
+   * @param method the method channel name of the call, for example {@code
+   *     BillingClient#queryPurchases(String)}
+   * @param count the number of records in the response, or {@link #NO_COUNT}
+   * @param latencyNanos the time from the call being received to the event
+   * @param responseCode the {@code BillingResponseCode} of the response, or {@link
+   *     #NO_RESPONSE_CODE}
+   */
+  void onTraceEvent(
+      int level, @NonNull String method, int count, long latencyNanos, int responseCode);
+}
@@ -0,0 +1,86 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies with power of two buckets in microseconds.
+ *
+ * <p>Bucket {@code i} counts the samples in {@code (2^(i-1), 2^i]} microseconds, the last bucket
+ * also counts everything above. Percentiles are reported as the upper bound of the bucket they fall
+ * in, so they overestimate by at most a factor of two.
+ */
+class LatencyHistogram {
+  static final int BUCKET_COUNT = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sumMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  void record(long nanos) {
+    final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+    buckets.incrementAndGet(bucketIndex(micros));
+    count.incrementAndGet();
+    sumMicros.addAndGet(micros);
+    long max;
+    while (micros > (max = maxMicros.get())) {
+      if (maxMicros.compareAndSet(max, micros)) {
+        break;
+      }
+    }
+  }
+
+  long count() {
+    return count.get();
+  }
+
+  /** Returns the upper bound in microseconds of the bucket holding the given percentile. */
+  long percentileMicros(double percentile) {
+    final long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(1L << i, maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  HashMap<String, Object> toMap() {
+    HashMap<String, Object> map = new HashMap<>();
+    map.put("count", count.get());
+    map.put("sumMicros", sumMicros.get());
+    map.put("maxMicros", maxMicros.get());
+    map.put("p50Micros", percentileMicros(50));
+    map.put("p90Micros", percentileMicros(90));
+    map.put("p99Micros", percentileMicros(99));
+    List<Long> bucketCounts = new ArrayList<>(BUCKET_COUNT);
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      bucketCounts.add(buckets.get(i));
+    }
+    map.put("buckets", bucketCounts);
+    return map;
+  }
+
+  static int bucketIndex(long micros) {
+    if (micros <= 1) {
+      return 0;
+    }
+    // Index of the smallest power of two that is at least micros.
+    return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+  }
+}
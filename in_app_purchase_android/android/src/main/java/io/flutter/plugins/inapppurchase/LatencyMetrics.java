@@ -0,0 +1,195 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+import com.android.billingclient.api.BillingClient;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency histograms of the billing requests, per method, response code and phase.
+ *
+ * <p>The phases of a request are:
+ *
+ * <ul>
+ *   <li>{@code ipc}: from issuing the request to Play until Play answers. Requests the plugin
+ *       answers itself, without asking Play, skip this phase.
+ *   <li>{@code serialization}: translating the answer for Dart, along with updating the plugin's
+ *       caches from it.
+ *   <li>{@code queue}: waiting for the serialization thread and then for the main thread to post
+ *       the reply.
+ *   <li>{@code mainThread}: blocking the main thread, to post the reply. Calls that are dispatched
+ *       on the main thread also record the dispatch, before any response, under {@link
+ *       #NO_RESPONSE_CODE}.
+ * </ul>
+ *
+ * <p>Every known {@code BillingResponseCode} has its own slot, so recording does not box the code.
+ * Codes the billing library may add later share a single {@code "other"} slot.
+ */
+class LatencyMetrics {
+  static final int PHASE_QUEUE = 0;
+  static final int PHASE_IPC = 1;
+  static final int PHASE_SERIALIZATION = 2;
+  static final int PHASE_MAIN_THREAD = 3;
+  private static final String[] PHASE_NAMES = {"queue", "ipc", "serialization", "mainThread"};
+
+  /** Stands for the response code of timings that are not tied to a response. */
+  static final int NO_RESPONSE_CODE = InAppPurchaseTraceSink.NO_RESPONSE_CODE;
+
+  private static final int MIN_KNOWN_CODE = BillingClient.BillingResponseCode.SERVICE_TIMEOUT;
+  private static final int MAX_KNOWN_CODE = BillingClient.BillingResponseCode.ITEM_NOT_OWNED;
+  // The known codes come first, offset by MIN_KNOWN_CODE.
+  private static final int NO_RESPONSE_CODE_SLOT = MAX_KNOWN_CODE - MIN_KNOWN_CODE + 1;
+  private static final int OTHER_CODE_SLOT = NO_RESPONSE_CODE_SLOT + 1;
+  private static final int CODE_SLOTS = OTHER_CODE_SLOT + 1;
+
+  // Method -> response code slot -> histograms indexed by phase, created on first use.
+  private final ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram[]>> histograms =
+      new ConcurrentHashMap<>();
+
+  /** Starts timing a request to Play for {@code method}. */
+  RequestTimer start(@NonNull String method) {
+    return new RequestTimer(method);
+  }
+
+  /** Records that dispatching {@code method} blocked the main thread for {@code nanos}. */
+  void recordMainThreadDispatch(@NonNull String method, long nanos) {
+    record(method, NO_RESPONSE_CODE, PHASE_MAIN_THREAD, nanos);
+  }
+
+  void record(@NonNull String method, int responseCode, int phase, long nanos) {
+    AtomicReferenceArray<LatencyHistogram[]> byCode = histograms.get(method);
+    if (byCode == null) {
+      AtomicReferenceArray<LatencyHistogram[]> created = new AtomicReferenceArray<>(CODE_SLOTS);
+      byCode = histograms.putIfAbsent(method, created);
+      if (byCode == null) {
+        byCode = created;
+      }
+    }
+    final int slot = slotOf(responseCode);
+    LatencyHistogram[] phases = byCode.get(slot);
+    if (phases == null) {
+      LatencyHistogram[] created = new LatencyHistogram[PHASE_NAMES.length];
+      for (int i = 0; i < created.length; i++) {
+        created[i] = new LatencyHistogram();
+      }
+      byCode.compareAndSet(slot, null, created);
+      phases = byCode.get(slot);
+    }
+    phases[phase].record(nanos);
+  }
+
+  private static int slotOf(int responseCode) {
+    if (responseCode >= MIN_KNOWN_CODE && responseCode <= MAX_KNOWN_CODE) {
+      return responseCode - MIN_KNOWN_CODE;
+    }
+    return responseCode == NO_RESPONSE_CODE ? NO_RESPONSE_CODE_SLOT : OTHER_CODE_SLOT;
+  }
+
+  private static String codeName(int slot) {
+    if (slot == NO_RESPONSE_CODE_SLOT) {
+      return "none";
+    }
+    return slot == OTHER_CODE_SLOT ? "other" : String.valueOf(slot + MIN_KNOWN_CODE);
+  }
+
+  /**
+   * Returns method -> response code -> phase -> histogram summary. Response codes are sent as
+   * strings so the result maps directly to JSON, {@link #NO_RESPONSE_CODE} as {@code "none"} and
+   * unknown codes as {@code "other"}.
+   */
+  HashMap<String, Object> snapshot() {
+    HashMap<String, Object> snapshot = new HashMap<>();
+    for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram[]>> method :
+        histograms.entrySet()) {
+      HashMap<String, Object> byCode = new HashMap<>();
+      final AtomicReferenceArray<LatencyHistogram[]> slots = method.getValue();
+      for (int slot = 0; slot < CODE_SLOTS; slot++) {
+        LatencyHistogram[] phases = slots.get(slot);
+        if (phases == null) {
+          continue;
+        }
+        HashMap<String, Object> byPhase = new HashMap<>();
+        for (int i = 0; i < phases.length; i++) {
+          if (phases[i].count() > 0) {
+            byPhase.put(PHASE_NAMES[i], phases[i].toMap());
+          }
+        }
+        byCode.put(codeName(slot), byPhase);
+      }
+      snapshot.put(method.getKey(), byCode);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Timestamps of a single request. Each step must happen after the previous one, possibly on
+   * another thread as long as the hand-off publishes the timer safely (executor or handler).
+   */
+  final class RequestTimer {
+    private final String method;
+    private final long startNanos;
+    private long markNanos;
+    private long queuedNanos;
+    private int responseCode;
+
+    private RequestTimer(String method) {
+      this.method = method;
+      this.startNanos = System.nanoTime();
+    }
+
+    String method() {
+      return method;
+    }
+
+    long startNanos() {
+      return startNanos;
+    }
+
+    /** Play answered with {@code responseCode}. */
+    void responded(int responseCode) {
+      this.responseCode = responseCode;
+      markNanos = System.nanoTime();
+      record(method, responseCode, PHASE_IPC, markNanos - startNanos);
+    }
+
+    /**
+     * The plugin answered with {@code responseCode} without asking Play. Unlike {@link #responded},
+     * nothing is recorded for the {@code ipc} phase.
+     */
+    void answeredLocally(int responseCode) {
+      this.responseCode = responseCode;
+      markNanos = System.nanoTime();
+    }
+
+    /** The request stopped waiting for a thread. */
+    void dequeued() {
+      final long now = System.nanoTime();
+      queuedNanos += now - markNanos;
+      markNanos = now;
+    }
+
+    /** The answer was translated for Dart. */
+    void serialized() {
+      final long now = System.nanoTime();
+      record(method, responseCode, PHASE_SERIALIZATION, now - markNanos);
+      markNanos = now;
+    }
+
+    /** The reply is being sent back to Dart. */
+    void replied() {
+      dequeued();
+      record(method, responseCode, PHASE_QUEUE, queuedNanos);
+    }
+
+    /** Posting the reply blocked the main thread for {@code nanos}. */
+    void blockedMainThread(long nanos) {
+      record(method, responseCode, PHASE_MAIN_THREAD, nanos);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import android.os.Looper;
+import androidx.annotation.NonNull;
+
+/**
+ * Runs work on the platform main thread.
+ *
+ * <p>Unlike {@link android.app.Activity#runOnUiThread}, this does not need an activity, so the
+ * plugin keeps working in a {@code FlutterEngine} without any UI, for example one processing
+ * purchase updates in the background.
+ */
+interface MainThreadDispatcher {
+
+  /** Runs {@code runnable} on the main thread, after the work already queued there. */
+  void dispatch(@NonNull Runnable runnable);
+
+  /** Returns whether the calling thread is the one {@link #dispatch} runs work on. */
+  default boolean isMainThread() {
+    return Looper.myLooper() == Looper.getMainLooper();
+  }
+}
@@ -0,0 +1,29 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+
+/** The implementation for {@link MainThreadDispatcher}, backed by a main looper {@link Handler}. */
+final class MainThreadDispatcherImpl implements MainThreadDispatcher {
+
+  private final Handler mainHandler;
+
+  MainThreadDispatcherImpl(@NonNull Handler mainHandler) {
+    this.mainHandler = mainHandler;
+  }
+
+  @Override
+  public void dispatch(@NonNull Runnable runnable) {
+    mainHandler.post(runnable);
+  }
+
+  @Override
+  public boolean isMainThread() {
+    return Looper.myLooper() == mainHandler.getLooper();
+  }
+}
@@ -10,11 +10,16 @@ import static io.flutter.plugins.inapppurchase.Translator.fromSkuDetailsList;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.android.billingclient.api.AcknowledgePurchaseParams;
 import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
 import com.android.billingclient.api.BillingClient;
@@ -24,33 +29,104 @@ import com.android.billingclient.api.BillingFlowParams;
 import com.android.billingclient.api.BillingFlowParams.ProrationMode;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.ConsumeParams;
-import com.android.billingclient.api.ConsumeResponseListener;
 import com.android.billingclient.api.PriceChangeFlowParams;
 import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
 import com.android.billingclient.api.SkuDetails;
-import com.android.billingclient.api.SkuDetailsParams;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Handles method channel for the plugin. */
 class MethodCallHandlerImpl
-    implements MethodChannel.MethodCallHandler, Application.ActivityLifecycleCallbacks {
+    implements MethodChannel.MethodCallHandler,
+        Application.ActivityLifecycleCallbacks,
+        ComponentCallbacks2 {
 
   private static final String TAG = "InAppPurchasePlugin";
   private static final String LOAD_SKU_DOC_URL =
       "https://github.com/flutter/plugins/blob/master/packages/in_app_purchase/in_app_purchase/README.md#loading-products-for-sale";
 
-  @Nullable private BillingClient billingClient;
+  // Written on the main thread, read by the calls running on the background task queue.
+  @Nullable private volatile BillingClient billingClient;
   private final BillingClientFactory billingClientFactory;
 
-  @Nullable private Activity activity;
+  @Nullable private volatile Activity activity;
   private final Context applicationContext;
   private final MethodChannel methodChannel;
 
-  private HashMap<String, SkuDetails> cachedSkus = new HashMap<>();
+  private final SkuDetailsCache cachedSkus;
+  private final SkuDetailsQueryCoordinator skuDetailsQueryCoordinator =
+      new SkuDetailsQueryCoordinator();
+  @Nullable private final SkuDetailsDiskCache skuDetailsDiskCache;
+  // Skus restored from disk that still have to be refreshed from Play once connected.
+  private final HashMap<String, List<String>> warmStartSkusByType = new HashMap<>();
+
+  // Billing responses are translated here so that only the reply itself runs on the main thread.
+  private Executor serializationExecutor = SERIALIZATION_EXECUTOR;
+  private final LatencyMetrics latencyMetrics = new LatencyMetrics();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Replies and UI calls go through this rather than the activity, which may never be attached.
+  private MainThreadDispatcher mainThreadDispatcher = new MainThreadDispatcherImpl(mainHandler);
+  private BillingConnectionManager connectionManager = new BillingConnectionManager(mainHandler);
+  private final PurchaseUpdateStream purchaseUpdateStream;
+  private final PluginPurchaseListener purchaseListener;
+  private final PurchaseTokenIndex purchaseTokenIndex = new PurchaseTokenIndex();
+  private final PurchaseSignatureVerifier signatureVerifier = new PurchaseSignatureVerifier();
+  private final PurchaseSnapshotTracker purchaseSnapshotTracker = new PurchaseSnapshotTracker();
+
+  // The calls onMethodCall moved to the main thread that have not run yet.
+  private final AtomicInteger pendingMainThreadCalls = new AtomicInteger();
+
+  private static final Set<String> MAIN_THREAD_METHODS =
+      new HashSet<>(
+          Arrays.asList(
+              InAppPurchasePlugin.MethodNames.START_CONNECTION,
+              InAppPurchasePlugin.MethodNames.END_CONNECTION,
+              InAppPurchasePlugin.MethodNames.LAUNCH_BILLING_FLOW,
+              InAppPurchasePlugin.MethodNames.LAUNCH_PRICE_CHANGE_CONFIRMATION_FLOW));
+
+  private static final int NO_DISCONNECT_HANDLE = -1;
+  // The connection of billingClient is shared by every Dart startConnection call. The results
+  // waiting for the setup in progress, if any, and the result of the last completed setup.
+  @Nullable private List<MethodChannel.Result> pendingSetupResults;
+  @Nullable private BillingResult lastSetupResult;
+  // Set by the latest startConnection call.
+  private int disconnectHandle = NO_DISCONNECT_HANDLE;
+  private boolean autoReconnect;
+
+  private static final ExecutorService SERIALIZATION_EXECUTOR =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "InAppPurchaseSerializer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** Receives the result of acknowledging or consuming a single purchase token. */
+  private interface TokenCallback {
+    /** {@code answeredLocally} is set when the token index knew the result, Play was not asked. */
+    void onResult(@NonNull BillingResult billingResult, boolean answeredLocally);
+  }
+
+  /** Acknowledges or consumes a single purchase token. */
+  private interface TokenOperation {
+    void start(@NonNull String purchaseToken, @NonNull TokenCallback callback);
+  }
 
   /** Constructs the MethodCallHandlerImpl */
   MethodCallHandlerImpl(
@@ -58,10 +134,113 @@ class MethodCallHandlerImpl
       @NonNull Context applicationContext,
       @NonNull MethodChannel methodChannel,
       @NonNull BillingClientFactory billingClientFactory) {
+    this(activity, applicationContext, methodChannel, billingClientFactory, null);
+  }
+
+  /**
+   * Constructs the MethodCallHandlerImpl with a {@link SkuDetailsDiskCache} used to warm start
+   * {@code cachedSkus} across process restarts.
+   */
+  MethodCallHandlerImpl(
+      @Nullable Activity activity,
+      @NonNull Context applicationContext,
+      @NonNull MethodChannel methodChannel,
+      @NonNull BillingClientFactory billingClientFactory,
+      @Nullable SkuDetailsDiskCache skuDetailsDiskCache) {
+    this(
+        activity,
+        applicationContext,
+        methodChannel,
+        billingClientFactory,
+        skuDetailsDiskCache,
+        SkuDetailsCache.DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructs the MethodCallHandlerImpl with a {@code cachedSkus} bound of {@code skuCacheMaxSize}
+   * entries.
+   */
+  MethodCallHandlerImpl(
+      @Nullable Activity activity,
+      @NonNull Context applicationContext,
+      @NonNull MethodChannel methodChannel,
+      @NonNull BillingClientFactory billingClientFactory,
+      @Nullable SkuDetailsDiskCache skuDetailsDiskCache,
+      int skuCacheMaxSize) {
+    this.cachedSkus = new SkuDetailsCache(skuCacheMaxSize);
     this.billingClientFactory = billingClientFactory;
     this.applicationContext = applicationContext;
     this.activity = activity;
     this.methodChannel = methodChannel;
+    this.skuDetailsDiskCache = skuDetailsDiskCache;
+    this.purchaseUpdateStream =
+        new PurchaseUpdateStream(
+            methodChannel,
+            mainHandler,
+            runnable -> serializationExecutor.execute(runnable),
+            signatureVerifier);
+    this.purchaseListener = new PluginPurchaseListener(purchaseUpdateStream, purchaseTokenIndex);
+  }
+
+  /**
+   * Populates {@code cachedSkus} from the disk cache, if any. The cache is read and parsed on the
+   * serialization executor so that it does not delay the engine start. The restored entries are
+   * refreshed from Play in the background as soon as a connection is established.
+   */
+  void loadCachedSkus() {
+    final SkuDetailsDiskCache diskCache = skuDetailsDiskCache;
+    if (diskCache == null) {
+      return;
+    }
+
+    serializationExecutor.execute(
+        () -> {
+          final List<SkuDetails> restored = diskCache.load();
+          for (SkuDetails skuDetails : restored) {
+            // Details fetched from Play while loading are fresher than the restored ones.
+            cachedSkus.putIfAbsent(skuDetails);
+          }
+          mainThreadDispatcher.dispatch(() -> onCachedSkusLoaded(restored));
+        });
+  }
+
+  private void onCachedSkusLoaded(List<SkuDetails> restored) {
+    for (SkuDetails skuDetails : restored) {
+      List<String> skus = warmStartSkusByType.get(skuDetails.getType());
+      if (skus == null) {
+        skus = new ArrayList<>();
+        warmStartSkusByType.put(skuDetails.getType(), skus);
+      }
+      skus.add(skuDetails.getSku());
+    }
+    if (lastSetupResult != null
+        && lastSetupResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+      // Connected before the cache was loaded.
+      refreshWarmStartSkus();
+    }
+  }
+
+  PurchaseUpdateStream getPurchaseUpdateStream() {
+    return purchaseUpdateStream;
+  }
+
+  BillingConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  @VisibleForTesting
+  void setConnectionManager(@NonNull BillingConnectionManager connectionManager) {
+    this.connectionManager = connectionManager;
+  }
+
+  @VisibleForTesting
+  void setMainThreadDispatcher(@NonNull MainThreadDispatcher mainThreadDispatcher) {
+    this.mainThreadDispatcher = mainThreadDispatcher;
+  }
+
+  @VisibleForTesting
+  void setSerializationExecutor(@NonNull Executor serializationExecutor) {
+    this.serializationExecutor = serializationExecutor;
   }
 
   /**
@@ -103,31 +282,101 @@ class MethodCallHandlerImpl
   }
 
   @Override
-  public void onMethodCall(MethodCall call, MethodChannel.Result result) {
+  public void onTrimMemory(int level) {
+    cachedSkus.trimMemory(level);
+  }
+
+  @Override
+  public void onLowMemory() {
+    cachedSkus.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    // The locale may have changed, which changes how currency symbols are displayed.
+    Translator.clearCurrencySymbols();
+  }
+
+  /**
+   * Handles {@code call}, on the background task queue of the channel if it has one.
+   *
+   * <p>The calls that launch UI need the activity, and the connection calls share their state with
+   * the Play callbacks, which arrive on the main thread. Those are moved to the main thread, every
+   * other call runs on the thread it arrives on.
+   *
+   * <p>Calls are still handled in the order Dart sent them. While a call moved to the main thread
+   * has not run yet, the calls arriving after it are moved there too, behind it. A {@code
+   * queryPurchases} sent right after {@code startConnection} thus sees the billing client that call
+   * set up.
+   */
+  @Override
+  public void onMethodCall(final MethodCall call, final MethodChannel.Result result) {
+    if (mainThreadDispatcher.isMainThread()
+        || (!MAIN_THREAD_METHODS.contains(call.method) && pendingMainThreadCalls.get() == 0)) {
+      dispatchMethodCall(call, result);
+      return;
+    }
+
+    pendingMainThreadCalls.incrementAndGet();
+    mainThreadDispatcher.dispatch(
+        () -> {
+          try {
+            dispatchMethodCall(call, result);
+          } finally {
+            pendingMainThreadCalls.decrementAndGet();
+          }
+        });
+  }
+
+  private void dispatchMethodCall(MethodCall call, MethodChannel.Result result) {
+    final long start = System.nanoTime();
+    try {
+      handleMethodCall(call, result);
+    } finally {
+      final long elapsed = System.nanoTime() - start;
+      if (mainThreadDispatcher.isMainThread()) {
+        latencyMetrics.recordMainThreadDispatch(call.method, elapsed);
+      }
+      Tracer.trace(
+          InAppPurchaseTraceSink.LEVEL_VERBOSE,
+          call.method,
+          InAppPurchaseTraceSink.NO_COUNT,
+          elapsed,
+          InAppPurchaseTraceSink.NO_RESPONSE_CODE);
+    }
+  }
+
+  private void handleMethodCall(MethodCall call, MethodChannel.Result result) {
     switch (call.method) {
       case InAppPurchasePlugin.MethodNames.IS_READY:
-        Log.d(TAG, InAppPurchasePlugin.MethodNames.IS_READY);
         isReady(result);
         break;
       case InAppPurchasePlugin.MethodNames.START_CONNECTION:
-        Log.d(TAG, "start connection.");
         startConnection(
             (int) call.argument("handle"),
             (boolean) call.argument("enablePendingPurchases"),
+            call.hasArgument("autoReconnect") && (boolean) call.argument("autoReconnect"),
             result);
-        Log.d(TAG, "start connection end.");
         break;
       case InAppPurchasePlugin.MethodNames.END_CONNECTION:
-        Log.d(TAG, "end connection.");
         endConnection(result);
         break;
       case InAppPurchasePlugin.MethodNames.QUERY_SKU_DETAILS:
-        Log.d(TAG, InAppPurchasePlugin.MethodNames.QUERY_SKU_DETAILS);
         List<String> skusList = call.argument("skusList");
-        querySkuDetailsAsync((String) call.argument("skuType"), skusList, result);
+        querySkuDetailsAsync(
+            (String) call.argument("skuType"),
+            skusList,
+            Translator.fieldMask((List<String>) call.argument("fields")),
+            result);
+        break;
+      case InAppPurchasePlugin.MethodNames.QUERY_CACHED_SKU_DETAILS:
+        queryCachedSkuDetails(
+            (String) call.argument("skuType"),
+            (List<String>) call.argument("skusList"),
+            Translator.fieldMask((List<String>) call.argument("fields")),
+            result);
         break;
       case InAppPurchasePlugin.MethodNames.LAUNCH_BILLING_FLOW:
-        Log.d(TAG, InAppPurchasePlugin.MethodNames.LAUNCH_BILLING_FLOW);
         launchBillingFlow(
             (String) call.argument("sku"),
             (String) call.argument("accountId"),
@@ -141,11 +390,23 @@ class MethodCallHandlerImpl
         break;
       case InAppPurchasePlugin.MethodNames.QUERY_PURCHASES:
         // restorePurchases()もここ
-        Log.d(TAG, InAppPurchasePlugin.MethodNames.QUERY_PURCHASES);
-        queryPurchases((String) call.argument("skuType"), result);
+        queryPurchases(
+            (String) call.argument("skuType"),
+            Translator.fieldMask((List<String>) call.argument("fields")),
+            call.hasArgument("delta") && (boolean) call.argument("delta"),
+            call.hasArgument("snapshotVersion")
+                ? ((Number) call.argument("snapshotVersion")).longValue()
+                : null,
+            result);
+        break;
+      case InAppPurchasePlugin.MethodNames.QUERY_ALL_PURCHASES:
+        queryAllPurchases(Translator.fieldMask((List<String>) call.argument("fields")), result);
         break;
       case InAppPurchasePlugin.MethodNames.QUERY_PURCHASE_HISTORY_ASYNC:
-        queryPurchaseHistoryAsync((String) call.argument("skuType"), result);
+        queryPurchaseHistoryAsync(
+            (String) call.argument("skuType"),
+            Translator.fieldMask((List<String>) call.argument("fields")),
+            result);
         break;
       case InAppPurchasePlugin.MethodNames.CONSUME_PURCHASE_ASYNC:
         consumeAsync((String) call.argument("purchaseToken"), result);
@@ -153,23 +414,63 @@ class MethodCallHandlerImpl
       case InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASE:
         acknowledgePurchase((String) call.argument("purchaseToken"), result);
         break;
+      case InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASES:
+        acknowledgePurchases(
+            (List<String>) call.argument("purchaseTokens"),
+            (Integer) call.argument("maxConcurrentCalls"),
+            result);
+        break;
+      case InAppPurchasePlugin.MethodNames.CONSUME_PURCHASES:
+        consumePurchases(
+            (List<String>) call.argument("purchaseTokens"),
+            (Integer) call.argument("maxConcurrentCalls"),
+            result);
+        break;
       case InAppPurchasePlugin.MethodNames.IS_FEATURE_SUPPORTED:
         isFeatureSupported((String) call.argument("feature"), result);
         break;
       case InAppPurchasePlugin.MethodNames.LAUNCH_PRICE_CHANGE_CONFIRMATION_FLOW:
         launchPriceChangeConfirmationFlow((String) call.argument("sku"), result);
         break;
+      case InAppPurchasePlugin.MethodNames.SET_PURCHASE_VERIFICATION_KEY:
+        setPurchaseVerificationKey((String) call.argument("base64PublicKey"), result);
+        break;
+      case InAppPurchasePlugin.MethodNames.GET_SKU_CACHE_STATS:
+        result.success(cachedSkus.stats());
+        break;
+      case InAppPurchasePlugin.MethodNames.GET_METRICS:
+        result.success(latencyMetrics.snapshot());
+        break;
       default:
         result.notImplemented();
     }
   }
 
+  private void setPurchaseVerificationKey(
+      @Nullable String base64PublicKey, MethodChannel.Result result) {
+    try {
+      signatureVerifier.setPublicKey(base64PublicKey);
+      // The delivered verdicts are stale, the next delta queries send whole snapshots.
+      purchaseSnapshotTracker.clear();
+    } catch (IllegalArgumentException e) {
+      result.error("INVALID_PUBLIC_KEY", e.getMessage(), null);
+      return;
+    }
+    result.success(null);
+  }
+
   private void endConnection(final MethodChannel.Result result) {
     endBillingClientConnection();
     result.success(null);
   }
 
   private void endBillingClientConnection() {
+    connectionManager.onDisconnected();
+    pendingSetupResults = null;
+    lastSetupResult = null;
+    purchaseTokenIndex.clear();
+    purchaseSnapshotTracker.clear();
+    skuDetailsQueryCoordinator.reset();
     if (billingClient != null) {
       billingClient.endConnection();
       billingClient = null;
@@ -177,36 +478,151 @@ class MethodCallHandlerImpl
   }
 
   private void isReady(MethodChannel.Result result) {
-    if (billingClientError(result)) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
 
-    result.success(billingClient.isReady());
+    result.success(client.isReady());
   }
 
   private void querySkuDetailsAsync(
-      final String skuType, final List<String> skusList, final MethodChannel.Result result) {
-    if (billingClientError(result)) {
+      final String skuType,
+      final List<String> skusList,
+      @Nullable final Set<String> fields,
+      final MethodChannel.Result result) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
 
-    SkuDetailsParams params =
-        SkuDetailsParams.newBuilder().setType(skuType).setSkusList(skusList).build();
-    billingClient.querySkuDetailsAsync(
-        params,
-            (billingResult, skuDetailsList) -> activity.runOnUiThread(() -> {
-              Log.d(TAG, "welcome. querySkuDetailsAsync skuDetailsResponseListener");
+    final LatencyMetrics.RequestTimer timer =
+        latencyMetrics.start(InAppPurchasePlugin.MethodNames.QUERY_SKU_DETAILS);
+    skuDetailsQueryCoordinator.querySkuDetails(
+        client,
+        skuType,
+        skusList,
+        (billingResult, skuDetailsList) -> {
+          timer.responded(billingResult.getResponseCode());
+          serializationExecutor.execute(
+              () -> {
+                timer.dequeued();
+                updateCachedSkus(skuDetailsList);
+                final Map<String, Object> skuDetailsResponse = new HashMap<>();
+                skuDetailsResponse.put(
+                    "billingResult", Translator.fromBillingResult(billingResult));
+                skuDetailsResponse.put(
+                    "skuDetailsList", fromSkuDetailsList(skuDetailsList, fields));
+                timer.serialized();
+                Tracer.traceResponse(
+                    InAppPurchasePlugin.MethodNames.QUERY_SKU_DETAILS,
+                    timer.startNanos(),
+                    billingResult,
+                    skuDetailsList);
+                replyOnMainThread(timer, result, skuDetailsResponse);
+              });
+        });
+  }
+
+  private void queryCachedSkuDetails(
+      final String skuType,
+      final List<String> skusList,
+      @Nullable final Set<String> fields,
+      final MethodChannel.Result result) {
+    if (skusList == null) {
+      result.error("INVALID_ARGUMENT", "skusList must not be null.", null);
+      return;
+    }
+
+    final List<SkuDetails> skuDetailsList = new ArrayList<>();
+    for (String sku : skusList) {
+      SkuDetails skuDetails = cachedSkus.get(sku);
+      if (skuDetails != null && skuDetails.getType().equals(skuType)) {
+        skuDetailsList.add(skuDetails);
+      }
+    }
+
+    final Map<String, Object> skuDetailsResponse = new HashMap<>();
+    skuDetailsResponse.put(
+        "billingResult",
+        Translator.fromBillingResult(
+            BillingResult.newBuilder()
+                .setResponseCode(BillingClient.BillingResponseCode.OK)
+                .build()));
+    skuDetailsResponse.put("skuDetailsList", fromSkuDetailsList(skuDetailsList, fields));
+    result.success(skuDetailsResponse);
+  }
+
+  private void refreshWarmStartSkus() {
+    final BillingClient client = billingClient;
+    if (client == null || warmStartSkusByType.isEmpty()) {
+      return;
+    }
+
+    for (Map.Entry<String, List<String>> entry : warmStartSkusByType.entrySet()) {
+      skuDetailsQueryCoordinator.querySkuDetails(
+          client,
+          entry.getKey(),
+          entry.getValue(),
+          (billingResult, skuDetailsList) -> {
+            if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
               updateCachedSkus(skuDetailsList);
-              final Map<String, Object> skuDetailsResponse = new HashMap<>();
-              skuDetailsResponse.put("billingResult", Translator.fromBillingResult(billingResult));
-              skuDetailsResponse.put("skuDetailsList", fromSkuDetailsList(skuDetailsList));
-              Log.d(TAG, "querySkuDetailsAsync: " + skuDetailsResponse);
+            } else {
+              Log.w(TAG, "Unable to refresh cached skus: " + billingResult.getDebugMessage());
+            }
+          });
+    }
+    warmStartSkusByType.clear();
+  }
+
+  /**
+   * Runs {@code action} on the main thread once the details of {@code skus} that were evicted from
+   * {@code cachedSkus}, for instance by {@link #onTrimMemory}, are restored from the disk cache, so
+   * that a sku the app already showed can still be bought. The disk cache is only read on the
+   * serialization executor, the main thread never waits for its lock or for the disk. {@code
+   * action} runs right away when every sku is in memory.
+   */
+  private void restoreEvictedSkus(final List<String> skus, final Runnable action) {
+    final SkuDetailsDiskCache diskCache = skuDetailsDiskCache;
+    final List<String> evicted = new ArrayList<>();
+    for (String sku : skus) {
+      if (sku != null && !cachedSkus.containsKey(sku)) {
+        evicted.add(sku);
+      }
+    }
+    if (diskCache == null || evicted.isEmpty()) {
+      action.run();
+      return;
+    }
 
-              result.success(skuDetailsResponse);
-            }));
+    serializationExecutor.execute(
+        () -> {
+          for (String sku : evicted) {
+            final SkuDetails skuDetails = diskCache.get(sku);
+            if (skuDetails != null) {
+              cachedSkus.putIfAbsent(skuDetails);
+            }
+          }
+          mainThreadDispatcher.dispatch(action);
+        });
   }
 
   private void launchBillingFlow(
+      final String sku,
+      @Nullable final String accountId,
+      @Nullable final String obfuscatedProfileId,
+      @Nullable final String oldSku,
+      @Nullable final String purchaseToken,
+      final int prorationMode,
+      final MethodChannel.Result result) {
+    restoreEvictedSkus(
+        Arrays.asList(sku, oldSku),
+        () ->
+            launchBillingFlowWithCachedSkus(
+                sku, accountId, obfuscatedProfileId, oldSku, purchaseToken, prorationMode, result));
+  }
+
+  private void launchBillingFlowWithCachedSkus(
       String sku,
       @Nullable String accountId,
       @Nullable String obfuscatedProfileId,
@@ -214,7 +630,8 @@ class MethodCallHandlerImpl
       @Nullable String purchaseToken,
       int prorationMode,
       MethodChannel.Result result) {
-    if (billingClientError(result)) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
 
@@ -277,125 +694,645 @@ class MethodCallHandlerImpl
     BillingFlowParams billingFlowParams = billingBuilder.build();
 
     result.success(
-        Translator.fromBillingResult(
-            billingClient.launchBillingFlow(activity, billingFlowParams)));
+        Translator.fromBillingResult(client.launchBillingFlow(activity, billingFlowParams)));
   }
 
   private void consumeAsync(String purchaseToken, final MethodChannel.Result result) {
-    if (billingClientError(result)) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
 
-    ConsumeResponseListener listener =
-            (billingResult, outToken) -> result.success(Translator.fromBillingResult(billingResult));
-    ConsumeParams.Builder paramsBuilder =
-        ConsumeParams.newBuilder().setPurchaseToken(purchaseToken);
-
-    ConsumeParams params = paramsBuilder.build();
+    final LatencyMetrics.RequestTimer timer =
+        latencyMetrics.start(InAppPurchasePlugin.MethodNames.CONSUME_PURCHASE_ASYNC);
+    consume(
+        client,
+        purchaseToken,
+        (billingResult, answeredLocally) -> {
+          if (answeredLocally) {
+            timer.answeredLocally(billingResult.getResponseCode());
+          } else {
+            timer.responded(billingResult.getResponseCode());
+          }
+          Tracer.traceResponse(
+              InAppPurchasePlugin.MethodNames.CONSUME_PURCHASE_ASYNC,
+              timer.startNanos(),
+              billingResult,
+              null);
+          replyDirectly(timer, result, billingResult);
+        });
+  }
 
-    billingClient.consumeAsync(params, listener);
+  /**
+   * Consumes {@code purchaseToken}, or answers right away when {@link #purchaseTokenIndex} already
+   * knows the result.
+   */
+  private void consume(
+      BillingClient client, final String purchaseToken, final TokenCallback callback) {
+    final BillingResult knownResult = purchaseTokenIndex.consumeResult(purchaseToken);
+    if (knownResult != null) {
+      callback.onResult(knownResult, /*answeredLocally=*/ true);
+      return;
+    }
+    ConsumeParams params = ConsumeParams.newBuilder().setPurchaseToken(purchaseToken).build();
+    client.consumeAsync(
+        params,
+        (billingResult, outToken) -> {
+          if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+            purchaseTokenIndex.onConsumed(purchaseToken);
+          }
+          callback.onResult(billingResult, /*answeredLocally=*/ false);
+        });
   }
 
-  private void queryPurchases(String skuType, MethodChannel.Result result) {
-    if (billingClientError(result)) {
+  /**
+   * Queries the owned purchases of {@code skuType}.
+   *
+   * <p>In {@code delta} mode only the purchases that changed since the snapshot {@code
+   * knownSnapshotVersion} are sent, see {@link PurchaseSnapshotTracker}. Failed queries are always
+   * answered like outside of delta mode. Dart merges the delta by purchase token, so {@code
+   * purchaseToken} is always part of the field mask in delta mode.
+   */
+  private void queryPurchases(
+      String skuType,
+      @Nullable Set<String> requestedFields,
+      boolean delta,
+      @Nullable Long knownSnapshotVersion,
+      MethodChannel.Result result) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
 
+    final Set<String> fields;
+    if (delta && requestedFields != null && !requestedFields.contains("purchaseToken")) {
+      fields = new HashSet<>(requestedFields);
+      fields.add("purchaseToken");
+    } else {
+      fields = requestedFields;
+    }
+
     // Like in our connect call, consider the billing client responding a "success" here regardless
     // of status code.
 
-    billingClient.queryPurchasesAsync(skuType,(billingResult, list) -> {
-      if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
-        Log.e(TAG, "Problem getting purchases: " +
-                billingResult.getDebugMessage());
-      } else {
-        activity.runOnUiThread(()->{
-          result.success(fromPurchasesResult(new Purchase.PurchasesResult(billingResult, list)));
+    final LatencyMetrics.RequestTimer timer =
+        latencyMetrics.start(InAppPurchasePlugin.MethodNames.QUERY_PURCHASES);
+    client.queryPurchasesAsync(
+        skuType,
+        (billingResult, list) -> {
+          timer.responded(billingResult.getResponseCode());
+          if (billingResult.getResponseCode() != BillingClient.BillingResponseCode.OK) {
+            Log.e(TAG, "Problem getting purchases: " + billingResult.getDebugMessage());
+          } else {
+            purchaseTokenIndex.onSnapshot(skuType, list);
+          }
+          Tracer.traceResponse(
+              InAppPurchasePlugin.MethodNames.QUERY_PURCHASES,
+              timer.startNanos(),
+              billingResult,
+              list);
+          serializationExecutor.execute(
+              () -> {
+                timer.dequeued();
+                final Map<String, Object> serialized;
+                if (delta
+                    && billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                  serialized =
+                      Translator.fromPurchasesDelta(
+                          billingResult,
+                          purchaseSnapshotTracker.update(
+                              skuType, knownSnapshotVersion, fields, list),
+                          signatureVerifier,
+                          fields);
+                } else {
+                  serialized =
+                      fromPurchasesResult(
+                          new Purchase.PurchasesResult(billingResult, list),
+                          signatureVerifier,
+                          fields);
+                }
+                timer.serialized();
+                replyOnMainThread(timer, result, serialized);
+              });
         });
+  }
+
+  private void queryAllPurchases(
+      @Nullable final Set<String> fields, final MethodChannel.Result result) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
+      return;
+    }
+
+    // Both queries are issued at once and answered together once the slower one completes.
+    final String[] skuTypes = {BillingClient.SkuType.INAPP, BillingClient.SkuType.SUBS};
+    final BillingResult[] billingResults = new BillingResult[skuTypes.length];
+    final List<List<Purchase>> purchasesLists = new ArrayList<>();
+    for (int i = 0; i < skuTypes.length; i++) {
+      purchasesLists.add(null);
+    }
+    final AtomicInteger remaining = new AtomicInteger(skuTypes.length);
+    final LatencyMetrics.RequestTimer timer =
+        latencyMetrics.start(InAppPurchasePlugin.MethodNames.QUERY_ALL_PURCHASES);
+    for (int i = 0; i < skuTypes.length; i++) {
+      final int index = i;
+      client.queryPurchasesAsync(
+          skuTypes[i],
+          (billingResult, list) -> {
+            if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+              purchaseTokenIndex.onSnapshot(skuTypes[index], list);
+            }
+            billingResults[index] = billingResult;
+            purchasesLists.set(index, list);
+            if (remaining.decrementAndGet() == 0) {
+              final Purchase.PurchasesResult merged =
+                  mergePurchasesResults(billingResults, purchasesLists);
+              timer.responded(merged.getBillingResult().getResponseCode());
+              serializationExecutor.execute(
+                  () -> {
+                    timer.dequeued();
+                    Tracer.traceResponse(
+                        InAppPurchasePlugin.MethodNames.QUERY_ALL_PURCHASES,
+                        timer.startNanos(),
+                        merged.getBillingResult(),
+                        merged.getPurchasesList());
+                    final Map<String, Object> serialized =
+                        fromPurchasesResult(merged, signatureVerifier, fields);
+                    timer.serialized();
+                    replyOnMainThread(timer, result, serialized);
+                  });
+            }
+          });
+    }
+  }
+
+  /**
+   * Combines the given results into one. The first non OK {@link BillingResult} wins, and a
+   * purchase reported more than once is only kept the first time its token is seen.
+   */
+  private static Purchase.PurchasesResult mergePurchasesResults(
+      BillingResult[] billingResults, List<List<Purchase>> purchasesLists) {
+    BillingResult billingResult = billingResults[0];
+    for (BillingResult candidate : billingResults) {
+      if (candidate.getResponseCode() != BillingClient.BillingResponseCode.OK) {
+        billingResult = candidate;
+        break;
+      }
+    }
+
+    final LinkedHashMap<String, Purchase> purchasesByToken = new LinkedHashMap<>();
+    for (List<Purchase> purchases : purchasesLists) {
+      if (purchases == null) {
+        continue;
+      }
+      for (Purchase purchase : purchases) {
+        if (!purchasesByToken.containsKey(purchase.getPurchaseToken())) {
+          purchasesByToken.put(purchase.getPurchaseToken(), purchase);
+        }
       }
-    });
+    }
+    return new Purchase.PurchasesResult(
+        billingResult, new ArrayList<>(purchasesByToken.values()));
   }
 
-  private void queryPurchaseHistoryAsync(String skuType, final MethodChannel.Result result) {
-    if (billingClientError(result)) {
+  private void queryPurchaseHistoryAsync(
+      String skuType, @Nullable final Set<String> fields, final MethodChannel.Result result) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
 
-    billingClient.queryPurchaseHistoryAsync(
+    final LatencyMetrics.RequestTimer timer =
+        latencyMetrics.start(InAppPurchasePlugin.MethodNames.QUERY_PURCHASE_HISTORY_ASYNC);
+    client.queryPurchaseHistoryAsync(
         skuType,
-            (billingResult, purchasesList) -> {
-              final Map<String, Object> serialized = new HashMap<>();
-              serialized.put("billingResult", Translator.fromBillingResult(billingResult));
-              serialized.put(
-                  "purchaseHistoryRecordList", fromPurchaseHistoryRecordList(purchasesList));
-              result.success(serialized);
-            });
+        (billingResult, purchasesList) -> {
+          timer.responded(billingResult.getResponseCode());
+          serializationExecutor.execute(
+              () -> {
+                timer.dequeued();
+                Tracer.traceResponse(
+                    InAppPurchasePlugin.MethodNames.QUERY_PURCHASE_HISTORY_ASYNC,
+                    timer.startNanos(),
+                    billingResult,
+                    purchasesList);
+                final Map<String, Object> serialized = new HashMap<>();
+                serialized.put("billingResult", Translator.fromBillingResult(billingResult));
+                serialized.put(
+                    "purchaseHistoryRecordList",
+                    fromPurchaseHistoryRecordList(purchasesList, fields));
+                timer.serialized();
+                replyOnMainThread(timer, result, serialized);
+              });
+        });
+  }
+
+  /**
+   * Queries the purchase history of {@code skuType} and sends it to {@code events} in chunks of at
+   * most {@code chunkSize} records, then ends the stream.
+   *
+   * <p>Every chunk is shaped like the {@code queryPurchaseHistoryAsync} response, with the {@code
+   * offset} of its first record and the {@code total} number of records added. Records only carry
+   * the given {@code fields}, or all of them when null. A chunk is only translated once the previous
+   * one was sent, so at most one translated chunk is held at a time, and nothing more is sent once
+   * {@code cancelled} is set.
+   */
+  void streamPurchaseHistory(
+      final String skuType,
+      final int chunkSize,
+      @Nullable final Set<String> fields,
+      final EventChannel.EventSink events,
+      final AtomicBoolean cancelled) {
+    final BillingClient client = billingClient;
+    if (client == null) {
+      events.error("UNAVAILABLE", "BillingClient is unset. Try reconnecting.", null);
+      return;
+    }
+
+    final int boundedChunkSize = Math.max(1, chunkSize);
+    final long start = System.nanoTime();
+    client.queryPurchaseHistoryAsync(
+        skuType,
+        (billingResult, purchasesList) ->
+            serializationExecutor.execute(
+                () -> {
+                  Tracer.traceResponse(
+                      InAppPurchasePlugin.MethodNames.QUERY_PURCHASE_HISTORY_ASYNC,
+                      start,
+                      billingResult,
+                      purchasesList);
+                  final List<PurchaseHistoryRecord> records =
+                      purchasesList == null
+                          ? Collections.<PurchaseHistoryRecord>emptyList()
+                          : purchasesList;
+                  sendPurchaseHistoryChunk(
+                      records,
+                      0,
+                      boundedChunkSize,
+                      fields,
+                      Translator.fromBillingResult(billingResult),
+                      events,
+                      cancelled);
+                }));
+  }
+
+  /**
+   * Translates the chunk of {@code records} starting at {@code offset} and posts it to {@code
+   * events}. Runs on the serialization executor, the next chunk is queued there once this one was
+   * sent on the main thread.
+   */
+  private void sendPurchaseHistoryChunk(
+      final List<PurchaseHistoryRecord> records,
+      final int offset,
+      final int chunkSize,
+      @Nullable final Set<String> fields,
+      final Map<String, Object> serializedResult,
+      final EventChannel.EventSink events,
+      final AtomicBoolean cancelled) {
+    if (cancelled.get()) {
+      return;
+    }
+    final int end = Math.min(records.size(), offset + chunkSize);
+    final Map<String, Object> chunk = new HashMap<>();
+    chunk.put("billingResult", serializedResult);
+    chunk.put(
+        "purchaseHistoryRecordList",
+        fromPurchaseHistoryRecordList(records.subList(offset, end), fields));
+    chunk.put("offset", offset);
+    chunk.put("total", records.size());
+    mainThreadDispatcher.dispatch(
+        () -> {
+          if (cancelled.get()) {
+            return;
+          }
+          events.success(chunk);
+          if (end < records.size()) {
+            serializationExecutor.execute(
+                () ->
+                    sendPurchaseHistoryChunk(
+                        records, end, chunkSize, fields, serializedResult, events, cancelled));
+          } else {
+            events.endOfStream();
+          }
+        });
   }
 
   private void startConnection(
-      final int handle, final boolean enablePendingPurchases, final MethodChannel.Result result) {
+      final int handle,
+      final boolean enablePendingPurchases,
+      final boolean autoReconnect,
+      final MethodChannel.Result result) {
+    disconnectHandle = handle;
+    this.autoReconnect = autoReconnect;
+    if (billingClient != null && pendingSetupResults != null) {
+      // Already connecting, for example after warmUpConnection. Answer once setup finishes.
+      pendingSetupResults.add(result);
+      return;
+    }
+    if (billingClient != null
+        && lastSetupResult != null
+        && lastSetupResult.getResponseCode() == BillingClient.BillingResponseCode.OK
+        && billingClient.isReady()) {
+      result.success(Translator.fromBillingResult(lastSetupResult));
+      return;
+    }
+
     if (billingClient == null) {
       billingClient =
           billingClientFactory.createBillingClient(
-              applicationContext, methodChannel, enablePendingPurchases);
+              applicationContext, purchaseListener, enablePendingPurchases);
     }
+    connect(billingClient, result);
+  }
 
-    billingClient.startConnection(
+  /**
+   * Builds and connects the billing client ahead of the first Dart {@code startConnection} call,
+   * which then reuses the connection. Play requires pending purchases to be enabled, so the client
+   * is built with them enabled.
+   */
+  void warmUpConnection() {
+    if (billingClient != null) {
+      return;
+    }
+    billingClient =
+        billingClientFactory.createBillingClient(
+            applicationContext, purchaseListener, /*enablePendingPurchases=*/ true);
+    connect(billingClient, /*result=*/ null);
+  }
+
+  /**
+   * Starts connecting {@code client}. {@code result}, along with every {@code startConnection} call
+   * made while connecting, is answered with the setup result. It is {@code null} for warm-ups and
+   * for the reconnects scheduled by {@link #connectionManager}.
+   */
+  private void connect(final BillingClient client, @Nullable final MethodChannel.Result result) {
+    final long start = System.nanoTime();
+    final List<MethodChannel.Result> waiting = new ArrayList<>();
+    if (result != null) {
+      waiting.add(result);
+    }
+    pendingSetupResults = waiting;
+    lastSetupResult = null;
+    connectionManager.onConnecting();
+    client.startConnection(
         new BillingClientStateListener() {
           private boolean alreadyFinished = false;
 
           @Override
           public void onBillingSetupFinished(BillingResult billingResult) {
-            activity.runOnUiThread(()->{
-              Log.d(TAG, "onBillingSetupFinished");
-              if (alreadyFinished) {
-                Log.d(TAG, "Tried to call onBillingSetupFinished multiple times.");
-                return;
-              }
-              alreadyFinished = true;
-              // Consider the fact that we've finished a success, leave it to the Dart side to
-              // validate the responseCode.
-              Log.d(TAG, "onBillingSetupFinished: " + Translator.fromBillingResult(billingResult));
-              result.success(Translator.fromBillingResult(billingResult));
-            });
+            mainThreadDispatcher.dispatch(
+                () -> {
+                  if (alreadyFinished) {
+                    Log.d(TAG, "Tried to call onBillingSetupFinished multiple times.");
+                    return;
+                  }
+                  alreadyFinished = true;
+                  Tracer.traceResponse(
+                      InAppPurchasePlugin.MethodNames.START_CONNECTION,
+                      start,
+                      billingResult,
+                      null);
+                  if (pendingSetupResults == waiting) {
+                    pendingSetupResults = null;
+                  }
+                  final boolean current = client == billingClient;
+                  final int responseCode = billingResult.getResponseCode();
+                  if (current) {
+                    lastSetupResult = billingResult;
+                  }
+                  if (current && responseCode == BillingClient.BillingResponseCode.OK) {
+                    connectionManager.onConnected();
+                  } else if (current && autoReconnect && isTransientSetupFailure(responseCode)) {
+                    connectionManager.onConnectionLost(() -> reconnect(client));
+                  } else if (current) {
+                    connectionManager.onDisconnected();
+                  }
+                  // Consider the fact that we've finished a success, leave it to the Dart side to
+                  // validate the responseCode.
+                  for (MethodChannel.Result waitingResult : waiting) {
+                    waitingResult.success(Translator.fromBillingResult(billingResult));
+                  }
+                  if (current && responseCode == BillingClient.BillingResponseCode.OK) {
+                    refreshWarmStartSkus();
+                  }
+                });
           }
 
           @Override
           public void onBillingServiceDisconnected() {
-            final Map<String, Object> arguments = new HashMap<>();
-            arguments.put("handle", handle);
-            methodChannel.invokeMethod(InAppPurchasePlugin.MethodNames.ON_DISCONNECT, arguments);
+            mainThreadDispatcher.dispatch(
+                () -> {
+                  final boolean current = client == billingClient;
+                  if (current) {
+                    lastSetupResult = null;
+                  }
+                  if (current && autoReconnect) {
+                    // Reconnect natively, Dart follows along through the connection state stream.
+                    connectionManager.onConnectionLost(() -> reconnect(client));
+                    return;
+                  }
+                  if (current) {
+                    connectionManager.onDisconnected();
+                  }
+                  if (disconnectHandle == NO_DISCONNECT_HANDLE) {
+                    // Warmed up, but Dart never connected and has no callback to notify.
+                    return;
+                  }
+                  final Map<String, Object> arguments = new HashMap<>();
+                  arguments.put("handle", disconnectHandle);
+                  methodChannel.invokeMethod(
+                      InAppPurchasePlugin.MethodNames.ON_DISCONNECT, arguments);
+                });
           }
         });
   }
 
+  private void reconnect(BillingClient client) {
+    if (client == billingClient) {
+      connect(client, /*result=*/ null);
+    }
+  }
+
+  private static boolean isTransientSetupFailure(int responseCode) {
+    switch (responseCode) {
+      case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
+      case BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE:
+      case BillingClient.BillingResponseCode.SERVICE_TIMEOUT:
+      case BillingClient.BillingResponseCode.ERROR:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   private void acknowledgePurchase(String purchaseToken, final MethodChannel.Result result) {
-    if (billingClientError(result)) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
+      return;
+    }
+    final LatencyMetrics.RequestTimer timer =
+        latencyMetrics.start(InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASE);
+    acknowledge(
+        client,
+        purchaseToken,
+        (billingResult, answeredLocally) -> {
+          if (answeredLocally) {
+            timer.answeredLocally(billingResult.getResponseCode());
+          } else {
+            timer.responded(billingResult.getResponseCode());
+          }
+          Tracer.traceResponse(
+              InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASE,
+              timer.startNanos(),
+              billingResult,
+              null);
+          replyDirectly(timer, result, billingResult);
+        });
+  }
+
+  /**
+   * Acknowledges {@code purchaseToken}, or answers right away when {@link #purchaseTokenIndex}
+   * already knows the result.
+   */
+  private void acknowledge(
+      BillingClient client, final String purchaseToken, final TokenCallback callback) {
+    final BillingResult knownResult = purchaseTokenIndex.acknowledgeResult(purchaseToken);
+    if (knownResult != null) {
+      callback.onResult(knownResult, /*answeredLocally=*/ true);
       return;
     }
     AcknowledgePurchaseParams params =
         AcknowledgePurchaseParams.newBuilder().setPurchaseToken(purchaseToken).build();
-    billingClient.acknowledgePurchase(
+    client.acknowledgePurchase(
         params,
         new AcknowledgePurchaseResponseListener() {
           @Override
           public void onAcknowledgePurchaseResponse(BillingResult billingResult) {
-            result.success(Translator.fromBillingResult(billingResult));
+            if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+              purchaseTokenIndex.onAcknowledged(purchaseToken);
+            }
+            callback.onResult(billingResult, /*answeredLocally=*/ false);
           }
         });
   }
 
+  private void acknowledgePurchases(
+      List<String> purchaseTokens,
+      @Nullable Integer maxConcurrentCalls,
+      final MethodChannel.Result result) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
+      return;
+    }
+    runPurchaseTokenBatch(
+        InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASES,
+        purchaseTokens,
+        maxConcurrentCalls,
+        (purchaseToken, callback) -> acknowledge(client, purchaseToken, callback),
+        result);
+  }
+
+  private void consumePurchases(
+      List<String> purchaseTokens,
+      @Nullable Integer maxConcurrentCalls,
+      final MethodChannel.Result result) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
+      return;
+    }
+    runPurchaseTokenBatch(
+        InAppPurchasePlugin.MethodNames.CONSUME_PURCHASES,
+        purchaseTokens,
+        maxConcurrentCalls,
+        (purchaseToken, callback) -> consume(client, purchaseToken, callback),
+        result);
+  }
+
+  /**
+   * Runs {@code operation} for every token and replies with a map of each token to its {@link
+   * BillingResult}, once all of them have answered.
+   */
+  private void runPurchaseTokenBatch(
+      final String method,
+      List<String> purchaseTokens,
+      @Nullable Integer maxConcurrentCalls,
+      final TokenOperation operation,
+      final MethodChannel.Result result) {
+    final LatencyMetrics.RequestTimer timer = latencyMetrics.start(method);
+    final AtomicBoolean askedPlay = new AtomicBoolean();
+    new PurchaseTokenBatch(
+            purchaseTokens,
+            maxConcurrentCalls == null
+                ? PurchaseTokenBatch.DEFAULT_MAX_CONCURRENT_CALLS
+                : Math.max(1, maxConcurrentCalls),
+            (purchaseToken, callback) ->
+                operation.start(
+                    purchaseToken,
+                    (billingResult, answeredLocally) -> {
+                      if (!answeredLocally) {
+                        askedPlay.set(true);
+                      }
+                      callback.onResult(billingResult);
+                    }),
+            results -> {
+              // Report the first failure, if any, for the batch as a whole.
+              BillingResult batchResult = null;
+              for (BillingResult billingResult : results.values()) {
+                if (batchResult == null
+                    || (batchResult.getResponseCode() == BillingClient.BillingResponseCode.OK
+                        && billingResult.getResponseCode()
+                            != BillingClient.BillingResponseCode.OK)) {
+                  batchResult = billingResult;
+                }
+              }
+              final int responseCode =
+                  batchResult == null
+                      ? BillingClient.BillingResponseCode.OK
+                      : batchResult.getResponseCode();
+              if (askedPlay.get()) {
+                timer.responded(responseCode);
+              } else {
+                timer.answeredLocally(responseCode);
+              }
+              if (batchResult != null) {
+                Tracer.traceResponse(method, timer.startNanos(), batchResult, results.size());
+              }
+              timer.dequeued();
+              final Map<String, Object> serialized = new HashMap<>();
+              for (Map.Entry<String, BillingResult> entry : results.entrySet()) {
+                serialized.put(entry.getKey(), Translator.fromBillingResult(entry.getValue()));
+              }
+              timer.serialized();
+              timer.replied();
+              result.success(serialized);
+            })
+        .start();
+  }
+
   private void updateCachedSkus(@Nullable List<SkuDetails> skuDetailsList) {
     if (skuDetailsList == null) {
       return;
     }
 
     for (SkuDetails skuDetails : skuDetailsList) {
-      cachedSkus.put(skuDetails.getSku(), skuDetails);
+      cachedSkus.put(skuDetails);
+    }
+    final SkuDetailsDiskCache diskCache = skuDetailsDiskCache;
+    if (diskCache != null) {
+      // Called on the Play callback thread too, keep the disk off it.
+      serializationExecutor.execute(() -> diskCache.save(skuDetailsList));
     }
   }
 
-  private void launchPriceChangeConfirmationFlow(String sku, MethodChannel.Result result) {
+  private void launchPriceChangeConfirmationFlow(
+      final String sku, final MethodChannel.Result result) {
+    restoreEvictedSkus(
+        Collections.singletonList(sku),
+        () -> launchPriceChangeConfirmationFlowWithCachedSkus(sku, result));
+  }
+
+  private void launchPriceChangeConfirmationFlowWithCachedSkus(
+      String sku, MethodChannel.Result result) {
     if (activity == null) {
       result.error(
           "ACTIVITY_UNAVAILABLE",
@@ -404,13 +1341,10 @@ class MethodCallHandlerImpl
           null);
       return;
     }
-    if (billingClientError(result)) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
-    // Note that assert doesn't work on Android (see https://stackoverflow.com/a/6176529/5167831 and https://stackoverflow.com/a/8164195/5167831)
-    // and that this assert is only added to silence the analyser. The actual null check
-    // is handled by the `billingClientError()` call.
-    assert billingClient != null;
 
     SkuDetails skuDetails = cachedSkus.get(sku);
     if (skuDetails == null) {
@@ -425,7 +1359,7 @@ class MethodCallHandlerImpl
 
     PriceChangeFlowParams params =
         new PriceChangeFlowParams.Builder().setSkuDetails(skuDetails).build();
-    billingClient.launchPriceChangeConfirmationFlow(
+    client.launchPriceChangeConfirmationFlow(
         activity,
         params,
         billingResult -> {
@@ -433,8 +1367,36 @@ class MethodCallHandlerImpl
         });
   }
 
-  private boolean billingClientError(MethodChannel.Result result) {
-    if (billingClient != null) {
+  /**
+   * Posts an already serialized {@code response} back to Dart. Only the reply runs on the main
+   * thread, and the time it takes is recorded against the method of {@code timer}.
+   */
+  private void replyOnMainThread(
+      final LatencyMetrics.RequestTimer timer,
+      final MethodChannel.Result result,
+      final Object response) {
+    mainThreadDispatcher.dispatch(
+        () -> {
+          timer.replied();
+          final long start = System.nanoTime();
+          result.success(response);
+          timer.blockedMainThread(System.nanoTime() - start);
+        });
+  }
+
+  /** Replies with {@code billingResult} from the thread Play answered on. */
+  private static void replyDirectly(
+      LatencyMetrics.RequestTimer timer, MethodChannel.Result result, BillingResult billingResult) {
+    timer.dequeued();
+    final Map<String, Object> serialized = Translator.fromBillingResult(billingResult);
+    timer.serialized();
+    timer.replied();
+    result.success(serialized);
+  }
+
+  private static boolean billingClientError(
+      @Nullable BillingClient client, MethodChannel.Result result) {
+    if (client != null) {
       return false;
     }
 
@@ -443,11 +1405,11 @@ class MethodCallHandlerImpl
   }
 
   private void isFeatureSupported(String feature, MethodChannel.Result result) {
-    if (billingClientError(result)) {
+    final BillingClient client = billingClient;
+    if (billingClientError(client, result)) {
       return;
     }
-    assert billingClient != null;
-    BillingResult billingResult = billingClient.isFeatureSupported(feature);
+    BillingResult billingResult = client.isFeatureSupported(feature);
     result.success(billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK);
   }
 }
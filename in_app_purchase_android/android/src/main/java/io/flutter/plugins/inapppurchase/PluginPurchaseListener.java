@@ -4,42 +4,33 @@
 
 package io.flutter.plugins.inapppurchase;
 
-import static io.flutter.plugins.inapppurchase.Translator.fromBillingResult;
-import static io.flutter.plugins.inapppurchase.Translator.fromPurchasesList;
-
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.PurchasesResponseListener;
 import com.android.billingclient.api.PurchasesUpdatedListener;
-import io.flutter.plugin.common.MethodChannel;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 class PluginPurchaseListener implements PurchasesUpdatedListener, PurchasesResponseListener {
-  private final MethodChannel channel;
+  private final PurchaseUpdateStream purchaseUpdateStream;
+  private final PurchaseTokenIndex purchaseTokenIndex;
 
-  PluginPurchaseListener(MethodChannel channel) {
-    this.channel = channel;
+  PluginPurchaseListener(
+      PurchaseUpdateStream purchaseUpdateStream, PurchaseTokenIndex purchaseTokenIndex) {
+    this.purchaseUpdateStream = purchaseUpdateStream;
+    this.purchaseTokenIndex = purchaseTokenIndex;
   }
 
   @Override
   public void onPurchasesUpdated(BillingResult billingResult, @Nullable List<Purchase> purchases) {
-    final Map<String, Object> callbackArgs = new HashMap<>();
-    callbackArgs.put("billingResult", fromBillingResult(billingResult));
-    callbackArgs.put("responseCode", billingResult.getResponseCode());
-    callbackArgs.put("purchasesList", fromPurchasesList(purchases));
-    channel.invokeMethod(InAppPurchasePlugin.MethodNames.ON_PURCHASES_UPDATED, callbackArgs);
+    purchaseTokenIndex.onPurchases(purchases);
+    purchaseUpdateStream.add(billingResult, purchases);
   }
 
   @Override
   public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> purchases) {
-    final Map<String, Object> callbackArgs = new HashMap<>();
-    callbackArgs.put("billingResult", fromBillingResult(billingResult));
-    callbackArgs.put("responseCode", billingResult.getResponseCode());
-    callbackArgs.put("purchasesList", fromPurchasesList(purchases));
-    channel.invokeMethod(InAppPurchasePlugin.MethodNames.ON_PURCHASES_UPDATED, callbackArgs);
+    purchaseTokenIndex.onPurchases(purchases);
+    purchaseUpdateStream.add(billingResult, purchases);
   }
 }
@@ -0,0 +1,60 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.EventChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams the purchase history in chunks, see {@link
+ * MethodCallHandlerImpl#streamPurchaseHistory}.
+ *
+ * <p>Listening takes a map with the {@code skuType} to query, the {@code chunkSize} and optionally
+ * the {@code fields} to send of every record. The channel streams one query at a time, listening
+ * again cancels the query in progress and ends its stream. The embedding usually detaches the
+ * superseded sink before {@link #onListen}, so the Dart side also ends its stream when a new one
+ * starts.
+ */
+class PurchaseHistoryStreamHandler implements EventChannel.StreamHandler {
+  static final String CHANNEL_NAME = "plugins.flutter.io/in_app_purchase_purchase_history";
+
+  private final MethodCallHandlerImpl methodCallHandler;
+  @Nullable private AtomicBoolean cancelled;
+  @Nullable private EventChannel.EventSink events;
+
+  PurchaseHistoryStreamHandler(MethodCallHandlerImpl methodCallHandler) {
+    this.methodCallHandler = methodCallHandler;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void onListen(Object arguments, EventChannel.EventSink events) {
+    if (cancelled != null) {
+      cancelled.set(true);
+      this.events.endOfStream();
+    }
+    cancelled = new AtomicBoolean();
+    this.events = events;
+    final Map<?, ?> args = (Map<?, ?>) arguments;
+    methodCallHandler.streamPurchaseHistory(
+        (String) args.get("skuType"),
+        (int) args.get("chunkSize"),
+        Translator.fieldMask((List<String>) args.get("fields")),
+        events,
+        cancelled);
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    if (cancelled != null) {
+      cancelled.set(true);
+      cancelled = null;
+      events = null;
+    }
+  }
+}
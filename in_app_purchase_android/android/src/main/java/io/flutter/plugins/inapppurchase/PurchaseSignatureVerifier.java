@@ -0,0 +1,99 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.Purchase;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.List;
+
+/**
+ * Verifies the signatures Play attaches to purchases against the app's licensing public key.
+ *
+ * <p>The Base64 encoded key from the Play Console is decoded once by {@link #setPublicKey}. Lists
+ * of purchases are then verified with a single {@link Signature} instance, which is meant to happen
+ * off the main thread, while the purchases are translated.
+ *
+ * <p>Verifying on the device is no substitute for verifying on a server, see <a
+ * href="https://developer.android.com/google/play/billing/security#verify">Verify a purchase</a>.
+ */
+class PurchaseSignatureVerifier {
+  private static final String KEY_ALGORITHM = "RSA";
+  private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Nullable private volatile PublicKey publicKey;
+
+  /**
+   * Decodes and keeps {@code base64PublicKey}, or stops verifying if it is {@code null}.
+   *
+   * @throws IllegalArgumentException if the key cannot be decoded
+   */
+  void setPublicKey(@Nullable String base64PublicKey) {
+    if (base64PublicKey == null) {
+      publicKey = null;
+      return;
+    }
+    try {
+      publicKey =
+          KeyFactory.getInstance(KEY_ALGORITHM)
+              .generatePublic(
+                  new X509EncodedKeySpec(Base64.decode(base64PublicKey, Base64.DEFAULT)));
+    } catch (GeneralSecurityException | IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid public key: " + e.getMessage(), e);
+    }
+  }
+
+  boolean isEnabled() {
+    return publicKey != null;
+  }
+
+  /**
+   * Returns whether the signature of each purchase is valid, in the order of {@code purchases}, or
+   * {@code null} if no public key is set.
+   */
+  @Nullable
+  boolean[] verify(@NonNull List<Purchase> purchases) {
+    final PublicKey key = publicKey;
+    if (key == null) {
+      return null;
+    }
+
+    final boolean[] verdicts = new boolean[purchases.size()];
+    final Signature signature;
+    try {
+      signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+    } catch (GeneralSecurityException e) {
+      // Every verdict stays false.
+      return verdicts;
+    }
+    for (int i = 0; i < verdicts.length; i++) {
+      verdicts[i] = verify(signature, key, purchases.get(i));
+    }
+    return verdicts;
+  }
+
+  private static boolean verify(Signature signature, PublicKey key, Purchase purchase) {
+    final String signedData = purchase.getOriginalJson();
+    final String base64Signature = purchase.getSignature();
+    if (signedData == null || base64Signature == null || base64Signature.isEmpty()) {
+      return false;
+    }
+    try {
+      signature.initVerify(key);
+      signature.update(signedData.getBytes(UTF_8));
+      return signature.verify(Base64.decode(base64Signature, Base64.DEFAULT));
+    } catch (GeneralSecurityException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.Purchase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Remembers the owned purchases last delivered to Dart for each sku type, so that a purchase query
+ * in delta mode only has to send what changed since then.
+ *
+ * <p>Each delivered snapshot gets a version. Dart passes back the version it holds and receives the
+ * added and changed purchases and the tokens of the removed ones, or the whole snapshot if its
+ * version is not the current one or the field mask changed. The state of a purchase is compared
+ * through its original JSON and signature, the snapshot keeps the delivered purchases rather than a
+ * hash of them so that a collision can never hide a change. Versions start from the clock so that
+ * they do not repeat when the plugin is attached to the same Dart isolate again.
+ */
+class PurchaseSnapshotTracker {
+  /** The purchases to send for one query. */
+  static final class Delta {
+    final long snapshotVersion;
+    final boolean fullSnapshot;
+    final List<Purchase> changedPurchases;
+    final List<String> removedPurchaseTokens;
+
+    Delta(
+        long snapshotVersion,
+        boolean fullSnapshot,
+        List<Purchase> changedPurchases,
+        List<String> removedPurchaseTokens) {
+      this.snapshotVersion = snapshotVersion;
+      this.fullSnapshot = fullSnapshot;
+      this.changedPurchases = changedPurchases;
+      this.removedPurchaseTokens = removedPurchaseTokens;
+    }
+  }
+
+  private static final class Snapshot {
+    final long version;
+    @Nullable final Set<String> fields;
+    final HashMap<String, Purchase> purchasesByToken;
+
+    Snapshot(
+        long version, @Nullable Set<String> fields, HashMap<String, Purchase> purchasesByToken) {
+      this.version = version;
+      this.fields = fields;
+      this.purchasesByToken = purchasesByToken;
+    }
+  }
+
+  // Guarded by this.
+  private final HashMap<String, Snapshot> snapshotsBySkuType = new HashMap<>();
+  private long lastVersion = System.currentTimeMillis();
+
+  /**
+   * Records {@code purchases} as the snapshot delivered for {@code skuType} and returns what has to
+   * be sent to a caller holding {@code knownVersion}, which is {@code null} if it holds none.
+   */
+  @NonNull
+  synchronized Delta update(
+      @NonNull String skuType,
+      @Nullable Long knownVersion,
+      @Nullable Set<String> fields,
+      @Nullable List<Purchase> purchases) {
+    final List<Purchase> current =
+        purchases == null ? Collections.<Purchase>emptyList() : purchases;
+    final HashMap<String, Purchase> purchasesByToken = new HashMap<>();
+    for (Purchase purchase : current) {
+      purchasesByToken.put(purchase.getPurchaseToken(), purchase);
+    }
+
+    final Snapshot previous = snapshotsBySkuType.get(skuType);
+    if (previous == null
+        || knownVersion == null
+        || knownVersion != previous.version
+        || !sameFields(fields, previous.fields)) {
+      final Snapshot snapshot = new Snapshot(++lastVersion, fields, purchasesByToken);
+      snapshotsBySkuType.put(skuType, snapshot);
+      return new Delta(snapshot.version, true, current, Collections.<String>emptyList());
+    }
+
+    final List<Purchase> changed = new ArrayList<>();
+    for (Purchase purchase : current) {
+      final Purchase delivered = previous.purchasesByToken.get(purchase.getPurchaseToken());
+      if (delivered == null || !sameState(delivered, purchase)) {
+        changed.add(purchase);
+      }
+    }
+    final List<String> removed = new ArrayList<>();
+    for (String token : previous.purchasesByToken.keySet()) {
+      if (!purchasesByToken.containsKey(token)) {
+        removed.add(token);
+      }
+    }
+    if (changed.isEmpty() && removed.isEmpty()) {
+      return new Delta(previous.version, false, changed, removed);
+    }
+    final Snapshot snapshot = new Snapshot(++lastVersion, fields, purchasesByToken);
+    snapshotsBySkuType.put(skuType, snapshot);
+    return new Delta(snapshot.version, false, changed, removed);
+  }
+
+  /** Forgets every delivered snapshot, the next query of each sku type sends it whole. */
+  synchronized void clear() {
+    snapshotsBySkuType.clear();
+  }
+
+  private static boolean sameState(Purchase a, Purchase b) {
+    return sameString(a.getOriginalJson(), b.getOriginalJson())
+        && sameString(a.getSignature(), b.getSignature());
+  }
+
+  private static boolean sameString(@Nullable String a, @Nullable String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private static boolean sameFields(@Nullable Set<String> a, @Nullable Set<String> b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+import com.android.billingclient.api.BillingResult;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a Play call, such as an acknowledgement, for every purchase token of a batch and collects
+ * the {@link BillingResult} of each.
+ *
+ * <p>At most {@code maxConcurrentCalls} calls are in flight at once, the next token starts as soon
+ * as one of them answers. Repeated tokens are only sent once. Calls are started from a loop rather
+ * than from the callback of the previous call, so operations that answer synchronously do not
+ * nest one stack frame per token.
+ */
+class PurchaseTokenBatch {
+  static final int DEFAULT_MAX_CONCURRENT_CALLS = 4;
+
+  /** Starts the Play call for a single token. */
+  interface Operation {
+    void start(@NonNull String purchaseToken, @NonNull Callback callback);
+  }
+
+  /** Receives the result of a single {@link Operation}. */
+  interface Callback {
+    void onResult(@NonNull BillingResult billingResult);
+  }
+
+  /** Receives the result of every token once the whole batch has answered. */
+  interface Listener {
+    void onFinished(@NonNull Map<String, BillingResult> results);
+  }
+
+  private final Operation operation;
+  private final Listener listener;
+  private final int maxConcurrentCalls;
+
+  private final List<String> purchaseTokens;
+  // Guarded by this.
+  private final ArrayDeque<String> queuedTokens;
+  private final HashMap<String, BillingResult> results = new HashMap<>();
+  private boolean started;
+  private int freeSlots;
+  // Whether a thread is running the loop of drain, which then starts the calls freed meanwhile.
+  private boolean draining;
+
+  PurchaseTokenBatch(
+      @NonNull List<String> purchaseTokens,
+      int maxConcurrentCalls,
+      @NonNull Operation operation,
+      @NonNull Listener listener) {
+    if (maxConcurrentCalls <= 0) {
+      throw new IllegalArgumentException("maxConcurrentCalls must be positive");
+    }
+    this.purchaseTokens = new ArrayList<>(new LinkedHashSet<>(purchaseTokens));
+    this.queuedTokens = new ArrayDeque<>(this.purchaseTokens);
+    this.maxConcurrentCalls = maxConcurrentCalls;
+    this.operation = operation;
+    this.listener = listener;
+  }
+
+  /** Starts the first calls. {@code listener} is called exactly once. */
+  void start() {
+    synchronized (this) {
+      if (started) {
+        throw new IllegalStateException("The batch has already been started");
+      }
+      started = true;
+      freeSlots = maxConcurrentCalls;
+    }
+    if (purchaseTokens.isEmpty()) {
+      listener.onFinished(new LinkedHashMap<>());
+      return;
+    }
+    drain();
+  }
+
+  // Starts queued tokens while slots are free, unless a caller up the stack or another thread is
+  // already doing so.
+  private void drain() {
+    synchronized (this) {
+      if (draining) {
+        return;
+      }
+      draining = true;
+    }
+    while (true) {
+      final String purchaseToken;
+      synchronized (this) {
+        if (freeSlots == 0 || queuedTokens.isEmpty()) {
+          draining = false;
+          return;
+        }
+        freeSlots--;
+        purchaseToken = queuedTokens.poll();
+      }
+      operation.start(purchaseToken, billingResult -> onResult(purchaseToken, billingResult));
+    }
+  }
+
+  private void onResult(String purchaseToken, BillingResult billingResult) {
+    final LinkedHashMap<String, BillingResult> finished;
+    synchronized (this) {
+      results.put(purchaseToken, billingResult);
+      if (results.size() < purchaseTokens.size()) {
+        finished = null;
+        freeSlots++;
+      } else {
+        // Keep the order the tokens were requested in.
+        finished = new LinkedHashMap<>();
+        for (String token : purchaseTokens) {
+          finished.put(token, results.get(token));
+        }
+      }
+    }
+    if (finished != null) {
+      listener.onFinished(finished);
+    } else {
+      drain();
+    }
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Remembers the state of the purchase tokens Play reported, so that redundant acknowledge and
+ * consume calls can be answered without an IPC.
+ *
+ * <p>Tokens are recorded from purchase queries, purchase updates and successful acknowledge and
+ * consume calls. Unknown tokens always go to Play: purchases made on another device, or while the
+ * app was in the background, are not reported to the listener, and rejecting them locally would
+ * leave them unacknowledged until Play refunds them.
+ *
+ * <p>A snapshot of an sku type drops the tokens of that type it no longer lists, consumed purchases
+ * and lapsed subscriptions alike, so the index neither grows with every purchase made over a
+ * long-lived connection nor answers for purchases that are gone. Tokens whose type is not known
+ * yet, for instance those only seen in a purchase update, are dropped by a snapshot of either type
+ * that does not list them. Dropping a token only means that Play is asked again.
+ */
+class PurchaseTokenIndex {
+  static final int STATE_PENDING = 0;
+  static final int STATE_UNACKNOWLEDGED = 1;
+  static final int STATE_ACKNOWLEDGED = 2;
+  static final int STATE_CONSUMED = 3;
+
+  // Guarded by this.
+  private final HashMap<String, Integer> states = new HashMap<>();
+  // The sku type of the tokens listed by a snapshot, or consumed.
+  private final HashMap<String, String> skuTypes = new HashMap<>();
+
+  /** Records purchases reported by Play, for example in a purchase update. */
+  synchronized void onPurchases(@Nullable List<Purchase> purchases) {
+    if (purchases == null) {
+      return;
+    }
+    for (Purchase purchase : purchases) {
+      if (purchase.getPurchaseToken() == null) {
+        continue;
+      }
+      final int state;
+      if (purchase.getPurchaseState() != Purchase.PurchaseState.PURCHASED) {
+        state = STATE_PENDING;
+      } else if (purchase.isAcknowledged()) {
+        state = STATE_ACKNOWLEDGED;
+      } else {
+        state = STATE_UNACKNOWLEDGED;
+      }
+      states.put(purchase.getPurchaseToken(), state);
+    }
+  }
+
+  /** Records every purchase currently owned for {@code skuType}. */
+  synchronized void onSnapshot(@NonNull String skuType, @Nullable List<Purchase> purchases) {
+    final HashSet<String> owned = new HashSet<>();
+    if (purchases != null) {
+      for (Purchase purchase : purchases) {
+        owned.add(purchase.getPurchaseToken());
+      }
+    }
+    final Iterator<String> iterator = states.keySet().iterator();
+    while (iterator.hasNext()) {
+      final String purchaseToken = iterator.next();
+      final String tokenSkuType = skuTypes.get(purchaseToken);
+      if (!owned.contains(purchaseToken)
+          && (tokenSkuType == null || tokenSkuType.equals(skuType))) {
+        iterator.remove();
+        skuTypes.remove(purchaseToken);
+      }
+    }
+    onPurchases(purchases);
+    for (String purchaseToken : owned) {
+      if (purchaseToken != null) {
+        skuTypes.put(purchaseToken, skuType);
+      }
+    }
+  }
+
+  synchronized int size() {
+    return states.size();
+  }
+
+  synchronized void onAcknowledged(@NonNull String purchaseToken) {
+    states.put(purchaseToken, STATE_ACKNOWLEDGED);
+  }
+
+  synchronized void onConsumed(@NonNull String purchaseToken) {
+    states.put(purchaseToken, STATE_CONSUMED);
+    // Only in-app purchases can be consumed.
+    skuTypes.put(purchaseToken, BillingClient.SkuType.INAPP);
+  }
+
+  synchronized void clear() {
+    states.clear();
+    skuTypes.clear();
+  }
+
+  /**
+   * Returns the result of acknowledging {@code purchaseToken} if it is already known, or {@code
+   * null} if Play has to be asked.
+   */
+  @Nullable
+  synchronized BillingResult acknowledgeResult(@NonNull String purchaseToken) {
+    final Integer state = states.get(purchaseToken);
+    if (state != null && state == STATE_ACKNOWLEDGED) {
+      return localResult(BillingClient.BillingResponseCode.OK, "Purchase already acknowledged.");
+    }
+    return notOwnedResult(state);
+  }
+
+  /**
+   * Returns the result of consuming {@code purchaseToken} if it is already known, or {@code null}
+   * if Play has to be asked.
+   */
+  @Nullable
+  synchronized BillingResult consumeResult(@NonNull String purchaseToken) {
+    return notOwnedResult(states.get(purchaseToken));
+  }
+
+  // Must be called while holding the lock on this.
+  @Nullable
+  private BillingResult notOwnedResult(@Nullable Integer state) {
+    if (state != null && state == STATE_CONSUMED) {
+      return localResult(
+          BillingClient.BillingResponseCode.ITEM_NOT_OWNED, "Purchase already consumed.");
+    }
+    return null;
+  }
+
+  private static BillingResult localResult(int responseCode, String debugMessage) {
+    return BillingResult.newBuilder()
+        .setResponseCode(responseCode)
+        .setDebugMessage(debugMessage)
+        .build();
+  }
+}
@@ -0,0 +1,298 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static io.flutter.plugins.inapppurchase.Translator.fromBillingResult;
+import static io.flutter.plugins.inapppurchase.Translator.fromPurchasesList;
+
+import android.os.Handler;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers purchase updates to Dart in batches over an {@link EventChannel}.
+ *
+ * <p>By default every update is sent as soon as it arrives. With a positive {@code
+ * coalescingWindowMillis}, updates are buffered for that long after the first one of a burst and
+ * then sent as a single event. Only the latest state of every purchase token is kept: a purchase
+ * reported again within the window replaces the earlier one, and an update left without purchases
+ * that way is not sent at all. The rest is translated on {@code serializationExecutor} so that only
+ * the send runs on the main thread. Dart can change the window with the {@code
+ * coalescingWindowMillis} listen argument.
+ *
+ * <p>The buffer holds at most {@code capacity} purchases, an update without any counting as one.
+ * Once it is full the oldest updates with purchases are dropped and the next event reports how many
+ * were, so that Dart can query the current purchases again instead of replaying every transition.
+ * Updates without purchases, such as a canceled flow or an error, are never dropped since querying
+ * the purchases would not bring them back.
+ *
+ * <p>Every event is a map with the {@code updates}, each shaped like the {@code
+ * onPurchasesUpdated} arguments, and the {@code droppedCount}. While nothing listens to the channel
+ * updates are sent one by one with {@link
+ * InAppPurchasePlugin.MethodNames#ON_PURCHASES_UPDATED} instead, also translated on {@code
+ * serializationExecutor}. Both channels are fed in the order the updates arrived, which requires
+ * {@code serializationExecutor} to run its tasks one at a time, in order.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+class PurchaseUpdateStream implements EventChannel.StreamHandler {
+  static final String CHANNEL_NAME = "plugins.flutter.io/in_app_purchase_purchase_updates";
+  static final int DEFAULT_CAPACITY = 256;
+  static final long DEFAULT_COALESCING_WINDOW_MILLIS = 0;
+
+  private final MethodChannel methodChannel;
+  private final Handler mainHandler;
+  private final Executor serializationExecutor;
+  private final PurchaseSignatureVerifier signatureVerifier;
+  private final int capacity;
+  private long coalescingWindowMillis;
+
+  @Nullable private EventChannel.EventSink events;
+  private final ArrayDeque<Update> pending = new ArrayDeque<>();
+  // The pending update holding the latest state of each purchase token.
+  private final HashMap<String, Update> latestByToken = new HashMap<>();
+  private int pendingSize;
+  private int droppedCount;
+  private boolean flushScheduled;
+  private final Runnable flush = this::flush;
+
+  PurchaseUpdateStream(
+      @NonNull MethodChannel methodChannel,
+      @NonNull Handler mainHandler,
+      @NonNull Executor serializationExecutor,
+      @NonNull PurchaseSignatureVerifier signatureVerifier) {
+    this(
+        methodChannel,
+        mainHandler,
+        serializationExecutor,
+        signatureVerifier,
+        DEFAULT_CAPACITY,
+        DEFAULT_COALESCING_WINDOW_MILLIS);
+  }
+
+  PurchaseUpdateStream(
+      @NonNull MethodChannel methodChannel,
+      @NonNull Handler mainHandler,
+      @NonNull Executor serializationExecutor,
+      @NonNull PurchaseSignatureVerifier signatureVerifier,
+      int capacity,
+      long coalescingWindowMillis) {
+    if (capacity <= 0 || coalescingWindowMillis < 0) {
+      throw new IllegalArgumentException(
+          "capacity must be positive and coalescingWindowMillis not negative");
+    }
+    this.methodChannel = methodChannel;
+    this.mainHandler = mainHandler;
+    this.serializationExecutor = serializationExecutor;
+    this.signatureVerifier = signatureVerifier;
+    this.capacity = capacity;
+    this.coalescingWindowMillis = coalescingWindowMillis;
+  }
+
+  /** Queues an update to be sent with the next batch. */
+  void add(@NonNull BillingResult billingResult, @Nullable List<Purchase> purchases) {
+    final Update update = new Update(billingResult, purchases);
+    if (events == null) {
+      send(Collections.singletonList(update), 0, null);
+      return;
+    }
+
+    coalesce(update);
+    pending.add(update);
+    pendingSize += update.size();
+    // A single update larger than the buffer is still sent whole.
+    while (pendingSize > capacity) {
+      final Update dropped = pollOldestWithPurchases(update);
+      if (dropped == null) {
+        break;
+      }
+      pendingSize -= dropped.size();
+      forgetTokens(dropped);
+      droppedCount++;
+    }
+    if (coalescingWindowMillis == 0) {
+      flush();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      mainHandler.postDelayed(flush, coalescingWindowMillis);
+    }
+  }
+
+  // Removes the purchases of the pending updates that update reports again.
+  private void coalesce(Update update) {
+    if (update.purchases == null) {
+      return;
+    }
+    for (Purchase purchase : update.purchases) {
+      final String token = purchase.getPurchaseToken();
+      if (token == null) {
+        continue;
+      }
+      final Update previous = latestByToken.put(token, update);
+      if (previous == null || previous == update) {
+        continue;
+      }
+      pendingSize -= previous.size();
+      previous.remove(token);
+      if (previous.purchases.isEmpty()) {
+        pending.remove(previous);
+      } else {
+        pendingSize += previous.size();
+      }
+    }
+  }
+
+  // Removes the oldest pending update with purchases other than newest. Updates without purchases,
+  // such as cancellations and errors, cannot be recovered by querying the purchases again.
+  @Nullable
+  private Update pollOldestWithPurchases(Update newest) {
+    final Iterator<Update> iterator = pending.iterator();
+    while (iterator.hasNext()) {
+      final Update update = iterator.next();
+      if (update != newest && update.purchases != null && !update.purchases.isEmpty()) {
+        iterator.remove();
+        return update;
+      }
+    }
+    return null;
+  }
+
+  private void forgetTokens(Update update) {
+    if (update.purchases == null) {
+      return;
+    }
+    for (Purchase purchase : update.purchases) {
+      if (latestByToken.get(purchase.getPurchaseToken()) == update) {
+        latestByToken.remove(purchase.getPurchaseToken());
+      }
+    }
+  }
+
+  @Override
+  public void onListen(Object arguments, EventChannel.EventSink events) {
+    this.events = events;
+    if (arguments instanceof Map) {
+      final Object window = ((Map<?, ?>) arguments).get("coalescingWindowMillis");
+      if (window instanceof Number && ((Number) window).longValue() >= 0) {
+        coalescingWindowMillis = ((Number) window).longValue();
+      }
+    }
+  }
+
+  @Override
+  public void onCancel(Object arguments) {
+    events = null;
+    mainHandler.removeCallbacks(flush);
+    flushScheduled = false;
+    // Nobody is left to receive the buffered updates over the event channel.
+    final List<Update> updates = new ArrayList<>(pending);
+    pending.clear();
+    latestByToken.clear();
+    pendingSize = 0;
+    droppedCount = 0;
+    if (!updates.isEmpty()) {
+      send(updates, 0, null);
+    }
+  }
+
+  @VisibleForTesting
+  void flush() {
+    flushScheduled = false;
+    final EventChannel.EventSink sink = events;
+    if (sink == null || pending.isEmpty()) {
+      return;
+    }
+
+    final List<Update> updates = new ArrayList<>(pending);
+    final int dropped = droppedCount;
+    pending.clear();
+    latestByToken.clear();
+    pendingSize = 0;
+    droppedCount = 0;
+    send(updates, dropped, sink);
+  }
+
+  /**
+   * Translates {@code updates} on {@code serializationExecutor}, then sends them from the main
+   * thread as a single event to {@code sink}, or one by one over the method channel if {@code sink}
+   * is {@code null} or no longer listening by then.
+   *
+   * <p>Every update goes through this same executor then main thread sequence, whichever channel
+   * it ends up on. As the executor runs its tasks in order, updates reach Dart in the order they
+   * arrived, even when the listener cancels while a batch is being translated.
+   */
+  private void send(
+      final List<Update> updates, final int dropped, @Nullable final EventChannel.EventSink sink) {
+    serializationExecutor.execute(
+        () -> {
+          final List<Map<String, Object>> serialized = new ArrayList<>(updates.size());
+          for (Update update : updates) {
+            serialized.add(toMap(update.billingResult, update.purchases));
+          }
+          mainHandler.post(
+              () -> {
+                if (sink != null && events == sink) {
+                  final Map<String, Object> event = new HashMap<>();
+                  event.put("updates", serialized);
+                  event.put("droppedCount", dropped);
+                  sink.success(event);
+                  return;
+                }
+                // Also covers a listener replaced or cancelled after the batch left the buffer,
+                // which onCancel could not send over the method channel.
+                for (Map<String, Object> update : serialized) {
+                  methodChannel.invokeMethod(
+                      InAppPurchasePlugin.MethodNames.ON_PURCHASES_UPDATED, update);
+                }
+              });
+        });
+  }
+
+  private Map<String, Object> toMap(
+      BillingResult billingResult, @Nullable List<Purchase> purchases) {
+    final Map<String, Object> callbackArgs = new HashMap<>();
+    callbackArgs.put("billingResult", fromBillingResult(billingResult));
+    callbackArgs.put("responseCode", billingResult.getResponseCode());
+    callbackArgs.put("purchasesList", fromPurchasesList(purchases, signatureVerifier));
+    return callbackArgs;
+  }
+
+  private static final class Update {
+    final BillingResult billingResult;
+    @Nullable final List<Purchase> purchases;
+
+    Update(BillingResult billingResult, @Nullable List<Purchase> purchases) {
+      this.billingResult = billingResult;
+      this.purchases = purchases == null ? null : new ArrayList<>(purchases);
+    }
+
+    void remove(String purchaseToken) {
+      final Iterator<Purchase> iterator = purchases.iterator();
+      while (iterator.hasNext()) {
+        if (purchaseToken.equals(iterator.next().getPurchaseToken())) {
+          iterator.remove();
+        }
+      }
+    }
+
+    // Updates without purchases, such as errors, still take a slot.
+    int size() {
+      return purchases == null || purchases.isEmpty() ? 1 : purchases.size();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+/**
+ * The field layout of the records written by {@link InAppPurchaseMessageCodec}.
+ *
+ * <p>WARNING: The ids, field order and kinds need to stay in sync with `_recordSchemas` in
+ * lib/src/channel.dart.
+ */
+enum RecordSchema {
+  SKU_DETAILS(
+      0,
+      new String[] {
+        "title",
+        "description",
+        "freeTrialPeriod",
+        "introductoryPrice",
+        "introductoryPriceAmountMicros",
+        "introductoryPriceCycles",
+        "introductoryPricePeriod",
+        "price",
+        "priceAmountMicros",
+        "priceCurrencyCode",
+        "priceCurrencySymbol",
+        "sku",
+        "type",
+        "subscriptionPeriod",
+        "originalPrice",
+        "originalPriceAmountMicros",
+      },
+      new byte[] {
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.LONG,
+        Kind.INT,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.LONG,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.LONG,
+      }),
+  PURCHASE(
+      1,
+      new String[] {
+        "orderId",
+        "packageName",
+        "purchaseTime",
+        "purchaseToken",
+        "signature",
+        "skus",
+        "isAutoRenewing",
+        "originalJson",
+        "developerPayload",
+        "isAcknowledged",
+        "purchaseState",
+        "obfuscatedAccountId",
+        "obfuscatedProfileId",
+        "isSignatureVerified",
+      },
+      new byte[] {
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.LONG,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.BOOLEAN,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.BOOLEAN,
+        Kind.INT,
+        Kind.VALUE,
+        Kind.VALUE,
+        Kind.BOOLEAN,
+      }),
+  PURCHASE_HISTORY_RECORD(
+      2,
+      new String[] {
+        "purchaseTime", "purchaseToken", "signature", "skus", "developerPayload", "originalJson",
+      },
+      new byte[] {
+        Kind.LONG, Kind.VALUE, Kind.VALUE, Kind.VALUE, Kind.VALUE, Kind.VALUE,
+      });
+
+  /** How a field is written on the wire. */
+  static final class Kind {
+    /** Any value supported by the standard codec, written with its type tag. */
+    static final byte VALUE = 0;
+    /** An untagged little endian int64. */
+    static final byte LONG = 1;
+    /** An untagged little endian int32. */
+    static final byte INT = 2;
+    /** A single byte, 0 or 1. */
+    static final byte BOOLEAN = 3;
+
+    private Kind() {}
+  }
+
+  final byte id;
+  final String[] fields;
+  final byte[] kinds;
+
+  RecordSchema(int id, String[] fields, byte[] kinds) {
+    if (fields.length != kinds.length || fields.length > Integer.SIZE) {
+      throw new IllegalArgumentException("Invalid schema " + id);
+    }
+    this.id = (byte) id;
+    this.fields = fields;
+    this.kinds = kinds;
+  }
+
+  /** Returns the position of {@code field}, or -1 if it is not part of the schema. */
+  int indexOf(Object field) {
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i].equals(field)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  static RecordSchema fromId(byte id) {
+    for (RecordSchema schema : values()) {
+      if (schema.id == id) {
+        return schema;
+      }
+    }
+    throw new IllegalArgumentException("Unknown record schema " + id);
+  }
+}
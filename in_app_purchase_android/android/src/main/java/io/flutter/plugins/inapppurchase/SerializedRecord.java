@@ -0,0 +1,102 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link java.util.Map} whose keys are fixed by a {@link RecordSchema}.
+ *
+ * <p>Values are held in a flat array indexed by field position instead of hash entries, and {@link
+ * InAppPurchaseMessageCodec} writes them positionally without the key names. Only keys that are part
+ * of the schema can be put.
+ */
+final class SerializedRecord extends AbstractMap<String, Object> {
+  // Marks a field that was never put, as opposed to one explicitly set to null.
+  private static final Object ABSENT = new Object();
+
+  final RecordSchema schema;
+  private final Object[] values;
+  private int size;
+
+  SerializedRecord(@NonNull RecordSchema schema) {
+    this.schema = schema;
+    this.values = new Object[schema.fields.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = ABSENT;
+    }
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    int index = schema.indexOf(key);
+    if (index < 0) {
+      throw new IllegalArgumentException(key + " is not a field of " + schema);
+    }
+    Object previous = values[index];
+    values[index] = value;
+    if (previous == ABSENT) {
+      size++;
+      return null;
+    }
+    return previous;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int index = schema.indexOf(key);
+    return index < 0 || values[index] == ABSENT ? null : values[index];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    int index = schema.indexOf(key);
+    return index >= 0 && values[index] != ABSENT;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int index = schema.indexOf(key);
+    if (index < 0 || values[index] == ABSENT) {
+      return null;
+    }
+    Object previous = values[index];
+    values[index] = ABSENT;
+    size--;
+    return previous;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Whether the field at {@code index} has been put. */
+  boolean isPresent(int index) {
+    return values[index] != ABSENT;
+  }
+
+  /** The value at {@code index}. Only meaningful if {@link #isPresent(int)}. */
+  Object valueAt(int index) {
+    return values[index];
+  }
+
+  @NonNull
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    List<Entry<String, Object>> entries = new ArrayList<>(size);
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != ABSENT) {
+        entries.add(new SimpleImmutableEntry<>(schema.fields[i], values[i]));
+      }
+    }
+    return new LinkedHashSet<>(entries);
+  }
+}
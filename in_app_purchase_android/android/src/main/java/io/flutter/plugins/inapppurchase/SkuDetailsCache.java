@@ -0,0 +1,129 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import android.content.ComponentCallbacks2;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.SkuDetails;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, thread safe cache of {@link SkuDetails} keyed by sku.
+ *
+ * <p>The least recently used entries are evicted once {@link #maxSize()} is reached, and the cache
+ * sheds entries when the system reports memory pressure through {@link #trimMemory(int)}.
+ */
+class SkuDetailsCache {
+  static final int DEFAULT_MAX_SIZE = 1000;
+
+  private final LinkedHashMap<String, SkuDetails> entries =
+      new LinkedHashMap<>(16, 0.75f, /*accessOrder=*/ true);
+  private final int maxSize;
+
+  private long hitCount;
+  private long missCount;
+  private long putCount;
+  private long evictionCount;
+
+  SkuDetailsCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  SkuDetailsCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize <= 0");
+    }
+    this.maxSize = maxSize;
+  }
+
+  /** Returns the details for {@code sku} and marks them as most recently used. */
+  @Nullable
+  synchronized SkuDetails get(@NonNull String sku) {
+    SkuDetails skuDetails = entries.get(sku);
+    if (skuDetails == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return skuDetails;
+  }
+
+  /** Whether {@code sku} is cached. Does not affect the recency order or the hit counters. */
+  synchronized boolean containsKey(@NonNull String sku) {
+    return entries.containsKey(sku);
+  }
+
+  synchronized void put(@NonNull SkuDetails skuDetails) {
+    putCount++;
+    entries.put(skuDetails.getSku(), skuDetails);
+    trimToSize(maxSize);
+  }
+
+  /** Caches {@code skuDetails} unless details for the same sku already are. */
+  synchronized void putIfAbsent(@NonNull SkuDetails skuDetails) {
+    if (!entries.containsKey(skuDetails.getSku())) {
+      put(skuDetails);
+    }
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  int maxSize() {
+    return maxSize;
+  }
+
+  synchronized void clear() {
+    evictionCount += entries.size();
+    entries.clear();
+  }
+
+  /**
+   * Sheds entries according to the given {@link ComponentCallbacks2} trim level. The more critical
+   * the level, the more of the cache is released.
+   */
+  void trimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+      clear();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      synchronized (this) {
+        trimToSize(entries.size() / 4);
+      }
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      synchronized (this) {
+        trimToSize(entries.size() / 2);
+      }
+    }
+  }
+
+  /** Returns the hit, miss and eviction counters along with the current and maximum size. */
+  synchronized HashMap<String, Object> stats() {
+    HashMap<String, Object> stats = new HashMap<>();
+    stats.put("size", entries.size());
+    stats.put("maxSize", maxSize);
+    stats.put("hitCount", hitCount);
+    stats.put("missCount", missCount);
+    stats.put("putCount", putCount);
+    stats.put("evictionCount", evictionCount);
+    return stats;
+  }
+
+  // Must be called while holding the lock on this.
+  private void trimToSize(int size) {
+    Iterator<Map.Entry<String, SkuDetails>> iterator = entries.entrySet().iterator();
+    while (entries.size() > size && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      evictionCount++;
+    }
+  }
+}
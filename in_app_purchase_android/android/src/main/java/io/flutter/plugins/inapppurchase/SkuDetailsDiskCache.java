@@ -0,0 +1,199 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.android.billingclient.api.SkuDetails;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Persists the original JSON of fetched {@link SkuDetails} so that they survive process restarts.
+ *
+ * <p>Every entry is stamped with the time it was written. Entries older than the configured TTL are
+ * dropped on {@link #load()} and never handed back to the plugin. At most {@code maxEntries} are
+ * kept, like the in-memory {@link SkuDetailsCache}, the least recently written are dropped first.
+ * The stored skus are tracked in memory, so that a save only reads the whole file back once it
+ * goes over that bound.
+ *
+ * <p>Reads and writes touch the disk, call them off the main thread.
+ */
+class SkuDetailsDiskCache {
+  private static final String TAG = "SkuDetailsDiskCache";
+
+  @VisibleForTesting
+  static final String PREFERENCES_NAME = "io.flutter.plugins.inapppurchase.SkuDetailsCache";
+
+  static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+  private static final String KEY_SAVED_AT = "savedAt";
+  private static final String KEY_ORIGINAL_JSON = "originalJson";
+
+  private final SharedPreferences preferences;
+  private final long ttlMillis;
+  private final int maxEntries;
+  // Guarded by this. The skus stored on disk, null until the file was first read.
+  @Nullable private HashSet<String> storedSkus;
+
+  SkuDetailsDiskCache(@NonNull Context context, int maxEntries) {
+    this(
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE),
+        DEFAULT_TTL_MILLIS,
+        maxEntries);
+  }
+
+  @VisibleForTesting
+  SkuDetailsDiskCache(@NonNull SharedPreferences preferences, long ttlMillis, int maxEntries) {
+    if (maxEntries <= 0) {
+      throw new IllegalArgumentException("maxEntries <= 0");
+    }
+    this.preferences = preferences;
+    this.ttlMillis = ttlMillis;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Reads the {@code maxEntries} most recently written entries that are still within the TTL.
+   * Expired, unreadable and surplus entries are removed from disk.
+   */
+  @NonNull
+  synchronized List<SkuDetails> load() {
+    final List<SkuDetails> skuDetailsList = new ArrayList<>();
+    for (Entry entry : readAndTrim(System.currentTimeMillis() - ttlMillis)) {
+      try {
+        skuDetailsList.add(new SkuDetails(entry.originalJson));
+      } catch (JSONException e) {
+        Log.w(TAG, "Unable to restore details for sku " + entry.sku);
+      }
+    }
+    return skuDetailsList;
+  }
+
+  /** Reads the details of {@code sku} if they are stored and still within the TTL. */
+  @Nullable
+  synchronized SkuDetails get(@NonNull String sku) {
+    final Entry entry = decode(sku, preferences.getString(sku, null));
+    if (entry == null || entry.savedAt < System.currentTimeMillis() - ttlMillis) {
+      return null;
+    }
+    try {
+      return new SkuDetails(entry.originalJson);
+    } catch (JSONException e) {
+      Log.w(TAG, "Unable to restore details for sku " + sku);
+      return null;
+    }
+  }
+
+  /** Writes the given details, replacing any previous entry for the same sku. */
+  synchronized void save(@Nullable List<SkuDetails> skuDetailsList) {
+    if (skuDetailsList == null || skuDetailsList.isEmpty()) {
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    SharedPreferences.Editor editor = preferences.edit();
+    for (SkuDetails skuDetails : skuDetailsList) {
+      try {
+        JSONObject entry = new JSONObject();
+        entry.put(KEY_SAVED_AT, now);
+        entry.put(KEY_ORIGINAL_JSON, skuDetails.getOriginalJson());
+        editor.putString(skuDetails.getSku(), entry.toString());
+      } catch (JSONException e) {
+        Log.w(TAG, "Unable to persist details for sku " + skuDetails.getSku());
+      }
+    }
+    // apply() commits to memory synchronously and writes to disk in the background.
+    editor.apply();
+    if (storedSkus == null) {
+      storedSkus = new HashSet<>(preferences.getAll().keySet());
+    } else {
+      for (SkuDetails skuDetails : skuDetailsList) {
+        storedSkus.add(skuDetails.getSku());
+      }
+    }
+    if (storedSkus.size() > maxEntries) {
+      // Drop the least recently written entries beyond the bound.
+      readAndTrim(Long.MIN_VALUE);
+    }
+  }
+
+  /** Removes every persisted entry. */
+  synchronized void clear() {
+    preferences.edit().clear().apply();
+    storedSkus = new HashSet<>();
+  }
+
+  /**
+   * Returns the readable entries written after {@code expiredBefore}, newest first and at most
+   * {@code maxEntries} of them. Every other entry is removed from disk.
+   */
+  // Must be called while holding the lock on this.
+  private List<Entry> readAndTrim(long expiredBefore) {
+    final List<Entry> entries = new ArrayList<>();
+    final List<String> staleKeys = new ArrayList<>();
+    for (Map.Entry<String, ?> stored : preferences.getAll().entrySet()) {
+      Entry entry = decode(stored.getKey(), stored.getValue());
+      if (entry == null || entry.savedAt < expiredBefore) {
+        staleKeys.add(stored.getKey());
+      } else {
+        entries.add(entry);
+      }
+    }
+    Collections.sort(entries, (a, b) -> Long.compare(b.savedAt, a.savedAt));
+    while (entries.size() > maxEntries) {
+      staleKeys.add(entries.remove(entries.size() - 1).sku);
+    }
+
+    if (!staleKeys.isEmpty()) {
+      SharedPreferences.Editor editor = preferences.edit();
+      for (String key : staleKeys) {
+        editor.remove(key);
+      }
+      editor.apply();
+    }
+    storedSkus = new HashSet<>();
+    for (Entry entry : entries) {
+      storedSkus.add(entry.sku);
+    }
+    return entries;
+  }
+
+  @Nullable
+  private static Entry decode(String sku, @Nullable Object value) {
+    if (!(value instanceof String)) {
+      return null;
+    }
+
+    try {
+      JSONObject entry = new JSONObject((String) value);
+      return new Entry(sku, entry.getLong(KEY_SAVED_AT), entry.getString(KEY_ORIGINAL_JSON));
+    } catch (JSONException e) {
+      return null;
+    }
+  }
+
+  private static final class Entry {
+    final String sku;
+    final long savedAt;
+    final String originalJson;
+
+    Entry(String sku, long savedAt, String originalJson) {
+      this.sku = sku;
+      this.savedAt = savedAt;
+      this.originalJson = originalJson;
+    }
+  }
+}
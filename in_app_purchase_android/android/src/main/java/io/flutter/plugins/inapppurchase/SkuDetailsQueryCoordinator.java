@@ -0,0 +1,276 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Splits {@link BillingClient#querySkuDetailsAsync} requests into bounded chunks, issues them
+ * concurrently and merges the responses.
+ *
+ * <p>Skus that are already being fetched by an earlier request are not fetched again: the later
+ * request joins the chunk in flight and receives its result. Only chunks issued on the same {@link
+ * BillingClient} are shared. At most {@code maxConcurrentChunks} chunks are sent to Play at once,
+ * the rest are queued.
+ *
+ * <p>{@link #reset} must be called when the connection ends, so that no request waits on a chunk of
+ * a client that may never answer.
+ */
+class SkuDetailsQueryCoordinator {
+  static final int DEFAULT_CHUNK_SIZE = 20;
+  static final int DEFAULT_MAX_CONCURRENT_CHUNKS = 4;
+
+  private final int chunkSize;
+  private final int maxConcurrentChunks;
+
+  // Guarded by this. Client -> sku type -> sku -> the chunk currently fetching it.
+  private final HashMap<BillingClient, HashMap<String, HashMap<String, Chunk>>> inFlight =
+      new HashMap<>();
+  private final ArrayDeque<Chunk> queuedChunks = new ArrayDeque<>();
+  private int runningChunks;
+
+  SkuDetailsQueryCoordinator() {
+    this(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CONCURRENT_CHUNKS);
+  }
+
+  SkuDetailsQueryCoordinator(int chunkSize, int maxConcurrentChunks) {
+    if (chunkSize <= 0 || maxConcurrentChunks <= 0) {
+      throw new IllegalArgumentException("chunkSize and maxConcurrentChunks must be positive");
+    }
+    this.chunkSize = chunkSize;
+    this.maxConcurrentChunks = maxConcurrentChunks;
+  }
+
+  /**
+   * Queries the details of {@code skusList}. {@code listener} is called exactly once, with the
+   * details of every requested sku that Play knows about and the first non OK {@link
+   * BillingResult} of the chunks involved, if any. A null or empty {@code skusList} is forwarded
+   * to Play unchanged.
+   */
+  void querySkuDetails(
+      @NonNull BillingClient billingClient,
+      @NonNull String skuType,
+      @Nullable List<String> skusList,
+      @NonNull SkuDetailsResponseListener listener) {
+    if (skusList == null || skusList.isEmpty()) {
+      // Nothing to split or share, let Play answer the request as is.
+      billingClient.querySkuDetailsAsync(
+          SkuDetailsParams.newBuilder().setType(skuType).setSkusList(skusList).build(), listener);
+      return;
+    }
+
+    final LinkedHashSet<String> skus = new LinkedHashSet<>(skusList);
+    final Request request = new Request(skus, listener);
+    final List<Chunk> chunksToStart;
+    synchronized (this) {
+      HashMap<String, HashMap<String, Chunk>> clientInFlight = inFlight.get(billingClient);
+      if (clientInFlight == null) {
+        clientInFlight = new HashMap<>();
+        inFlight.put(billingClient, clientInFlight);
+      }
+      HashMap<String, Chunk> typeInFlight = clientInFlight.get(skuType);
+      if (typeInFlight == null) {
+        typeInFlight = new HashMap<>();
+        clientInFlight.put(skuType, typeInFlight);
+      }
+
+      final LinkedHashSet<Chunk> chunks = new LinkedHashSet<>();
+      List<String> missing = new ArrayList<>();
+      for (String sku : skus) {
+        Chunk chunk = typeInFlight.get(sku);
+        if (chunk != null) {
+          chunks.add(chunk);
+        } else {
+          missing.add(sku);
+        }
+      }
+
+      for (int start = 0; start < missing.size(); start += chunkSize) {
+        List<String> chunkSkus =
+            new ArrayList<>(missing.subList(start, Math.min(start + chunkSize, missing.size())));
+        Chunk chunk = new Chunk(billingClient, skuType, chunkSkus);
+        for (String sku : chunkSkus) {
+          typeInFlight.put(sku, chunk);
+        }
+        chunks.add(chunk);
+        queuedChunks.add(chunk);
+      }
+
+      request.remainingChunks = chunks.size();
+      for (Chunk chunk : chunks) {
+        chunk.requests.add(request);
+      }
+      chunksToStart = pollStartableChunks();
+    }
+
+    for (Chunk chunk : chunksToStart) {
+      chunk.start();
+    }
+  }
+
+  /**
+   * Forgets every queued and running chunk. The requests waiting on them are answered with {@link
+   * BillingClient.BillingResponseCode#SERVICE_DISCONNECTED}, and responses still arriving for them
+   * are ignored.
+   */
+  void reset() {
+    final LinkedHashSet<Chunk> chunks = new LinkedHashSet<>();
+    synchronized (this) {
+      for (HashMap<String, HashMap<String, Chunk>> clientInFlight : inFlight.values()) {
+        for (HashMap<String, Chunk> typeInFlight : clientInFlight.values()) {
+          chunks.addAll(typeInFlight.values());
+        }
+      }
+      inFlight.clear();
+      queuedChunks.clear();
+      runningChunks = 0;
+      for (Chunk chunk : chunks) {
+        chunk.finished = true;
+      }
+    }
+
+    final BillingResult disconnected =
+        BillingResult.newBuilder()
+            .setResponseCode(BillingClient.BillingResponseCode.SERVICE_DISCONNECTED)
+            .setDebugMessage("The connection ended before the sku details were received.")
+            .build();
+    for (Chunk chunk : chunks) {
+      for (Request request : chunk.requests) {
+        request.onChunkFinished(disconnected, null);
+      }
+    }
+  }
+
+  // Must be called while holding the lock on this.
+  private List<Chunk> pollStartableChunks() {
+    if (queuedChunks.isEmpty() || runningChunks >= maxConcurrentChunks) {
+      return Collections.emptyList();
+    }
+    List<Chunk> startable = new ArrayList<>();
+    while (!queuedChunks.isEmpty() && runningChunks < maxConcurrentChunks) {
+      startable.add(queuedChunks.poll());
+      runningChunks++;
+    }
+    return startable;
+  }
+
+  private void onChunkFinished(
+      Chunk chunk, BillingResult billingResult, @Nullable List<SkuDetails> skuDetailsList) {
+    final List<Request> requests;
+    final List<Chunk> chunksToStart;
+    synchronized (this) {
+      if (chunk.finished) {
+        // Answered by reset already.
+        return;
+      }
+      chunk.finished = true;
+      final HashMap<String, HashMap<String, Chunk>> clientInFlight =
+          inFlight.get(chunk.billingClient);
+      final HashMap<String, Chunk> typeInFlight = clientInFlight.get(chunk.skuType);
+      for (String sku : chunk.skus) {
+        if (typeInFlight.get(sku) == chunk) {
+          typeInFlight.remove(sku);
+        }
+      }
+      if (typeInFlight.isEmpty()) {
+        clientInFlight.remove(chunk.skuType);
+        if (clientInFlight.isEmpty()) {
+          inFlight.remove(chunk.billingClient);
+        }
+      }
+      runningChunks--;
+      requests = new ArrayList<>(chunk.requests);
+      chunksToStart = pollStartableChunks();
+    }
+
+    for (Request request : requests) {
+      request.onChunkFinished(billingResult, skuDetailsList);
+    }
+    for (Chunk next : chunksToStart) {
+      next.start();
+    }
+  }
+
+  private final class Chunk implements SkuDetailsResponseListener {
+    final BillingClient billingClient;
+    final String skuType;
+    final List<String> skus;
+    // Guarded by the enclosing SkuDetailsQueryCoordinator.
+    final List<Request> requests = new ArrayList<>();
+    boolean finished;
+
+    Chunk(BillingClient billingClient, String skuType, List<String> skus) {
+      this.billingClient = billingClient;
+      this.skuType = skuType;
+      this.skus = skus;
+    }
+
+    void start() {
+      billingClient.querySkuDetailsAsync(
+          SkuDetailsParams.newBuilder().setType(skuType).setSkusList(skus).build(), this);
+    }
+
+    @Override
+    public void onSkuDetailsResponse(
+        @NonNull BillingResult billingResult, @Nullable List<SkuDetails> skuDetailsList) {
+      onChunkFinished(this, billingResult, skuDetailsList);
+    }
+  }
+
+  private static final class Request {
+    final LinkedHashSet<String> skus;
+    final SkuDetailsResponseListener listener;
+    final HashMap<String, SkuDetails> found = new HashMap<>();
+    @Nullable BillingResult billingResult;
+    int remainingChunks;
+
+    Request(LinkedHashSet<String> skus, SkuDetailsResponseListener listener) {
+      this.skus = skus;
+      this.listener = listener;
+    }
+
+    void onChunkFinished(BillingResult chunkResult, @Nullable List<SkuDetails> skuDetailsList) {
+      synchronized (this) {
+        if (billingResult == null
+            || (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK
+                && chunkResult.getResponseCode() != BillingClient.BillingResponseCode.OK)) {
+          billingResult = chunkResult;
+        }
+        if (skuDetailsList != null) {
+          for (SkuDetails skuDetails : skuDetailsList) {
+            if (skus.contains(skuDetails.getSku())) {
+              found.put(skuDetails.getSku(), skuDetails);
+            }
+          }
+        }
+        if (--remainingChunks > 0) {
+          return;
+        }
+      }
+
+      // Every chunk has answered, keep the order the skus were requested in.
+      List<SkuDetails> merged = new ArrayList<>(found.size());
+      for (String sku : skus) {
+        SkuDetails skuDetails = found.get(sku);
+        if (skuDetails != null) {
+          merged.add(skuDetails);
+        }
+      }
+      listener.onSkuDetailsResponse(billingResult, merged);
+    }
+  }
+}
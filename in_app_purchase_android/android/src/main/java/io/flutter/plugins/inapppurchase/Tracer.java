@@ -0,0 +1,81 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import java.util.List;
+
+/**
+ * Forwards trace events to the registered {@link InAppPurchaseTraceSink}.
+ *
+ * <p>Events only take primitives and constant strings, and nothing is called unless a sink accepts
+ * the level, so tracing allocates nothing while disabled.
+ */
+final class Tracer {
+  // The sink and its level are swapped together so that readers never see a mismatched pair.
+  private static volatile Registration registration;
+
+  private Tracer() {}
+
+  static void setSink(@Nullable InAppPurchaseTraceSink sink, int minLevel) {
+    registration = sink == null ? null : new Registration(sink, minLevel);
+  }
+
+  static boolean isEnabled(int level) {
+    Registration current = registration;
+    return current != null && level >= current.minLevel;
+  }
+
+  static void trace(
+      int level, @NonNull String method, int count, long latencyNanos, int responseCode) {
+    Registration current = registration;
+    if (current != null && level >= current.minLevel) {
+      current.sink.onTraceEvent(level, method, count, latencyNanos, responseCode);
+    }
+  }
+
+  /**
+   * Traces the completion of {@code method} at {@link InAppPurchaseTraceSink#LEVEL_DEBUG}, or at
+   * {@link InAppPurchaseTraceSink#LEVEL_WARN} if {@code billingResult} is not OK.
+   */
+  static void traceResponse(
+      @NonNull String method,
+      long startNanos,
+      @NonNull BillingResult billingResult,
+      @Nullable List<?> records) {
+    traceResponse(
+        method,
+        startNanos,
+        billingResult,
+        records == null ? InAppPurchaseTraceSink.NO_COUNT : records.size());
+  }
+
+  /** Like {@link #traceResponse(String, long, BillingResult, List)} with the record count. */
+  static void traceResponse(
+      @NonNull String method, long startNanos, @NonNull BillingResult billingResult, int count) {
+    int responseCode = billingResult.getResponseCode();
+    int level =
+        responseCode == BillingClient.BillingResponseCode.OK
+            ? InAppPurchaseTraceSink.LEVEL_DEBUG
+            : InAppPurchaseTraceSink.LEVEL_WARN;
+    if (!isEnabled(level)) {
+      return;
+    }
+    trace(level, method, count, System.nanoTime() - startNanos, responseCode);
+  }
+
+  private static final class Registration {
+    final InAppPurchaseTraceSink sink;
+    final int minLevel;
+
+    Registration(InAppPurchaseTraceSink sink, int minLevel) {
+      this.sink = sink;
+      this.minLevel = minLevel;
+    }
+  }
+}
@@ -15,108 +15,266 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Currency;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-/** Handles serialization of {@link com.android.billingclient.api.BillingClient} related objects. */
+/**
+ * Handles serialization of {@link com.android.billingclient.api.BillingClient} related objects.
+ *
+ * <p>SkuDetails, purchases and purchase history records are serialized into {@link
+ * SerializedRecord}s, which {@link InAppPurchaseMessageCodec} sends without their key names.
+ * The query calls can pass a field mask so that only the fields a screen needs are read from the
+ * billing objects and sent, the others are left absent from the record.
+ */
 /*package*/ class Translator {
-  static HashMap<String, Object> fromSkuDetail(SkuDetails detail) {
-    HashMap<String, Object> info = new HashMap<>();
-    info.put("title", detail.getTitle());
-    info.put("description", detail.getDescription());
-    info.put("freeTrialPeriod", detail.getFreeTrialPeriod());
-    info.put("introductoryPrice", detail.getIntroductoryPrice());
-    info.put("introductoryPriceAmountMicros", detail.getIntroductoryPriceAmountMicros());
-    info.put("introductoryPriceCycles", detail.getIntroductoryPriceCycles());
-    info.put("introductoryPricePeriod", detail.getIntroductoryPricePeriod());
-    info.put("price", detail.getPrice());
-    info.put("priceAmountMicros", detail.getPriceAmountMicros());
-    info.put("priceCurrencyCode", detail.getPriceCurrencyCode());
-    info.put("priceCurrencySymbol", currencySymbolFromCode(detail.getPriceCurrencyCode()));
-    info.put("sku", detail.getSku());
-    info.put("type", detail.getType());
-    info.put("subscriptionPeriod", detail.getSubscriptionPeriod());
-    info.put("originalPrice", detail.getOriginalPrice());
-    info.put("originalPriceAmountMicros", detail.getOriginalPriceAmountMicros());
+  static Map<String, Object> fromSkuDetail(SkuDetails detail) {
+    return fromSkuDetail(detail, null);
+  }
+
+  /** Serializes the {@code fields} of {@code detail}, or all of them if it is {@code null}. */
+  static Map<String, Object> fromSkuDetail(SkuDetails detail, @Nullable Set<String> fields) {
+    Map<String, Object> info = new SerializedRecord(RecordSchema.SKU_DETAILS);
+    if (includes(fields, "title")) {
+      info.put("title", detail.getTitle());
+    }
+    if (includes(fields, "description")) {
+      info.put("description", detail.getDescription());
+    }
+    if (includes(fields, "freeTrialPeriod")) {
+      info.put("freeTrialPeriod", detail.getFreeTrialPeriod());
+    }
+    if (includes(fields, "introductoryPrice")) {
+      info.put("introductoryPrice", detail.getIntroductoryPrice());
+    }
+    if (includes(fields, "introductoryPriceAmountMicros")) {
+      info.put("introductoryPriceAmountMicros", detail.getIntroductoryPriceAmountMicros());
+    }
+    if (includes(fields, "introductoryPriceCycles")) {
+      info.put("introductoryPriceCycles", detail.getIntroductoryPriceCycles());
+    }
+    if (includes(fields, "introductoryPricePeriod")) {
+      info.put("introductoryPricePeriod", detail.getIntroductoryPricePeriod());
+    }
+    if (includes(fields, "price")) {
+      info.put("price", detail.getPrice());
+    }
+    if (includes(fields, "priceAmountMicros")) {
+      info.put("priceAmountMicros", detail.getPriceAmountMicros());
+    }
+    if (includes(fields, "priceCurrencyCode")) {
+      info.put("priceCurrencyCode", detail.getPriceCurrencyCode());
+    }
+    if (includes(fields, "priceCurrencySymbol")) {
+      info.put("priceCurrencySymbol", currencySymbolFromCode(detail.getPriceCurrencyCode()));
+    }
+    if (includes(fields, "sku")) {
+      info.put("sku", detail.getSku());
+    }
+    if (includes(fields, "type")) {
+      info.put("type", detail.getType());
+    }
+    if (includes(fields, "subscriptionPeriod")) {
+      info.put("subscriptionPeriod", detail.getSubscriptionPeriod());
+    }
+    if (includes(fields, "originalPrice")) {
+      info.put("originalPrice", detail.getOriginalPrice());
+    }
+    if (includes(fields, "originalPriceAmountMicros")) {
+      info.put("originalPriceAmountMicros", detail.getOriginalPriceAmountMicros());
+    }
     return info;
   }
 
-  static List<HashMap<String, Object>> fromSkuDetailsList(
-      @Nullable List<SkuDetails> skuDetailsList) {
+  static List<Map<String, Object>> fromSkuDetailsList(@Nullable List<SkuDetails> skuDetailsList) {
+    return fromSkuDetailsList(skuDetailsList, null);
+  }
+
+  static List<Map<String, Object>> fromSkuDetailsList(
+      @Nullable List<SkuDetails> skuDetailsList, @Nullable Set<String> fields) {
     if (skuDetailsList == null) {
       return Collections.emptyList();
     }
 
-    ArrayList<HashMap<String, Object>> output = new ArrayList<>();
+    ArrayList<Map<String, Object>> output = new ArrayList<>(skuDetailsList.size());
     for (SkuDetails detail : skuDetailsList) {
-      output.add(fromSkuDetail(detail));
+      output.add(fromSkuDetail(detail, fields));
     }
     return output;
   }
 
-  static HashMap<String, Object> fromPurchase(Purchase purchase) {
-    HashMap<String, Object> info = new HashMap<>();
-    info.put("orderId", purchase.getOrderId());
-    info.put("packageName", purchase.getPackageName());
-    info.put("purchaseTime", purchase.getPurchaseTime());
-    info.put("purchaseToken", purchase.getPurchaseToken());
-    info.put("signature", purchase.getSignature());
-    info.put("skus", purchase.getSkus().toString());
-    info.put("isAutoRenewing", purchase.isAutoRenewing());
-    info.put("originalJson", purchase.getOriginalJson());
-    info.put("developerPayload", purchase.getDeveloperPayload());
-    info.put("isAcknowledged", purchase.isAcknowledged());
-    info.put("purchaseState", purchase.getPurchaseState());
+  static Map<String, Object> fromPurchase(Purchase purchase) {
+    return fromPurchase(purchase, null);
+  }
+
+  /** Serializes the {@code fields} of {@code purchase}, or all of them if it is {@code null}. */
+  static Map<String, Object> fromPurchase(Purchase purchase, @Nullable Set<String> fields) {
+    Map<String, Object> info = new SerializedRecord(RecordSchema.PURCHASE);
+    if (includes(fields, "orderId")) {
+      info.put("orderId", purchase.getOrderId());
+    }
+    if (includes(fields, "packageName")) {
+      info.put("packageName", purchase.getPackageName());
+    }
+    if (includes(fields, "purchaseTime")) {
+      info.put("purchaseTime", purchase.getPurchaseTime());
+    }
+    if (includes(fields, "purchaseToken")) {
+      info.put("purchaseToken", purchase.getPurchaseToken());
+    }
+    if (includes(fields, "signature")) {
+      info.put("signature", purchase.getSignature());
+    }
+    if (includes(fields, "skus")) {
+      info.put("skus", purchase.getSkus().toString());
+    }
+    if (includes(fields, "isAutoRenewing")) {
+      info.put("isAutoRenewing", purchase.isAutoRenewing());
+    }
+    if (includes(fields, "originalJson")) {
+      info.put("originalJson", purchase.getOriginalJson());
+    }
+    if (includes(fields, "developerPayload")) {
+      info.put("developerPayload", purchase.getDeveloperPayload());
+    }
+    if (includes(fields, "isAcknowledged")) {
+      info.put("isAcknowledged", purchase.isAcknowledged());
+    }
+    if (includes(fields, "purchaseState")) {
+      info.put("purchaseState", purchase.getPurchaseState());
+    }
     AccountIdentifiers accountIdentifiers = purchase.getAccountIdentifiers();
     if (accountIdentifiers != null) {
-      info.put("obfuscatedAccountId", accountIdentifiers.getObfuscatedAccountId());
-      info.put("obfuscatedProfileId", accountIdentifiers.getObfuscatedProfileId());
+      if (includes(fields, "obfuscatedAccountId")) {
+        info.put("obfuscatedAccountId", accountIdentifiers.getObfuscatedAccountId());
+      }
+      if (includes(fields, "obfuscatedProfileId")) {
+        info.put("obfuscatedProfileId", accountIdentifiers.getObfuscatedProfileId());
+      }
     }
     return info;
   }
 
-  static HashMap<String, Object> fromPurchaseHistoryRecord(
+  static Map<String, Object> fromPurchaseHistoryRecord(
       PurchaseHistoryRecord purchaseHistoryRecord) {
-    HashMap<String, Object> info = new HashMap<>();
-    info.put("purchaseTime", purchaseHistoryRecord.getPurchaseTime());
-    info.put("purchaseToken", purchaseHistoryRecord.getPurchaseToken());
-    info.put("signature", purchaseHistoryRecord.getSignature());
-    info.put("skus", purchaseHistoryRecord.getSkus().toString());
-    info.put("developerPayload", purchaseHistoryRecord.getDeveloperPayload());
-    info.put("originalJson", purchaseHistoryRecord.getOriginalJson());
+    return fromPurchaseHistoryRecord(purchaseHistoryRecord, null);
+  }
+
+  static Map<String, Object> fromPurchaseHistoryRecord(
+      PurchaseHistoryRecord purchaseHistoryRecord, @Nullable Set<String> fields) {
+    Map<String, Object> info = new SerializedRecord(RecordSchema.PURCHASE_HISTORY_RECORD);
+    if (includes(fields, "purchaseTime")) {
+      info.put("purchaseTime", purchaseHistoryRecord.getPurchaseTime());
+    }
+    if (includes(fields, "purchaseToken")) {
+      info.put("purchaseToken", purchaseHistoryRecord.getPurchaseToken());
+    }
+    if (includes(fields, "signature")) {
+      info.put("signature", purchaseHistoryRecord.getSignature());
+    }
+    if (includes(fields, "skus")) {
+      info.put("skus", purchaseHistoryRecord.getSkus().toString());
+    }
+    if (includes(fields, "developerPayload")) {
+      info.put("developerPayload", purchaseHistoryRecord.getDeveloperPayload());
+    }
+    if (includes(fields, "originalJson")) {
+      info.put("originalJson", purchaseHistoryRecord.getOriginalJson());
+    }
     return info;
   }
 
-  static List<HashMap<String, Object>> fromPurchasesList(@Nullable List<Purchase> purchases) {
+  static List<Map<String, Object>> fromPurchasesList(@Nullable List<Purchase> purchases) {
+    return fromPurchasesList(purchases, null, null);
+  }
+
+  static List<Map<String, Object>> fromPurchasesList(
+      @Nullable List<Purchase> purchases, @Nullable PurchaseSignatureVerifier verifier) {
+    return fromPurchasesList(purchases, verifier, null);
+  }
+
+  /**
+   * Serializes {@code purchases}, with the {@code isSignatureVerified} verdict of {@code verifier}
+   * added to each of them if it has a public key. Only the {@code fields} are serialized if it is
+   * not {@code null}, signatures are not verified unless it includes {@code isSignatureVerified}.
+   */
+  static List<Map<String, Object>> fromPurchasesList(
+      @Nullable List<Purchase> purchases,
+      @Nullable PurchaseSignatureVerifier verifier,
+      @Nullable Set<String> fields) {
     if (purchases == null) {
       return Collections.emptyList();
     }
 
-    List<HashMap<String, Object>> serialized = new ArrayList<>();
-    for (Purchase purchase : purchases) {
-      serialized.add(fromPurchase(purchase));
+    final boolean[] verdicts =
+        verifier == null || !includes(fields, "isSignatureVerified")
+            ? null
+            : verifier.verify(purchases);
+    List<Map<String, Object>> serialized = new ArrayList<>(purchases.size());
+    for (int i = 0; i < purchases.size(); i++) {
+      Map<String, Object> info = fromPurchase(purchases.get(i), fields);
+      if (verdicts != null) {
+        info.put("isSignatureVerified", verdicts[i]);
+      }
+      serialized.add(info);
     }
     return serialized;
   }
 
-  static List<HashMap<String, Object>> fromPurchaseHistoryRecordList(
+  static List<Map<String, Object>> fromPurchaseHistoryRecordList(
       @Nullable List<PurchaseHistoryRecord> purchaseHistoryRecords) {
+    return fromPurchaseHistoryRecordList(purchaseHistoryRecords, null);
+  }
+
+  static List<Map<String, Object>> fromPurchaseHistoryRecordList(
+      @Nullable List<PurchaseHistoryRecord> purchaseHistoryRecords, @Nullable Set<String> fields) {
     if (purchaseHistoryRecords == null) {
       return Collections.emptyList();
     }
 
-    List<HashMap<String, Object>> serialized = new ArrayList<>();
+    List<Map<String, Object>> serialized = new ArrayList<>(purchaseHistoryRecords.size());
     for (PurchaseHistoryRecord purchaseHistoryRecord : purchaseHistoryRecords) {
-      serialized.add(fromPurchaseHistoryRecord(purchaseHistoryRecord));
+      serialized.add(fromPurchaseHistoryRecord(purchaseHistoryRecord, fields));
     }
     return serialized;
   }
 
   static HashMap<String, Object> fromPurchasesResult(PurchasesResult purchasesResult) {
+    return fromPurchasesResult(purchasesResult, null, null);
+  }
+
+  static HashMap<String, Object> fromPurchasesResult(
+      PurchasesResult purchasesResult,
+      @Nullable PurchaseSignatureVerifier verifier,
+      @Nullable Set<String> fields) {
     HashMap<String, Object> info = new HashMap<>();
     info.put("responseCode", purchasesResult.getResponseCode());
     info.put("billingResult", fromBillingResult(purchasesResult.getBillingResult()));
-    info.put("purchasesList", fromPurchasesList(purchasesResult.getPurchasesList()));
+    info.put(
+        "purchasesList", fromPurchasesList(purchasesResult.getPurchasesList(), verifier, fields));
+    return info;
+  }
+
+  /**
+   * Serializes a delta mode purchase query: shaped like {@link #fromPurchasesResult}, with only the
+   * changed purchases in {@code purchasesList} and the {@code snapshotVersion}, {@code
+   * fullSnapshot} and {@code removedPurchaseTokens} of {@code delta} added.
+   */
+  static HashMap<String, Object> fromPurchasesDelta(
+      BillingResult billingResult,
+      PurchaseSnapshotTracker.Delta delta,
+      @Nullable PurchaseSignatureVerifier verifier,
+      @Nullable Set<String> fields) {
+    HashMap<String, Object> info = new HashMap<>();
+    info.put("responseCode", billingResult.getResponseCode());
+    info.put("billingResult", fromBillingResult(billingResult));
+    info.put("purchasesList", fromPurchasesList(delta.changedPurchases, verifier, fields));
+    info.put("snapshotVersion", delta.snapshotVersion);
+    info.put("fullSnapshot", delta.fullSnapshot);
+    info.put("removedPurchaseTokens", delta.removedPurchaseTokens);
     return info;
   }
 
@@ -128,19 +286,61 @@ import java.util.Locale;
   }
 
   /**
-   * Gets the symbol of for the given currency code for the default {@link Locale.Category#DISPLAY
-   * DISPLAY} locale. For example, for the US Dollar, the symbol is "$" if the default locale is the
-   * US, while for other locales it may be "US$". If no symbol can be determined, the ISO 4217
-   * currency code is returned.
+   * Reads the optional {@code fields} argument of the query calls: the names of the record fields
+   * to serialize. Returns {@code null}, meaning every field, if it is absent.
+   */
+  @Nullable
+  static Set<String> fieldMask(@Nullable List<String> fields) {
+    return fields == null ? null : new HashSet<>(fields);
+  }
+
+  private static boolean includes(@Nullable Set<String> fields, String field) {
+    return fields == null || fields.contains(field);
+  }
+
+  // Currency symbols memoized by locale, then by ISO 4217 code.
+  private static final ConcurrentHashMap<Locale, ConcurrentHashMap<String, String>>
+      currencySymbols = new ConcurrentHashMap<>();
+
+  /**
+   * Gets the symbol of for the given currency code for the default {@link Locale}. For example, for
+   * the US Dollar, the symbol is "$" if the default locale is the US, while for other locales it may
+   * be "US$". If no symbol can be determined, the ISO 4217 currency code is returned.
+   *
+   * <p>Symbols are memoized per locale and code.
    *
    * @param currencyCode the ISO 4217 code of the currency
-   * @return the symbol of this currency code for the default {@link Locale.Category#DISPLAY
-   *     DISPLAY} locale
+   * @return the symbol of this currency code for the default {@link Locale}, or {@code
+   *     currencyCode} itself if it is not a supported ISO 4217 code
    * @exception NullPointerException if <code>currencyCode</code> is null
-   * @exception IllegalArgumentException if <code>currencyCode</code> is not a supported ISO 4217
-   *     code.
    */
   static String currencySymbolFromCode(String currencyCode) {
-    return Currency.getInstance(currencyCode).getSymbol();
+    // Locale.getDefault(Locale.Category) needs API 24.
+    final Locale locale = Locale.getDefault();
+    ConcurrentHashMap<String, String> symbols = currencySymbols.get(locale);
+    if (symbols == null) {
+      final ConcurrentHashMap<String, String> created = new ConcurrentHashMap<>();
+      symbols = currencySymbols.putIfAbsent(locale, created);
+      if (symbols == null) {
+        symbols = created;
+      }
+    }
+
+    String symbol = symbols.get(currencyCode);
+    if (symbol == null) {
+      try {
+        symbol = Currency.getInstance(currencyCode).getSymbol(locale);
+      } catch (IllegalArgumentException e) {
+        // Unknown codes are reported as is rather than failing the whole list.
+        symbol = currencyCode;
+      }
+      symbols.put(currencyCode, symbol);
+    }
+    return symbol;
+  }
+
+  /** Drops the memoized currency symbols, for example after the device locale changed. */
+  static void clearCurrencySymbols() {
+    currencySymbols.clear();
   }
 }
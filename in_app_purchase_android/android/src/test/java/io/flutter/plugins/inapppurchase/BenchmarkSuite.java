@@ -0,0 +1,53 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import java.io.File;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the JMH benchmarks of this package and writes their results as JSON.
+ *
+ * <p>The benchmarks are excluded from the regular unit tests. Run them with:
+ *
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests '*BenchmarkSuite'</pre>
+ *
+ * <p>Throughput is reported in operations per second, and the {@code gc} profiler adds the
+ * allocation rate ({@code gc.alloc.rate.norm} is bytes per operation). The results go to {@code
+ * build/reports/jmh/results.json} unless the {@code inAppPurchase.benchmarkResults} system property
+ * names another file. Benchmarks run in the test JVM, without forking, so numbers are only
+ * comparable between runs on the same machine.
+ */
+public class BenchmarkSuite {
+  @Test
+  public void run() throws RunnerException {
+    File resultFile =
+        new File(
+            System.getProperty("inAppPurchase.benchmarkResults", "build/reports/jmh/results.json"));
+    resultFile.getParentFile().mkdirs();
+
+    Options options =
+        new OptionsBuilder()
+            .include(TranslatorBenchmark.class.getSimpleName())
+            .include(MethodCallDispatchBenchmark.class.getSimpleName())
+            .forks(0)
+            .warmupIterations(3)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result(resultFile.getPath())
+            .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class BillingConnectionManagerTest {
+  @Mock Handler handler;
+  private long now;
+  private BillingConnectionManager manager;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.openMocks(this);
+    manager =
+        new BillingConnectionManager(
+            handler,
+            new Random(42),
+            () -> now,
+            /*initialBackoffMillis=*/ 1000,
+            /*maxBackoffMillis=*/ 8000,
+            /*stableConnectionMillis=*/ 30000);
+  }
+
+  @Test
+  public void backoffGrowsWithJitterUpToTheCap() {
+    List<Long> delays = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      manager.onConnectionLost(mock(Runnable.class));
+      ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+      verify(handler, atLeastOnce()).postDelayed(any(), delayCaptor.capture());
+      delays.add(delayCaptor.getValue());
+    }
+
+    long[] bases = {1000, 2000, 4000, 8000, 8000, 8000};
+    for (int i = 0; i < bases.length; i++) {
+      assertTrue(delays.get(i) >= bases[i] / 2);
+      assertTrue(delays.get(i) <= bases[i]);
+    }
+    assertEquals(BillingConnectionManager.STATE_WAITING_TO_RECONNECT, manager.getState());
+  }
+
+  @Test
+  public void stableConnectionResetsBackoff() {
+    manager.onConnectionLost(mock(Runnable.class));
+    manager.onConnectionLost(mock(Runnable.class));
+    manager.onConnectionLost(mock(Runnable.class));
+
+    // Connected long enough, the next delay starts over.
+    manager.onConnecting();
+    manager.onConnected();
+    now += 30000;
+    BillingConnectionManager.Listener listener = mock(BillingConnectionManager.Listener.class);
+    manager.setListener(listener);
+    manager.onConnectionLost(mock(Runnable.class));
+
+    ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+    verify(listener)
+        .onConnectionStateChanged(
+            eq(BillingConnectionManager.STATE_WAITING_TO_RECONNECT),
+            eq(1),
+            delayCaptor.capture());
+    assertTrue(delayCaptor.getValue() <= 1000);
+  }
+
+  @Test
+  public void flappingConnectionKeepsBackingOff() {
+    manager.onConnectionLost(mock(Runnable.class));
+    manager.onConnectionLost(mock(Runnable.class));
+
+    // Dropped again right after setup, the attempt counter keeps growing.
+    manager.onConnecting();
+    manager.onConnected();
+    now += 100;
+    BillingConnectionManager.Listener listener = mock(BillingConnectionManager.Listener.class);
+    manager.setListener(listener);
+    manager.onConnectionLost(mock(Runnable.class));
+
+    ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+    verify(listener)
+        .onConnectionStateChanged(
+            eq(BillingConnectionManager.STATE_WAITING_TO_RECONNECT),
+            eq(3),
+            delayCaptor.capture());
+    assertTrue(delayCaptor.getValue() >= 2000);
+  }
+
+  @Test
+  public void disconnectCancelsPendingReconnect() {
+    Runnable reconnect = mock(Runnable.class);
+    manager.onConnectionLost(reconnect);
+
+    manager.onDisconnected();
+
+    verify(handler).removeCallbacks(reconnect);
+    verify(reconnect, never()).run();
+    assertEquals(BillingConnectionManager.STATE_DISCONNECTED, manager.getState());
+  }
+
+  @Test
+  public void setListener_replaysCurrentState() {
+    manager.onConnecting();
+    manager.onConnected();
+    BillingConnectionManager.Listener listener = mock(BillingConnectionManager.Listener.class);
+
+    manager.setListener(listener);
+
+    verify(listener)
+        .onConnectionStateChanged(eq(BillingConnectionManager.STATE_CONNECTED), eq(0), anyLong());
+  }
+}
@@ -0,0 +1,547 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import android.app.Activity;
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClient.SkuType;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.PriceChangeConfirmationListener;
+import com.android.billingclient.api.PriceChangeFlowParams;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
+import com.android.billingclient.api.PurchaseHistoryResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONException;
+import org.mockito.invocation.InvocationOnMock;
+
+/**
+ * An in-process stand-in for Play that the plugin can be load tested against on a plain JVM.
+ *
+ * <p>It serves a synthetic catalog of {@link Config#catalogSize} skus of each type and owns {@link
+ * Config#ownedPurchases} in-app purchases. Asynchronous calls are answered on a single callback
+ * thread after a delay sampled from the {@link Latency} of the call, connection callbacks included,
+ * so the plugin must move them to its {@link MainThreadDispatcher} as it does for Play. Calls fail
+ * with {@link Config#errorResponseCode} at {@link Config#errorRate}, and the connection drops after
+ * a call at {@link Config#disconnectRate} or when {@link #disconnect} is called. Until the plugin
+ * reconnects every call answers {@link BillingResponseCode#SERVICE_DISCONNECTED}. The price change
+ * flow, which needs a UI, always answers {@link BillingResponseCode#FEATURE_NOT_SUPPORTED}.
+ *
+ * <p>Every random draw of a call comes from a generator seeded with {@link Config#seed}, the call
+ * and how many times it was made before, so the n-th call of each kind samples the same latency and
+ * outcome on every run whichever thread makes it.
+ *
+ * <p>Pass it as the {@link BillingClientFactory} of {@link MethodCallHandlerImpl}. The {@link
+ * BillingClient} it creates is a stub only Mockito mock, so it records no invocations however long
+ * it runs. Methods the fake does not serve answer {@link BillingResponseCode#FEATURE_NOT_SUPPORTED}
+ * when they return a result. Call {@link #shutdown} once done.
+ */
+final class FakeBillingClientFactory implements BillingClientFactory {
+  static final String CALL_START_CONNECTION = "startConnection";
+  static final String CALL_IS_FEATURE_SUPPORTED = "isFeatureSupported";
+  static final String CALL_LAUNCH_BILLING_FLOW = "launchBillingFlow";
+  static final String CALL_QUERY_SKU_DETAILS = "querySkuDetailsAsync";
+  static final String CALL_QUERY_PURCHASES = "queryPurchasesAsync";
+  static final String CALL_QUERY_PURCHASE_HISTORY = "queryPurchaseHistoryAsync";
+  static final String CALL_CONSUME = "consumeAsync";
+  static final String CALL_ACKNOWLEDGE = "acknowledgePurchase";
+  static final String CALL_LAUNCH_PRICE_CHANGE_CONFIRMATION_FLOW =
+      "launchPriceChangeConfirmationFlow";
+
+  /** Samples how long Play takes to answer a call. */
+  interface Latency {
+    long sampleNanos(@NonNull Random random);
+  }
+
+  static Latency fixed(long millis) {
+    final long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    return random -> nanos;
+  }
+
+  static Latency uniform(long minMillis, long maxMillis) {
+    final long minNanos = TimeUnit.MILLISECONDS.toNanos(minMillis);
+    final long rangeNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis) - minNanos;
+    return random -> minNanos + (long) (random.nextDouble() * rangeNanos);
+  }
+
+  /** A long tailed distribution, as IPC latencies usually are. */
+  static Latency logNormal(double medianMillis, double sigma) {
+    final double mu = Math.log(TimeUnit.MILLISECONDS.toNanos(1) * medianMillis);
+    return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+  }
+
+  /** What the fake serves and how it misbehaves. */
+  static final class Config {
+    int catalogSize = 100;
+    int ownedPurchases = 0;
+    Latency defaultLatency = fixed(0);
+    final HashMap<String, Latency> latencies = new HashMap<>();
+    double errorRate = 0;
+    int errorResponseCode = BillingResponseCode.SERVICE_UNAVAILABLE;
+    double disconnectRate = 0;
+    long seed = 0;
+
+    Config catalogSize(int catalogSize) {
+      this.catalogSize = catalogSize;
+      return this;
+    }
+
+    Config ownedPurchases(int ownedPurchases) {
+      this.ownedPurchases = ownedPurchases;
+      return this;
+    }
+
+    Config latency(@NonNull Latency latency) {
+      this.defaultLatency = latency;
+      return this;
+    }
+
+    /** Overrides the latency of one of the {@code CALL_*} calls. */
+    Config latency(@NonNull String call, @NonNull Latency latency) {
+      latencies.put(call, latency);
+      return this;
+    }
+
+    Config errors(double errorRate, int errorResponseCode) {
+      this.errorRate = errorRate;
+      this.errorResponseCode = errorResponseCode;
+      return this;
+    }
+
+    Config disconnectRate(double disconnectRate) {
+      this.disconnectRate = disconnectRate;
+      return this;
+    }
+
+    Config seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    Latency latencyOf(String call) {
+      final Latency latency = latencies.get(call);
+      return latency == null ? defaultLatency : latency;
+    }
+  }
+
+  /** Part of the answer to a call, run with the generator of that call. */
+  private interface Reply {
+    void run(Random random);
+  }
+
+  private final Config config;
+  private final BillingClient client;
+  private final ScheduledExecutorService callbackExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "FakeBillingClient");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final ConcurrentHashMap<String, AtomicInteger> callCounts = new ConcurrentHashMap<>();
+  private final Map<String, List<SkuDetails>> catalog = new HashMap<>();
+  private final AtomicLong nextOrder = new AtomicLong();
+
+  // Only touched on the callback thread.
+  private final LinkedHashMap<String, Purchase> ownedPurchases = new LinkedHashMap<>();
+  private final ArrayList<PurchaseHistoryRecord> history = new ArrayList<>();
+  @Nullable private BillingClientStateListener stateListener;
+
+  @Nullable private volatile PurchasesUpdatedListener purchasesUpdatedListener;
+
+  private volatile boolean connected;
+
+  FakeBillingClientFactory(@NonNull Config config) {
+    this.config = config;
+    try {
+      catalog.put(SkuType.INAPP, buildCatalog(SkuType.INAPP, "sku", config.catalogSize));
+      catalog.put(SkuType.SUBS, buildCatalog(SkuType.SUBS, "sub", config.catalogSize));
+      for (int i = 0; i < config.ownedPurchases; i++) {
+        final Purchase purchase = buildPurchase("sku" + (i % Math.max(1, config.catalogSize)));
+        ownedPurchases.put(purchase.getPurchaseToken(), purchase);
+        history.add(new PurchaseHistoryRecord(purchase.getOriginalJson(), purchase.getSignature()));
+      }
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+    this.client =
+        mock(BillingClient.class, withSettings().stubOnly().defaultAnswer(this::unsupported));
+    stub();
+  }
+
+  @Override
+  public BillingClient createBillingClient(
+      @NonNull Context context,
+      @NonNull PurchasesUpdatedListener listener,
+      boolean enablePendingPurchases) {
+    purchasesUpdatedListener = listener;
+    return client;
+  }
+
+  /** How many times {@code call}, one of the {@code CALL_*} names, has been made so far. */
+  int callCount(@NonNull String call) {
+    final AtomicInteger count = callCounts.get(call);
+    return count == null ? 0 : count.get();
+  }
+
+  /** Drops the connection as if Play Services had died. */
+  void disconnect() {
+    callbackExecutor.execute(this::dropConnection);
+  }
+
+  void shutdown() {
+    callbackExecutor.shutdownNow();
+  }
+
+  private void stub() {
+    doAnswer(invocation -> connected).when(client).isReady();
+    doAnswer(
+            invocation -> {
+              startConnection(invocation.getArgument(0));
+              return null;
+            })
+        .when(client)
+        .startConnection(any(BillingClientStateListener.class));
+    doAnswer(
+            invocation -> {
+              connected = false;
+              return null;
+            })
+        .when(client)
+        .endConnection();
+    doAnswer(invocation -> answerNow(CALL_IS_FEATURE_SUPPORTED, random -> {}))
+        .when(client)
+        .isFeatureSupported(anyString());
+    doAnswer(
+            invocation ->
+                answerNow(
+                    CALL_LAUNCH_BILLING_FLOW,
+                    random -> reply(CALL_LAUNCH_BILLING_FLOW, random, this::completePurchase)))
+        .when(client)
+        .launchBillingFlow(any(), any());
+    doAnswer(
+            invocation -> {
+              querySkuDetails(invocation.getArgument(0), invocation.getArgument(1));
+              return null;
+            })
+        .when(client)
+        .querySkuDetailsAsync(any(SkuDetailsParams.class), any(SkuDetailsResponseListener.class));
+    doAnswer(
+            invocation -> {
+              queryPurchases(invocation.getArgument(0), invocation.getArgument(1));
+              return null;
+            })
+        .when(client)
+        .queryPurchasesAsync(anyString(), any(PurchasesResponseListener.class));
+    doAnswer(
+            invocation -> {
+              final PurchaseHistoryResponseListener listener = invocation.getArgument(1);
+              answerLater(
+                  CALL_QUERY_PURCHASE_HISTORY,
+                  random -> {
+                    final BillingResult billingResult = result(random);
+                    listener.onPurchaseHistoryResponse(
+                        billingResult,
+                        isOk(billingResult) ? new ArrayList<>(history) : null);
+                  });
+              return null;
+            })
+        .when(client)
+        .queryPurchaseHistoryAsync(anyString(), any(PurchaseHistoryResponseListener.class));
+    doAnswer(
+            invocation -> {
+              final ConsumeParams params = invocation.getArgument(0);
+              final ConsumeResponseListener listener = invocation.getArgument(1);
+              answerLater(
+                  CALL_CONSUME,
+                  random -> {
+                    final BillingResult billingResult =
+                        ownedResult(random, params.getPurchaseToken());
+                    if (isOk(billingResult)) {
+                      ownedPurchases.remove(params.getPurchaseToken());
+                    }
+                    listener.onConsumeResponse(billingResult, params.getPurchaseToken());
+                  });
+              return null;
+            })
+        .when(client)
+        .consumeAsync(any(ConsumeParams.class), any(ConsumeResponseListener.class));
+    doAnswer(
+            invocation -> {
+              final AcknowledgePurchaseParams params = invocation.getArgument(0);
+              final AcknowledgePurchaseResponseListener listener = invocation.getArgument(1);
+              answerLater(
+                  CALL_ACKNOWLEDGE,
+                  random -> {
+                    final BillingResult billingResult =
+                        ownedResult(random, params.getPurchaseToken());
+                    if (isOk(billingResult)) {
+                      acknowledge(params.getPurchaseToken());
+                    }
+                    listener.onAcknowledgePurchaseResponse(billingResult);
+                  });
+              return null;
+            })
+        .when(client)
+        .acknowledgePurchase(
+            any(AcknowledgePurchaseParams.class), any(AcknowledgePurchaseResponseListener.class));
+    doAnswer(
+            invocation -> {
+              final PriceChangeConfirmationListener listener = invocation.getArgument(2);
+              answerLater(
+                  CALL_LAUNCH_PRICE_CHANGE_CONFIRMATION_FLOW,
+                  random ->
+                      listener.onPriceChangeConfirmationResult(
+                          billingResult(BillingResponseCode.FEATURE_NOT_SUPPORTED)));
+              return null;
+            })
+        .when(client)
+        .launchPriceChangeConfirmationFlow(
+            any(Activity.class),
+            any(PriceChangeFlowParams.class),
+            any(PriceChangeConfirmationListener.class));
+  }
+
+  // Fails the way Play fails for a feature it lacks, so a load run reports a response code rather
+  // than an exception thrown on the callback thread.
+  private Object unsupported(InvocationOnMock invocation) throws Throwable {
+    final Class<?> returnType = invocation.getMethod().getReturnType();
+    if (returnType == BillingResult.class) {
+      return billingResult(BillingResponseCode.FEATURE_NOT_SUPPORTED);
+    }
+    if (returnType == Purchase.PurchasesResult.class) {
+      return new Purchase.PurchasesResult(
+          billingResult(BillingResponseCode.FEATURE_NOT_SUPPORTED), null);
+    }
+    return RETURNS_DEFAULTS.answer(invocation);
+  }
+
+  private void startConnection(BillingClientStateListener listener) {
+    answerLater(
+        CALL_START_CONNECTION,
+        random -> {
+          stateListener = listener;
+          final BillingResult billingResult = errorOrOk(random);
+          connected = isOk(billingResult);
+          listener.onBillingSetupFinished(billingResult);
+        });
+  }
+
+  private void querySkuDetails(SkuDetailsParams params, SkuDetailsResponseListener listener) {
+    answerLater(
+        CALL_QUERY_SKU_DETAILS,
+        random -> {
+          final BillingResult billingResult = result(random);
+          if (!isOk(billingResult)) {
+            listener.onSkuDetailsResponse(billingResult, null);
+            return;
+          }
+          final List<String> skus = params.getSkusList();
+          final List<SkuDetails> found = new ArrayList<>();
+          for (SkuDetails skuDetails : catalog.get(params.getSkuType())) {
+            if (skus.contains(skuDetails.getSku())) {
+              found.add(skuDetails);
+            }
+          }
+          listener.onSkuDetailsResponse(billingResult, found);
+        });
+  }
+
+  private void queryPurchases(String skuType, PurchasesResponseListener listener) {
+    answerLater(
+        CALL_QUERY_PURCHASES,
+        random -> {
+          final BillingResult billingResult = result(random);
+          listener.onQueryPurchasesResponse(
+              billingResult,
+              isOk(billingResult) && SkuType.INAPP.equals(skuType)
+                  ? new ArrayList<>(ownedPurchases.values())
+                  : Collections.<Purchase>emptyList());
+        });
+  }
+
+  // Runs on the callback thread.
+  private void acknowledge(String purchaseToken) {
+    final Purchase purchase = ownedPurchases.get(purchaseToken);
+    try {
+      ownedPurchases.put(
+          purchaseToken,
+          new Purchase(
+              purchase.getOriginalJson().replace("\"acknowledged\":false", "\"acknowledged\":true"),
+              purchase.getSignature()));
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void completePurchase(Random random) {
+    final PurchasesUpdatedListener listener = purchasesUpdatedListener;
+    if (listener == null) {
+      return;
+    }
+    final List<SkuDetails> inapp = catalog.get(SkuType.INAPP);
+    if (inapp.isEmpty()) {
+      listener.onPurchasesUpdated(billingResult(BillingResponseCode.ITEM_UNAVAILABLE), null);
+      return;
+    }
+    try {
+      final Purchase purchase = buildPurchase(inapp.get(random.nextInt(inapp.size())).getSku());
+      ownedPurchases.put(purchase.getPurchaseToken(), purchase);
+      history.add(new PurchaseHistoryRecord(purchase.getOriginalJson(), purchase.getSignature()));
+      listener.onPurchasesUpdated(
+          billingResult(BillingResponseCode.OK), Collections.singletonList(purchase));
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Counts {@code call} and returns its result right away, after blocking for its latency. {@code
+   * then} runs with the generator of the call if the result is OK.
+   */
+  private BillingResult answerNow(String call, Reply then) throws InterruptedException {
+    final Random random = randomFor(call, count(call));
+    TimeUnit.NANOSECONDS.sleep(config.latencyOf(call).sampleNanos(random));
+    final BillingResult billingResult = result(random);
+    if (isOk(billingResult)) {
+      then.run(random);
+    }
+    return billingResult;
+  }
+
+  /** Counts {@code call} and runs {@code reply} on the callback thread once its latency passed. */
+  private void answerLater(String call, Reply reply) {
+    reply(call, randomFor(call, count(call)), reply);
+  }
+
+  private void reply(String call, Random random, Reply reply) {
+    callbackExecutor.schedule(
+        () -> {
+          reply.run(random);
+          maybeDisconnect(random);
+        },
+        config.latencyOf(call).sampleNanos(random),
+        TimeUnit.NANOSECONDS);
+  }
+
+  private Random randomFor(String call, int index) {
+    return new Random(config.seed ^ ((long) call.hashCode() << 32 | index));
+  }
+
+  /** Counts {@code call} and returns how many times it was made before. */
+  private int count(String call) {
+    AtomicInteger count = callCounts.get(call);
+    if (count == null) {
+      final AtomicInteger created = new AtomicInteger();
+      count = callCounts.putIfAbsent(call, created);
+      if (count == null) {
+        count = created;
+      }
+    }
+    return count.getAndIncrement();
+  }
+
+  private BillingResult result(Random random) {
+    if (!connected) {
+      return billingResult(BillingResponseCode.SERVICE_DISCONNECTED);
+    }
+    return errorOrOk(random);
+  }
+
+  private BillingResult ownedResult(Random random, String purchaseToken) {
+    final BillingResult billingResult = result(random);
+    if (isOk(billingResult) && !ownedPurchases.containsKey(purchaseToken)) {
+      return billingResult(BillingResponseCode.ITEM_NOT_OWNED);
+    }
+    return billingResult;
+  }
+
+  private BillingResult errorOrOk(Random random) {
+    return random.nextDouble() < config.errorRate
+        ? billingResult(config.errorResponseCode)
+        : billingResult(BillingResponseCode.OK);
+  }
+
+  // Runs on the callback thread.
+  private void maybeDisconnect(Random random) {
+    if (connected && random.nextDouble() < config.disconnectRate) {
+      dropConnection();
+    }
+  }
+
+  // Runs on the callback thread.
+  private void dropConnection() {
+    if (!connected) {
+      return;
+    }
+    connected = false;
+    if (stateListener != null) {
+      stateListener.onBillingServiceDisconnected();
+    }
+  }
+
+  private Purchase buildPurchase(String sku) throws JSONException {
+    final long order = nextOrder.getAndIncrement();
+    return new Purchase(
+        String.format(
+            "{\"orderId\":\"order%d\",\"packageName\":\"fake\",\"productId\":\"%s\",\"purchaseTime\":%d,\"purchaseState\":0,\"purchaseToken\":\"token%d\",\"acknowledged\":false}",
+            order, sku, 1600000000000L + order, order),
+        "signature" + order);
+  }
+
+  private static List<SkuDetails> buildCatalog(String skuType, String prefix, int size)
+      throws JSONException {
+    final List<SkuDetails> skuDetailsList = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      skuDetailsList.add(
+          new SkuDetails(
+              String.format(
+                  "{\"productId\":\"%s%d\",\"type\":\"%s\",\"price\":\"$0.99\",\"price_amount_micros\":990000,\"price_currency_code\":\"USD\",\"title\":\"Title %d\",\"description\":\"Description %d.\",\"original_price\":\"$0.99\",\"original_price_micros\":990000}",
+                  prefix, i, skuType, i, i)));
+    }
+    return skuDetailsList;
+  }
+
+  private static boolean isOk(BillingResult billingResult) {
+    return billingResult.getResponseCode() == BillingResponseCode.OK;
+  }
+
+  private static BillingResult billingResult(int responseCode) {
+    return BillingResult.newBuilder().setResponseCode(responseCode).build();
+  }
+}
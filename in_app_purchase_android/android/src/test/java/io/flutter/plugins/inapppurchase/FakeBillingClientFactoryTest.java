@@ -0,0 +1,222 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.IS_READY;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_PURCHASES;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_SKU_DETAILS;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.START_CONNECTION;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import android.app.Activity;
+import android.content.Context;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClient.SkuType;
+import com.android.billingclient.api.PriceChangeFlowParams;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.SkuDetails;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+
+public class FakeBillingClientFactoryTest {
+  private FakeBillingClientFactory fake;
+  private MethodCallHandlerImpl handler;
+
+  @After
+  public void tearDown() {
+    fake.shutdown();
+  }
+
+  @Test
+  public void servesTheCatalog() throws Exception {
+    setUp(
+        new FakeBillingClientFactory.Config()
+            .catalogSize(10)
+            .latency(FakeBillingClientFactory.uniform(1, 5)));
+    connect();
+
+    final HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    arguments.put("skusList", Arrays.asList("sku1", "sku3", "unknown"));
+    final Map<String, Object> response = call(QUERY_SKU_DETAILS, arguments);
+
+    assertEquals(BillingResponseCode.OK, responseCode(response));
+    assertEquals(2, ((List<?>) response.get("skuDetailsList")).size());
+    assertEquals(1, fake.callCount(FakeBillingClientFactory.CALL_QUERY_SKU_DETAILS));
+  }
+
+  @Test
+  public void injectedErrorsAreReported() throws Exception {
+    setUp(
+        new FakeBillingClientFactory.Config()
+            .ownedPurchases(3)
+            .errors(1, BillingResponseCode.SERVICE_UNAVAILABLE)
+            .latency(
+                FakeBillingClientFactory.CALL_START_CONNECTION,
+                FakeBillingClientFactory.fixed(0)));
+    final Map<String, Object> setupResponse = call(START_CONNECTION, connectArguments());
+    assertEquals(BillingResponseCode.SERVICE_UNAVAILABLE, setupResponse.get("responseCode"));
+
+    final HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    final Map<String, Object> response = call(QUERY_PURCHASES, arguments);
+
+    assertEquals(BillingResponseCode.SERVICE_DISCONNECTED, responseCode(response));
+    assertEquals(0, ((List<?>) response.get("purchasesList")).size());
+  }
+
+  @Test
+  public void disconnectDropsTheConnection() throws Exception {
+    setUp(new FakeBillingClientFactory.Config().ownedPurchases(3));
+    connect();
+
+    final HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    assertEquals(3, ((List<?>) call(QUERY_PURCHASES, arguments).get("purchasesList")).size());
+
+    fake.disconnect();
+    final Map<String, Object> response = call(QUERY_PURCHASES, arguments);
+
+    assertEquals(BillingResponseCode.SERVICE_DISCONNECTED, responseCode(response));
+    assertEquals(Boolean.FALSE, callForValue(IS_READY, null));
+  }
+
+  @Test
+  public void sameSeedSamplesTheSameOutcomesWhateverRunsConcurrently() throws Exception {
+    final List<Long> alone = sampleFeatureLatencies(false);
+    fake.shutdown();
+
+    assertEquals(alone, sampleFeatureLatencies(true));
+  }
+
+  @Test
+  public void priceChangeFlowAnswersNotSupported() throws Exception {
+    setUp(new FakeBillingClientFactory.Config());
+    final BillingClient client = fake.createBillingClient(mock(Context.class), (r, p) -> {}, true);
+    final PriceChangeFlowParams params =
+        new PriceChangeFlowParams.Builder()
+            .setSkuDetails(
+                new SkuDetails(
+                    "{\"productId\":\"sku\",\"type\":\"subs\",\"price\":\"$0.99\"}"))
+            .build();
+    final CompletableFuture<Integer> responseCode = new CompletableFuture<>();
+
+    client.launchPriceChangeConfirmationFlow(
+        mock(Activity.class),
+        params,
+        billingResult -> responseCode.complete(billingResult.getResponseCode()));
+
+    assertEquals(
+        BillingResponseCode.FEATURE_NOT_SUPPORTED, (int) responseCode.get(5, TimeUnit.SECONDS));
+  }
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void unservedCallsAnswerNotSupported() {
+    setUp(new FakeBillingClientFactory.Config());
+
+    final Purchase.PurchasesResult purchasesResult =
+        fake.createBillingClient(mock(Context.class), (r, p) -> {}, true)
+            .queryPurchases(SkuType.INAPP);
+
+    assertEquals(BillingResponseCode.FEATURE_NOT_SUPPORTED, purchasesResult.getResponseCode());
+  }
+
+  // Records the draws of isFeatureSupported, optionally while another thread keeps querying.
+  private List<Long> sampleFeatureLatencies(boolean concurrentQueries) throws Exception {
+    final List<Long> samples = Collections.synchronizedList(new ArrayList<>());
+    setUp(
+        new FakeBillingClientFactory.Config()
+            .seed(42)
+            .latency(FakeBillingClientFactory.uniform(0, 0))
+            .latency(
+                FakeBillingClientFactory.CALL_IS_FEATURE_SUPPORTED,
+                random -> {
+                  samples.add(random.nextLong());
+                  return 0;
+                }));
+    final BillingClient client = fake.createBillingClient(mock(Context.class), (r, p) -> {}, true);
+    final AtomicBoolean done = new AtomicBoolean();
+    final Thread queries =
+        new Thread(
+            () -> {
+              while (concurrentQueries && !done.get()) {
+                client.queryPurchasesAsync(SkuType.INAPP, (r, p) -> {});
+              }
+            });
+    queries.start();
+    for (int i = 0; i < 100; i++) {
+      client.isFeatureSupported(BillingClient.FeatureType.SUBSCRIPTIONS);
+    }
+    done.set(true);
+    queries.join();
+    return new ArrayList<>(samples);
+  }
+
+  private void setUp(FakeBillingClientFactory.Config config) {
+    fake = new FakeBillingClientFactory(config);
+    handler =
+        new MethodCallHandlerImpl(null, mock(Context.class), mock(MethodChannel.class), fake);
+    handler.setSerializationExecutor(Runnable::run);
+    handler.setMainThreadDispatcher(Runnable::run);
+  }
+
+  private void connect() throws Exception {
+    final Map<String, Object> response = call(START_CONNECTION, connectArguments());
+    assertEquals(BillingResponseCode.OK, response.get("responseCode"));
+  }
+
+  private static HashMap<String, Object> connectArguments() {
+    final HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("handle", 1);
+    arguments.put("enablePendingPurchases", true);
+    return arguments;
+  }
+
+  private static Object responseCode(Map<String, Object> response) {
+    return ((Map<?, ?>) response.get("billingResult")).get("responseCode");
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> call(String method, Object arguments) throws Exception {
+    return (Map<String, Object>) callForValue(method, arguments);
+  }
+
+  private Object callForValue(String method, Object arguments) throws Exception {
+    final CompletableFuture<Object> future = new CompletableFuture<>();
+    handler.onMethodCall(
+        new MethodCall(method, arguments),
+        new MethodChannel.Result() {
+          @Override
+          public void success(Object result) {
+            future.complete(result);
+          }
+
+          @Override
+          public void error(String errorCode, String errorMessage, Object errorDetails) {
+            future.completeExceptionally(new AssertionError(errorCode + ": " + errorMessage));
+          }
+
+          @Override
+          public void notImplemented() {
+            future.completeExceptionally(new AssertionError(method + " is not implemented"));
+          }
+        });
+    return future.get(5, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
+import com.android.billingclient.api.SkuDetails;
+import io.flutter.plugin.common.StandardMessageCodec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InAppPurchaseMessageCodecTest {
+  private static final String SKU_DETAIL_EXAMPLE_JSON =
+      "{\"productId\":\"example\",\"type\":\"inapp\",\"price\":\"$0.99\",\"price_amount_micros\":990000,\"price_currency_code\":\"USD\",\"title\":\"Example title\",\"description\":\"Example description.\",\"original_price\":\"$0.99\",\"original_price_micros\":990000}";
+  private static final String PURCHASE_EXAMPLE_JSON =
+      "{\"orderId\":\"foo\",\"packageName\":\"bar\",\"productId\":\"consumable\",\"purchaseTime\":11111111,\"purchaseState\":0,\"purchaseToken\":\"baz\",\"developerPayload\":\"dummy payload\",\"isAcknowledged\":\"true\", \"obfuscatedAccountId\":\"Account101\", \"obfuscatedProfileId\": \"Profile105\"}";
+
+  private final InAppPurchaseMessageCodec codec = InAppPurchaseMessageCodec.INSTANCE;
+
+  @Before
+  public void setup() {
+    Locale.setDefault(new Locale("en", "us"));
+  }
+
+  @Test
+  public void skuDetails_roundTrip() throws JSONException {
+    Map<String, Object> serialized =
+        Translator.fromSkuDetail(new SkuDetails(SKU_DETAIL_EXAMPLE_JSON));
+
+    Object decoded = roundTrip(serialized);
+
+    assertTrue(decoded instanceof SerializedRecord);
+    assertEquals(serialized, decoded);
+    assertEquals(990000L, ((Map<?, ?>) decoded).get("priceAmountMicros"));
+  }
+
+  @Test
+  public void purchase_roundTripKeepsAbsentFieldsAbsent() throws JSONException {
+    Map<String, Object> serialized =
+        Translator.fromPurchase(
+            new PurchaseWithoutAccountIdentifiers(PURCHASE_EXAMPLE_JSON, "signature"));
+
+    Map<?, ?> decoded = (Map<?, ?>) roundTrip(serialized);
+
+    assertEquals(serialized, decoded);
+    assertFalse(decoded.containsKey("obfuscatedAccountId"));
+    assertEquals(true, decoded.get("isAcknowledged"));
+  }
+
+  @Test
+  public void nestedInStandardValues() throws JSONException {
+    List<Map<String, Object>> records =
+        Arrays.asList(
+            Translator.fromPurchase(new Purchase(PURCHASE_EXAMPLE_JSON, "signature")),
+            Translator.fromPurchaseHistoryRecord(
+                new PurchaseHistoryRecord(PURCHASE_EXAMPLE_JSON, "signature")));
+    HashMap<String, Object> response = new HashMap<>();
+    response.put("responseCode", 0);
+    response.put("purchasesList", records);
+
+    assertEquals(response, roundTrip(response));
+  }
+
+  @Test
+  public void smallerThanStandardEncoding() throws JSONException {
+    Map<String, Object> serialized =
+        Translator.fromSkuDetail(new SkuDetails(SKU_DETAIL_EXAMPLE_JSON));
+
+    ByteBuffer compact = codec.encodeMessage(serialized);
+    ByteBuffer standard = StandardMessageCodec.INSTANCE.encodeMessage(new HashMap<>(serialized));
+
+    assertTrue(compact.limit() < standard.limit() / 2);
+  }
+
+  private Object roundTrip(Object value) {
+    ByteBuffer encoded = codec.encodeMessage(value);
+    encoded.rewind();
+    return codec.decodeMessage(encoded);
+  }
+}
@@ -4,19 +4,40 @@
 
 package io.flutter.plugins.inapppurchase;
 
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASE;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_PURCHASES;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.START_CONNECTION;
+import static java.util.Collections.singletonMap;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.SkuType;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
 import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.PluginRegistry;
+import io.flutter.plugin.common.StandardMethodCodec;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -31,6 +52,7 @@ public class InAppPurchasePluginTest {
   @Mock BinaryMessenger mockMessenger;
   @Mock Application mockApplication;
   @Mock Intent mockIntent;
+  @Mock SharedPreferences mockSharedPreferences;
   @Mock ActivityPluginBinding activityPluginBinding;
   @Mock FlutterPlugin.FlutterPluginBinding flutterPluginBinding;
 
@@ -44,6 +66,7 @@ public class InAppPurchasePluginTest {
     when(activityPluginBinding.getActivity()).thenReturn(activity);
     when(flutterPluginBinding.getBinaryMessenger()).thenReturn(mockMessenger);
     when(flutterPluginBinding.getApplicationContext()).thenReturn(context);
+    when(context.getSharedPreferences(any(), anyInt())).thenReturn(mockSharedPreferences);
   }
 
   @Test
@@ -67,6 +90,20 @@ public class InAppPurchasePluginTest {
     assertEquals("io.flutter.plugins.inapppurchase", BuildConfig.LIBRARY_PACKAGE_NAME);
   }
 
+  @Test
+  public void attachToEngine_handlesCallsOnBackgroundTaskQueue() {
+    final BinaryMessenger.TaskQueue taskQueue = Mockito.mock(BinaryMessenger.TaskQueue.class);
+    when(mockMessenger.makeBackgroundTaskQueue()).thenReturn(taskQueue);
+
+    new InAppPurchasePlugin().onAttachedToEngine(flutterPluginBinding);
+
+    Mockito.verify(mockMessenger)
+        .setMessageHandler(
+            eq("plugins.flutter.io/in_app_purchase"),
+            any(BinaryMessenger.BinaryMessageHandler.class),
+            eq(taskQueue));
+  }
+
   // The PROXY_PACKAGE_KEY value of this test (io.flutter.plugins.inapppurchase) should never be changed.
   // In case there's a strong reason to change it, please inform the current code owner of the plugin.
   @Test
@@ -80,6 +117,52 @@ public class InAppPurchasePluginTest {
     Mockito.verify(mockIntent).putExtra(PROXY_PACKAGE_KEY, "io.flutter.plugins.inapppurchase");
     assertEquals("io.flutter.plugins.inapppurchase", BuildConfig.LIBRARY_PACKAGE_NAME);
   }
+
+  @Test
+  public void unknownPurchaseTokenIsSentToPlay_V2Embedding() {
+    final BillingClient billingClient = Mockito.mock(BillingClient.class);
+    InAppPurchasePlugin plugin = new InAppPurchasePlugin();
+    plugin.setBillingClientFactory((context, listener, enablePendingPurchases) -> billingClient);
+    plugin.onAttachedToEngine(flutterPluginBinding);
+    plugin.onAttachedToActivity(activityPluginBinding);
+    ArgumentCaptor<BinaryMessenger.BinaryMessageHandler> handlerCaptor =
+        ArgumentCaptor.forClass(BinaryMessenger.BinaryMessageHandler.class);
+    Mockito.verify(mockMessenger)
+        .setMessageHandler(eq("plugins.flutter.io/in_app_purchase"), handlerCaptor.capture(), any());
+    BinaryMessenger.BinaryMessageHandler handler = handlerCaptor.getValue();
+
+    HashMap<String, Object> connectArguments = new HashMap<>();
+    connectArguments.put("handle", 1);
+    connectArguments.put("enablePendingPurchases", true);
+    sendMethodCall(handler, START_CONNECTION, connectArguments);
+    sendMethodCall(handler, QUERY_PURCHASES, singletonMap("skuType", SkuType.INAPP));
+    sendMethodCall(handler, QUERY_PURCHASES, singletonMap("skuType", SkuType.SUBS));
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    Mockito.verify(billingClient, times(2)).queryPurchasesAsync(any(), listenerCaptor.capture());
+    BillingResult ok = BillingResult.newBuilder().setResponseCode(0).build();
+    for (PurchasesResponseListener listener : listenerCaptor.getAllValues()) {
+      listener.onQueryPurchasesResponse(ok, Collections.<Purchase>emptyList());
+    }
+
+    // Bought on another device after both snapshots were taken, no activity callback tells the
+    // plugin about it on the v2 embedding.
+    sendMethodCall(handler, ACKNOWLEDGE_PURCHASE, singletonMap("purchaseToken", "elsewhere"));
+
+    ArgumentCaptor<AcknowledgePurchaseParams> paramsCaptor =
+        ArgumentCaptor.forClass(AcknowledgePurchaseParams.class);
+    Mockito.verify(billingClient).acknowledgePurchase(paramsCaptor.capture(), any());
+    assertEquals("elsewhere", paramsCaptor.getValue().getPurchaseToken());
+  }
+
+  private static void sendMethodCall(
+      BinaryMessenger.BinaryMessageHandler handler, String method, Object arguments) {
+    ByteBuffer message =
+        new StandardMethodCodec(InAppPurchaseMessageCodec.INSTANCE)
+            .encodeMethodCall(new MethodCall(method, arguments));
+    message.rewind();
+    handler.onMessage(message, Mockito.mock(BinaryMessenger.BinaryReply.class));
+  }
 }
 // We cannot use `BuildConfig.LIBRARY_PACKAGE_NAME` directly in the plugin code because whether to read BuildConfig.APPLICATION_ID or LIBRARY_PACKAGE_NAME
 // depends on the "APP's" Android Gradle plugin version. Newer versions of AGP use LIBRARY_PACKAGE_NAME, whereas older ones use BuildConfig.APPLICATION_ID.
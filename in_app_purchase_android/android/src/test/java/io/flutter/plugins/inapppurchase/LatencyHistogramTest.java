@@ -0,0 +1,47 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucketIndex() {
+    assertEquals(0, LatencyHistogram.bucketIndex(0));
+    assertEquals(0, LatencyHistogram.bucketIndex(1));
+    assertEquals(1, LatencyHistogram.bucketIndex(2));
+    assertEquals(2, LatencyHistogram.bucketIndex(3));
+    assertEquals(10, LatencyHistogram.bucketIndex(1024));
+    assertEquals(11, LatencyHistogram.bucketIndex(1025));
+    assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+    assertEquals(100, histogram.count());
+    assertEquals(128, histogram.percentileMicros(50));
+    assertEquals(128, histogram.percentileMicros(99));
+    // The top bucket is bounded by the largest sample.
+    assertEquals(50000, histogram.percentileMicros(100));
+
+    Map<String, Object> map = histogram.toMap();
+    assertEquals(100L, map.get("count"));
+    assertEquals(99 * 100L + 50000L, map.get("sumMicros"));
+    assertEquals(50000L, map.get("maxMicros"));
+    assertEquals(99L, ((List<?>) map.get("buckets")).get(7));
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertEquals;
+
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.Test;
+
+public class LatencyMetricsTest {
+  private static final String METHOD = "BillingClient#queryPurchases(String)";
+
+  private final LatencyMetrics metrics = new LatencyMetrics();
+
+  @Test
+  public void snapshotNamesEveryCodeSlot() {
+    metrics.record(METHOD, BillingResponseCode.SERVICE_TIMEOUT, LatencyMetrics.PHASE_IPC, 1000);
+    metrics.record(METHOD, BillingResponseCode.ITEM_NOT_OWNED, LatencyMetrics.PHASE_IPC, 1000);
+    metrics.recordMainThreadDispatch(METHOD, 1000);
+    metrics.record(METHOD, 100, LatencyMetrics.PHASE_IPC, 1000);
+    metrics.record(METHOD, -100, LatencyMetrics.PHASE_IPC, 1000);
+
+    Map<String, Object> byCode = (Map<String, Object>) metrics.snapshot().get(METHOD);
+
+    assertEquals(new HashSet<>(Arrays.asList("-3", "8", "none", "other")), byCode.keySet());
+    Map<String, Object> other = (Map<String, Object>) byCode.get("other");
+    assertEquals(2L, ((Map<String, Object>) other.get("ipc")).get("count"));
+    Map<String, Object> none = (Map<String, Object>) byCode.get("none");
+    assertEquals(1L, ((Map<String, Object>) none.get("mainThread")).get("count"));
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.app.Activity;
+import android.content.Context;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.SkuDetails;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link MethodCallHandlerImpl#onMethodCall} for calls that are answered without waiting
+ * on Play, so that only the dispatch and the serialization of the reply are timed.
+ *
+ * <p>The sku cache holds at most {@link SkuDetailsCache#DEFAULT_MAX_SIZE} entries, so the largest
+ * sizes also measure cache misses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MethodCallDispatchBenchmark {
+  @Param({"10", "100", "1000", "10000"})
+  public int size;
+
+  private MethodCallHandlerImpl handler;
+  private MethodCall queryCachedSkuDetailsCall;
+  private MethodCall getSkuCacheStatsCall;
+  private MethodCall notImplementedCall;
+
+  @Setup
+  public void setUp() throws JSONException {
+    List<SkuDetails> skuDetailsList = new ArrayList<>(size);
+    List<String> skusList = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      skuDetailsList.add(new SkuDetails(TranslatorBenchmark.skuDetailsJson(i)));
+      skusList.add("sku" + i);
+    }
+    SkuDetailsDiskCache diskCache = mock(SkuDetailsDiskCache.class);
+    when(diskCache.load()).thenReturn(skuDetailsList);
+    handler =
+        new MethodCallHandlerImpl(
+            mock(Activity.class),
+            mock(Context.class),
+            mock(MethodChannel.class),
+            (context, channel, enablePendingPurchases) -> mock(BillingClient.class),
+            diskCache);
+    // Load the cache synchronously, the main looper does not run in unit tests.
+    handler.setSerializationExecutor(Runnable::run);
+    handler.setMainThreadDispatcher(Runnable::run);
+    handler.loadCachedSkus();
+
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", BillingClient.SkuType.INAPP);
+    arguments.put("skusList", skusList);
+    queryCachedSkuDetailsCall =
+        new MethodCall(InAppPurchasePlugin.MethodNames.QUERY_CACHED_SKU_DETAILS, arguments);
+    getSkuCacheStatsCall = new MethodCall(InAppPurchasePlugin.MethodNames.GET_SKU_CACHE_STATS, null);
+    notImplementedCall = new MethodCall("BillingClient#notImplemented()", null);
+  }
+
+  @Benchmark
+  public void queryCachedSkuDetails(Blackhole blackhole) {
+    handler.onMethodCall(queryCachedSkuDetailsCall, new BlackholeResult(blackhole));
+  }
+
+  @Benchmark
+  public void getSkuCacheStats(Blackhole blackhole) {
+    handler.onMethodCall(getSkuCacheStatsCall, new BlackholeResult(blackhole));
+  }
+
+  @Benchmark
+  public void notImplemented(Blackhole blackhole) {
+    handler.onMethodCall(notImplementedCall, new BlackholeResult(blackhole));
+  }
+
+  private static final class BlackholeResult implements MethodChannel.Result {
+    private final Blackhole blackhole;
+
+    BlackholeResult(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void success(@Nullable Object result) {
+      blackhole.consume(result);
+    }
+
+    @Override
+    public void error(String errorCode, @Nullable String errorMessage, @Nullable Object details) {
+      blackhole.consume(errorCode);
+    }
+
+    @Override
+    public void notImplemented() {
+      blackhole.consume(this);
+    }
+  }
+}
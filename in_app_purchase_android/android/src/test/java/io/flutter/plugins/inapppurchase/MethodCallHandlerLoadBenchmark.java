@@ -0,0 +1,450 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClient.FeatureType;
+import com.android.billingclient.api.BillingClient.SkuType;
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Load tests {@link MethodCallHandlerImpl#onMethodCall} against a {@link
+ * FakeBillingClientFactory}, with the burst of calls a catalog screen makes: mostly {@code
+ * querySkuDetails}, with {@code isFeatureSupported} and {@code queryPurchases} in between.
+ *
+ * <p>Like the JMH benchmarks it is excluded from the regular unit tests. Run it with:
+ *
+ * <pre>./gradlew testDebugUnitTest -Pbenchmark --tests '*MethodCallHandlerLoadBenchmark'</pre>
+ *
+ * <p>It is configured through system properties:
+ *
+ * <ul>
+ *   <li>{@code inAppPurchase.load.rate}: calls per second, 0 (the default) issues calls as fast as
+ *       replies come back.
+ *   <li>{@code inAppPurchase.load.concurrency}: calls in flight at most, 8 by default.
+ *   <li>{@code inAppPurchase.load.warmupSeconds} and {@code inAppPurchase.load.durationSeconds}: 2
+ *       and 10 by default.
+ *   <li>{@code inAppPurchase.load.playLatencyMillis}: the median latency of the fake, 1 by default.
+ * </ul>
+ *
+ * <p>Latencies are measured from when a call was due rather than from when it was issued, so a
+ * stalled handler shows up in the tail even at a fixed rate. It reports the p50, p99 and p999
+ * latency, the throughput and the bytes allocated per call of each method, both to the test output
+ * and to {@code build/reports/load/results.json} unless the {@code inAppPurchase.loadResults}
+ * system property names another file. The allocation is summed over every thread of the JVM, so it
+ * includes the fake and the harness itself and is only comparable between runs of this harness.
+ * A call counts as an error if it timed out, failed on the channel or replied with a response code
+ * other than {@code OK}.
+ */
+public class MethodCallHandlerLoadBenchmark {
+  private static final long REPLY_TIMEOUT_SECONDS = 10;
+
+  private final double rate =
+      Double.parseDouble(System.getProperty("inAppPurchase.load.rate", "0"));
+  private final int concurrency = Integer.getInteger("inAppPurchase.load.concurrency", 8);
+  private final int warmupSeconds = Integer.getInteger("inAppPurchase.load.warmupSeconds", 2);
+  private final int durationSeconds = Integer.getInteger("inAppPurchase.load.durationSeconds", 10);
+  private final double playLatencyMillis =
+      Double.parseDouble(System.getProperty("inAppPurchase.load.playLatencyMillis", "1"));
+
+  private FakeBillingClientFactory fake;
+  private MainThread mainThread;
+  private MethodCallHandlerImpl handler;
+  private List<MethodCall> calls;
+
+  @Before
+  public void setUp() throws Exception {
+    final int catalogSize = 500;
+    fake =
+        new FakeBillingClientFactory(
+            new FakeBillingClientFactory.Config()
+                .catalogSize(catalogSize)
+                .ownedPurchases(20)
+                .latency(FakeBillingClientFactory.logNormal(playLatencyMillis, 0.5)));
+    handler =
+        new MethodCallHandlerImpl(null, mock(Context.class), mock(MethodChannel.class), fake);
+    // The main looper does not run in unit tests, a dedicated thread stands in for it.
+    mainThread = new MainThread();
+    handler.setMainThreadDispatcher(mainThread);
+
+    final HashMap<String, Object> connectArguments = new HashMap<>();
+    connectArguments.put("handle", 1);
+    connectArguments.put("enablePendingPurchases", true);
+    final Outcome setup = new Outcome();
+    handler.onMethodCall(
+        new MethodCall(InAppPurchasePlugin.MethodNames.START_CONNECTION, connectArguments), setup);
+    setup.await();
+    assertEquals(BillingResponseCode.OK, ((Map<?, ?>) setup.result).get("responseCode"));
+
+    calls = new ArrayList<>();
+    final Random random = new Random(0);
+    for (int i = 0; i < 8; i++) {
+      final List<String> skus = new ArrayList<>();
+      for (int j = 0; j < 20; j++) {
+        skus.add("sku" + random.nextInt(catalogSize));
+      }
+      final HashMap<String, Object> arguments = new HashMap<>();
+      arguments.put("skuType", SkuType.INAPP);
+      arguments.put("skusList", skus);
+      calls.add(new MethodCall(InAppPurchasePlugin.MethodNames.QUERY_SKU_DETAILS, arguments));
+    }
+    final HashMap<String, Object> featureArguments = new HashMap<>();
+    featureArguments.put("feature", FeatureType.SUBSCRIPTIONS);
+    calls.add(
+        new MethodCall(InAppPurchasePlugin.MethodNames.IS_FEATURE_SUPPORTED, featureArguments));
+    final HashMap<String, Object> purchasesArguments = new HashMap<>();
+    purchasesArguments.put("skuType", SkuType.INAPP);
+    calls.add(new MethodCall(InAppPurchasePlugin.MethodNames.QUERY_PURCHASES, purchasesArguments));
+  }
+
+  @After
+  public void tearDown() {
+    fake.shutdown();
+    mainThread.shutdown();
+  }
+
+  @Test
+  public void run() throws Exception {
+    drive(TimeUnit.SECONDS.toNanos(warmupSeconds));
+
+    final com.sun.management.ThreadMXBean threads = allocationCountingThreads();
+    final long allocatedBefore = allocatedBytes(threads);
+    final Worker[] workers = drive(TimeUnit.SECONDS.toNanos(durationSeconds));
+    final long allocatedBytes = threads == null ? -1 : allocatedBytes(threads) - allocatedBefore;
+
+    report(workers, allocatedBytes);
+  }
+
+  /** Issues calls from {@link #concurrency} threads for {@code durationNanos}. */
+  private Worker[] drive(long durationNanos) throws InterruptedException {
+    final long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+    final long start = System.nanoTime();
+    final Worker[] workers = new Worker[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      workers[i] = new Worker(i, start, start + durationNanos, intervalNanos);
+      workers[i].start();
+    }
+    for (Worker worker : workers) {
+      worker.join();
+    }
+    return workers;
+  }
+
+  private void report(Worker[] workers, long allocatedBytes) throws IOException, JSONException {
+    final JSONArray methods = new JSONArray();
+    final StringBuilder table = new StringBuilder();
+    table.append(
+        String.format(
+            "%-40s %10s %10s %10s %10s %8s %12s%n",
+            "method", "calls", "p50 us", "p99 us", "p999 us", "errors", "calls/s"));
+
+    long totalCalls = 0;
+    final Map<String, long[]> latenciesByMethod = new HashMap<>();
+    final Map<String, Long> errorsByMethod = new HashMap<>();
+    for (MethodCall call : calls) {
+      if (latenciesByMethod.containsKey(call.method)) {
+        continue;
+      }
+      long[] latencies = new long[0];
+      long errors = 0;
+      for (Worker worker : workers) {
+        final long[] samples = worker.latencies(call.method);
+        final int offset = latencies.length;
+        latencies = Arrays.copyOf(latencies, offset + samples.length);
+        System.arraycopy(samples, 0, latencies, offset, samples.length);
+        errors += worker.errors(call.method);
+      }
+      Arrays.sort(latencies);
+      latenciesByMethod.put(call.method, latencies);
+      errorsByMethod.put(call.method, errors);
+      totalCalls += latencies.length;
+    }
+
+    for (Map.Entry<String, long[]> entry : latenciesByMethod.entrySet()) {
+      final long[] latencies = entry.getValue();
+      final double throughput = latencies.length / (double) durationSeconds;
+      table.append(
+          String.format(
+              "%-40s %10d %10d %10d %10d %8d %12.1f%n",
+              entry.getKey(),
+              latencies.length,
+              percentileMicros(latencies, 0.5),
+              percentileMicros(latencies, 0.99),
+              percentileMicros(latencies, 0.999),
+              errorsByMethod.get(entry.getKey()),
+              throughput));
+      methods.put(
+          new JSONObject()
+              .put("method", entry.getKey())
+              .put("calls", latencies.length)
+              .put("errors", errorsByMethod.get(entry.getKey()))
+              .put("p50Micros", percentileMicros(latencies, 0.5))
+              .put("p99Micros", percentileMicros(latencies, 0.99))
+              .put("p999Micros", percentileMicros(latencies, 0.999))
+              .put("callsPerSecond", throughput));
+    }
+
+    final double bytesPerCall =
+        allocatedBytes < 0 || totalCalls == 0 ? -1 : allocatedBytes / (double) totalCalls;
+    table.append(
+        String.format(
+            "%d calls, %.1f calls/s, %s bytes allocated per call%n",
+            totalCalls,
+            totalCalls / (double) durationSeconds,
+            bytesPerCall < 0 ? "unknown" : String.format("%.0f", bytesPerCall)));
+    System.out.print(table);
+
+    final JSONObject results =
+        new JSONObject()
+            .put("rate", rate)
+            .put("concurrency", concurrency)
+            .put("durationSeconds", durationSeconds)
+            .put("playLatencyMillis", playLatencyMillis)
+            .put("calls", totalCalls)
+            .put("callsPerSecond", totalCalls / (double) durationSeconds)
+            .put("bytesPerCall", bytesPerCall)
+            .put("methods", methods);
+    final File resultFile =
+        new File(
+            System.getProperty("inAppPurchase.loadResults", "build/reports/load/results.json"));
+    resultFile.getParentFile().mkdirs();
+    try (Writer writer = new FileWriter(resultFile)) {
+      writer.write(results.toString(2));
+    }
+  }
+
+  private static long percentileMicros(long[] sortedNanos, double percentile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    final int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+    return TimeUnit.NANOSECONDS.toMicros(sortedNanos[Math.max(0, index)]);
+  }
+
+  @Nullable
+  private static com.sun.management.ThreadMXBean allocationCountingThreads() {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threads.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+    return threads;
+  }
+
+  private static long allocatedBytes(@Nullable com.sun.management.ThreadMXBean threads) {
+    if (threads == null) {
+      return 0;
+    }
+    long total = 0;
+    for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      // Threads that ended in between report -1.
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+
+  /** Runs the work the handler moves to the main thread on a single thread of its own. */
+  private static final class MainThread implements MainThreadDispatcher {
+    private final ExecutorService executor =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "main");
+              thread.setDaemon(true);
+              return thread;
+            });
+    private volatile Thread thread;
+
+    MainThread() {
+      executor.execute(() -> thread = Thread.currentThread());
+    }
+
+    @Override
+    public void dispatch(@NonNull Runnable runnable) {
+      executor.execute(runnable);
+    }
+
+    @Override
+    public boolean isMainThread() {
+      return Thread.currentThread() == thread;
+    }
+
+    void shutdown() {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Issues one call at a time, each when it is due. With a rate the workers take turns, so that
+   * together they issue one call every {@code intervalNanos}.
+   */
+  private final class Worker extends Thread {
+    private final int index;
+    private final long start;
+    private final long end;
+    private final long intervalNanos;
+    private final Map<String, Samples> samplesByMethod = new HashMap<>();
+    private final Map<String, AtomicLong> errorsByMethod = new HashMap<>();
+
+    Worker(int index, long start, long end, long intervalNanos) {
+      super("LoadWorker" + index);
+      this.index = index;
+      this.start = start;
+      this.end = end;
+      this.intervalNanos = intervalNanos;
+    }
+
+    @Override
+    public void run() {
+      final Random random = new Random(index);
+      long due = start + index * intervalNanos;
+      while (due < end) {
+        final long wait = due - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        final MethodCall call = calls.get(random.nextInt(calls.size()));
+        final long issued = intervalNanos > 0 ? due : System.nanoTime();
+        final Outcome outcome = new Outcome();
+        handler.onMethodCall(call, outcome);
+        final boolean replied;
+        try {
+          replied = outcome.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        final long latency = System.nanoTime() - issued;
+
+        samples(call.method).add(latency);
+        if (!replied || outcome.failed || !outcome.isOk()) {
+          errors(call.method).incrementAndGet();
+        }
+        due = intervalNanos > 0 ? due + concurrency * intervalNanos : System.nanoTime();
+      }
+    }
+
+    long[] latencies(String method) {
+      final Samples samples = samplesByMethod.get(method);
+      return samples == null ? new long[0] : Arrays.copyOf(samples.values, samples.size);
+    }
+
+    long errors(String method) {
+      final AtomicLong errors = errorsByMethod.get(method);
+      return errors == null ? 0 : errors.get();
+    }
+
+    private Samples samples(String method) {
+      Samples samples = samplesByMethod.get(method);
+      if (samples == null) {
+        samples = new Samples();
+        samplesByMethod.put(method, samples);
+      }
+      return samples;
+    }
+
+    private AtomicLong errors(String method) {
+      AtomicLong errors = errorsByMethod.get(method);
+      if (errors == null) {
+        errors = new AtomicLong();
+        errorsByMethod.put(method, errors);
+      }
+      return errors;
+    }
+  }
+
+  private static final class Samples {
+    long[] values = new long[1024];
+    int size;
+
+    void add(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+
+  /** Waits for the reply to one call. */
+  private static final class Outcome implements MethodChannel.Result {
+    private final CountDownLatch replied = new CountDownLatch(1);
+    @Nullable volatile Object result;
+    volatile boolean failed;
+
+    @Override
+    public void success(@Nullable Object result) {
+      this.result = result;
+      replied.countDown();
+    }
+
+    @Override
+    public void error(String errorCode, @Nullable String errorMessage, @Nullable Object details) {
+      failed = true;
+      replied.countDown();
+    }
+
+    @Override
+    public void notImplemented() {
+      failed = true;
+      replied.countDown();
+    }
+
+    boolean await() throws InterruptedException {
+      return replied.await(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /** Whether the reply reports {@code OK}, at the top level or in its {@code billingResult}. */
+    boolean isOk() {
+      final Object reply = result;
+      if (reply instanceof Boolean) {
+        // isFeatureSupported, the fake supports every feature unless it injects an error.
+        return (Boolean) reply;
+      }
+      if (!(reply instanceof Map)) {
+        return true;
+      }
+      Object responseCode = ((Map<?, ?>) reply).get("responseCode");
+      final Object billingResult = ((Map<?, ?>) reply).get("billingResult");
+      if (responseCode == null && billingResult instanceof Map) {
+        responseCode = ((Map<?, ?>) billingResult).get("responseCode");
+      }
+      return responseCode == null || responseCode.equals(BillingResponseCode.OK);
+    }
+  }
+}
@@ -5,14 +5,19 @@
 package io.flutter.plugins.inapppurchase;
 
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASE;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.ACKNOWLEDGE_PURCHASES;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.CONSUME_PURCHASES;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.CONSUME_PURCHASE_ASYNC;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.END_CONNECTION;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.GET_METRICS;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.IS_FEATURE_SUPPORTED;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.IS_READY;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.LAUNCH_BILLING_FLOW;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.LAUNCH_PRICE_CHANGE_CONFIRMATION_FLOW;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.ON_DISCONNECT;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.ON_PURCHASES_UPDATED;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_ALL_PURCHASES;
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_CACHED_SKU_DETAILS;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_PURCHASES;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_PURCHASE_HISTORY_ASYNC;
 import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.QUERY_SKU_DETAILS;
@@ -24,15 +29,20 @@ import static io.flutter.plugins.inapppurchase.Translator.fromPurchasesResult;
 import static io.flutter.plugins.inapppurchase.Translator.fromSkuDetailsList;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.Collections.unmodifiableList;
 import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.refEq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -41,7 +51,9 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.os.Handler;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.android.billingclient.api.AcknowledgePurchaseParams;
@@ -59,17 +71,24 @@ import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.Purchase.PurchasesResult;
 import com.android.billingclient.api.PurchaseHistoryRecord;
 import com.android.billingclient.api.PurchaseHistoryResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
 import com.android.billingclient.api.SkuDetails;
 import com.android.billingclient.api.SkuDetailsParams;
 import com.android.billingclient.api.SkuDetailsResponseListener;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.json.JSONException;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -92,12 +111,19 @@ public class MethodCallHandlerTest {
     MockitoAnnotations.openMocks(this);
     factory =
         (@NonNull Context context,
-            @NonNull MethodChannel channel,
+            @NonNull PurchasesUpdatedListener listener,
             boolean enablePendingPurchases) -> mockBillingClient;
     methodChannelHandler = new MethodCallHandlerImpl(activity, context, mockMethodChannel, factory);
+    methodChannelHandler.setSerializationExecutor(Runnable::run);
+    methodChannelHandler.setMainThreadDispatcher(Runnable::run);
     when(mockActivityPluginBinding.getActivity()).thenReturn(activity);
   }
 
+  @After
+  public void tearDown() {
+    InAppPurchasePlugin.setTraceSink(null, InAppPurchaseTraceSink.LEVEL_VERBOSE);
+  }
+
   @Test
   public void invalidMethod() {
     MethodCall call = new MethodCall("invalid", null);
@@ -185,6 +211,41 @@ public class MethodCallHandlerTest {
     verify(result, times(1)).success(any());
   }
 
+  @Test
+  public void onMethodCall_movesConnectionCallsToTheMainThread() {
+    BackgroundThreadDispatcher dispatcher = new BackgroundThreadDispatcher();
+    methodChannelHandler.setMainThreadDispatcher(dispatcher);
+
+    establishConnectedBillingClient(null, null);
+
+    verify(mockBillingClient, never()).startConnection(any());
+    dispatcher.runPosted();
+    verify(mockBillingClient).startConnection(any());
+  }
+
+  @Test
+  public void onMethodCall_keepsTheOrderAcrossThreads() {
+    BackgroundThreadDispatcher dispatcher = new BackgroundThreadDispatcher();
+    methodChannelHandler.setMainThreadDispatcher(dispatcher);
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+
+    // Sent right after startConnection, it must not find the client unset.
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_PURCHASES, arguments), result);
+    verify(result, never()).error(any(), any(), any());
+    verify(mockBillingClient, never()).queryPurchasesAsync(any(), any());
+    dispatcher.runPosted();
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), any());
+    verify(result, never()).error(any(), any(), any());
+
+    // Once the main thread caught up, calls stay on the background thread again.
+    Result isReadyResult = mock(Result.class);
+    methodChannelHandler.onMethodCall(new MethodCall(IS_READY, null), isReadyResult);
+    verify(isReadyResult).success(false);
+    assertTrue(dispatcher.posted.isEmpty());
+  }
+
   @Test
   public void endConnection() {
     // Set up a connected BillingClient instance
@@ -213,6 +274,106 @@ public class MethodCallHandlerTest {
     verify(mockMethodChannel, times(1)).invokeMethod(ON_DISCONNECT, expectedInvocation);
   }
 
+  @Test
+  public void warmUpConnection_reusedByStartConnection() {
+    ArgumentCaptor<BillingClientStateListener> captor =
+        ArgumentCaptor.forClass(BillingClientStateListener.class);
+    doNothing().when(mockBillingClient).startConnection(captor.capture());
+    methodChannelHandler.warmUpConnection();
+    verify(mockBillingClient, times(1)).startConnection(any());
+
+    // Dart connects while the warm-up is still in progress
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("handle", 1);
+    arguments.put("enablePendingPurchases", true);
+    methodChannelHandler.onMethodCall(new MethodCall(START_CONNECTION, arguments), result);
+    verify(mockBillingClient, times(1)).startConnection(any());
+    verify(result, never()).success(any());
+
+    BillingResult billingResult =
+        BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build();
+    captor.getValue().onBillingSetupFinished(billingResult);
+    verify(result, times(1)).success(fromBillingResult(billingResult));
+
+    // Once connected, later calls are answered right away
+    when(mockBillingClient.isReady()).thenReturn(true);
+    Result secondResult = mock(Result.class);
+    methodChannelHandler.onMethodCall(new MethodCall(START_CONNECTION, arguments), secondResult);
+    verify(secondResult, times(1)).success(fromBillingResult(billingResult));
+    verify(mockBillingClient, times(1)).startConnection(any());
+  }
+
+  @Test
+  public void startConnection_autoReconnect() {
+    BillingConnectionManager connectionManager = mock(BillingConnectionManager.class);
+    methodChannelHandler.setConnectionManager(connectionManager);
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("handle", 1);
+    arguments.put("enablePendingPurchases", true);
+    arguments.put("autoReconnect", true);
+    ArgumentCaptor<BillingClientStateListener> captor =
+        ArgumentCaptor.forClass(BillingClientStateListener.class);
+    doNothing().when(mockBillingClient).startConnection(captor.capture());
+    methodChannelHandler.onMethodCall(new MethodCall(START_CONNECTION, arguments), result);
+    captor
+        .getValue()
+        .onBillingSetupFinished(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build());
+    verify(connectionManager).onConnected();
+
+    // The disconnect is handled natively instead of being sent to Dart
+    captor.getValue().onBillingServiceDisconnected();
+    ArgumentCaptor<Runnable> reconnectCaptor = ArgumentCaptor.forClass(Runnable.class);
+    verify(connectionManager).onConnectionLost(reconnectCaptor.capture());
+    verify(mockMethodChannel, never()).invokeMethod(eq(ON_DISCONNECT), any());
+
+    // Reconnecting does not reply to the original call again
+    reconnectCaptor.getValue().run();
+    verify(mockBillingClient, times(2)).startConnection(any());
+    captor
+        .getValue()
+        .onBillingSetupFinished(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build());
+    verify(connectionManager, times(2)).onConnected();
+    verify(result, times(1)).success(any());
+  }
+
+  @Test
+  public void onBillingServiceDisconnected_changesTheConnectionStateOnTheMainThread() {
+    BackgroundThreadDispatcher dispatcher = new BackgroundThreadDispatcher();
+    methodChannelHandler.setMainThreadDispatcher(dispatcher);
+    BillingConnectionManager connectionManager = mock(BillingConnectionManager.class);
+    doAnswer(
+            invocation -> {
+              assertTrue(dispatcher.isMainThread());
+              return null;
+            })
+        .when(connectionManager)
+        .onConnectionLost(any());
+    methodChannelHandler.setConnectionManager(connectionManager);
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("handle", 1);
+    arguments.put("enablePendingPurchases", true);
+    arguments.put("autoReconnect", true);
+    ArgumentCaptor<BillingClientStateListener> captor =
+        ArgumentCaptor.forClass(BillingClientStateListener.class);
+    doNothing().when(mockBillingClient).startConnection(captor.capture());
+    methodChannelHandler.onMethodCall(new MethodCall(START_CONNECTION, arguments), result);
+    dispatcher.runPosted();
+    captor
+        .getValue()
+        .onBillingSetupFinished(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build());
+    dispatcher.runPosted();
+
+    // Play may report the disconnect on any thread.
+    captor.getValue().onBillingServiceDisconnected();
+    verify(connectionManager, never()).onConnectionLost(any());
+
+    dispatcher.runPosted();
+    verify(connectionManager).onConnectionLost(any());
+  }
+
   @Test
   public void querySkuDetailsAsync() {
     // Connect a billing client and set up the SKU query listeners
@@ -237,7 +398,7 @@ public class MethodCallHandlerTest {
 
     // Assert that we handed result BillingClient's response
     int responseCode = 200;
-    List<SkuDetails> skuDetailsResponse = asList(buildSkuDetails("foo"));
+    List<SkuDetails> skuDetailsResponse = asList(buildSkuDetails("id1"));
     BillingResult billingResult =
         BillingResult.newBuilder()
             .setResponseCode(100)
@@ -271,6 +432,199 @@ public class MethodCallHandlerTest {
     verify(result, never()).success(any());
   }
 
+  @Test
+  public void loadCachedSkus_launchBillingFlowWithoutQuery() {
+    // Restore a sku from disk instead of querying Play for it
+    String skuId = "foo";
+    SkuDetailsDiskCache diskCache = mock(SkuDetailsDiskCache.class);
+    when(diskCache.load()).thenReturn(singletonList(buildSkuDetails(skuId)));
+    methodChannelHandler =
+        new MethodCallHandlerImpl(activity, context, mockMethodChannel, factory, diskCache);
+    methodChannelHandler.setSerializationExecutor(Runnable::run);
+    methodChannelHandler.setMainThreadDispatcher(Runnable::run);
+    methodChannelHandler.loadCachedSkus();
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("sku", skuId);
+    MethodCall launchCall = new MethodCall(LAUNCH_BILLING_FLOW, arguments);
+
+    // Launch the billing flow
+    BillingResult billingResult =
+        BillingResult.newBuilder()
+            .setResponseCode(100)
+            .setDebugMessage("dummy debug message")
+            .build();
+    when(mockBillingClient.launchBillingFlow(any(), any())).thenReturn(billingResult);
+    methodChannelHandler.onMethodCall(launchCall, result);
+
+    // Verify the restored details were used
+    ArgumentCaptor<BillingFlowParams> billingFlowParamsCaptor =
+        ArgumentCaptor.forClass(BillingFlowParams.class);
+    verify(mockBillingClient).launchBillingFlow(any(), billingFlowParamsCaptor.capture());
+    assertEquals(skuId, billingFlowParamsCaptor.getValue().getSku());
+    verify(mockBillingClient, never()).querySkuDetailsAsync(any(), any());
+    verify(result, times(1)).success(fromBillingResult(billingResult));
+  }
+
+  @Test
+  public void launchBillingFlow_restoresSkusTrimmedFromMemory() {
+    String skuId = "foo";
+    SkuDetailsDiskCache diskCache = mock(SkuDetailsDiskCache.class);
+    when(diskCache.get(skuId)).thenReturn(buildSkuDetails(skuId));
+    methodChannelHandler =
+        new MethodCallHandlerImpl(activity, context, mockMethodChannel, factory, diskCache);
+    methodChannelHandler.setSerializationExecutor(Runnable::run);
+    methodChannelHandler.setMainThreadDispatcher(Runnable::run);
+    queryForSkus(singletonList(skuId));
+    methodChannelHandler.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    BillingResult billingResult =
+        BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build();
+    when(mockBillingClient.launchBillingFlow(any(), any())).thenReturn(billingResult);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("sku", skuId);
+
+    List<Runnable> serializationTasks = new ArrayList<>();
+    methodChannelHandler.setSerializationExecutor(serializationTasks::add);
+
+    methodChannelHandler.onMethodCall(new MethodCall(LAUNCH_BILLING_FLOW, arguments), result);
+
+    // The disk cache is only read on the serialization executor, then the flow is launched.
+    verify(diskCache, never()).get(any());
+    verify(mockBillingClient, never()).launchBillingFlow(any(), any());
+    serializationTasks.remove(0).run();
+    verify(diskCache).get(skuId);
+    ArgumentCaptor<BillingFlowParams> billingFlowParamsCaptor =
+        ArgumentCaptor.forClass(BillingFlowParams.class);
+    verify(mockBillingClient).launchBillingFlow(any(), billingFlowParamsCaptor.capture());
+    assertEquals(skuId, billingFlowParamsCaptor.getValue().getSku());
+    verify(result).success(fromBillingResult(billingResult));
+  }
+
+  @Test
+  public void loadCachedSkus_refreshedOnceConnected() {
+    SkuDetailsDiskCache diskCache = mock(SkuDetailsDiskCache.class);
+    when(diskCache.load()).thenReturn(asList(buildSkuDetails("foo"), buildSkuDetails("bar")));
+    methodChannelHandler =
+        new MethodCallHandlerImpl(activity, context, mockMethodChannel, factory, diskCache);
+    methodChannelHandler.setSerializationExecutor(Runnable::run);
+    methodChannelHandler.setMainThreadDispatcher(Runnable::run);
+    methodChannelHandler.loadCachedSkus();
+
+    ArgumentCaptor<BillingClientStateListener> connectionCaptor = mockStartConnection();
+    verify(mockBillingClient, never()).querySkuDetailsAsync(any(), any());
+    connectionCaptor
+        .getValue()
+        .onBillingSetupFinished(
+            BillingResult.newBuilder()
+                .setResponseCode(BillingClient.BillingResponseCode.OK)
+                .build());
+
+    // Verify the restored skus are re-fetched and the fresh copies persisted
+    ArgumentCaptor<SkuDetailsParams> paramCaptor = ArgumentCaptor.forClass(SkuDetailsParams.class);
+    ArgumentCaptor<SkuDetailsResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(SkuDetailsResponseListener.class);
+    verify(mockBillingClient).querySkuDetailsAsync(paramCaptor.capture(), listenerCaptor.capture());
+    assertEquals(SkuType.INAPP, paramCaptor.getValue().getSkuType());
+    assertEquals(asList("foo", "bar"), paramCaptor.getValue().getSkusList());
+    List<SkuDetails> refreshed = singletonList(buildSkuDetails("foo"));
+    listenerCaptor
+        .getValue()
+        .onSkuDetailsResponse(
+            BillingResult.newBuilder()
+                .setResponseCode(BillingClient.BillingResponseCode.OK)
+                .build(),
+            refreshed);
+    verify(diskCache).save(refreshed);
+  }
+
+  @Test
+  public void loadCachedSkus_readsTheDiskOffTheCallingThread() {
+    SkuDetailsDiskCache diskCache = mock(SkuDetailsDiskCache.class);
+    when(diskCache.load()).thenReturn(singletonList(buildSkuDetails("foo")));
+    methodChannelHandler =
+        new MethodCallHandlerImpl(activity, context, mockMethodChannel, factory, diskCache);
+    List<Runnable> serializationTasks = new ArrayList<>();
+    methodChannelHandler.setSerializationExecutor(serializationTasks::add);
+    methodChannelHandler.setMainThreadDispatcher(Runnable::run);
+
+    methodChannelHandler.loadCachedSkus();
+    verify(diskCache, never()).load();
+
+    // Connect before the load completes, the restored skus are refreshed once it does
+    mockStartConnection()
+        .getValue()
+        .onBillingSetupFinished(
+            BillingResult.newBuilder()
+                .setResponseCode(BillingClient.BillingResponseCode.OK)
+                .build());
+    verify(mockBillingClient, never()).querySkuDetailsAsync(any(), any());
+    serializationTasks.remove(0).run();
+    ArgumentCaptor<SkuDetailsParams> paramCaptor = ArgumentCaptor.forClass(SkuDetailsParams.class);
+    verify(mockBillingClient).querySkuDetailsAsync(paramCaptor.capture(), any());
+    assertEquals(singletonList("foo"), paramCaptor.getValue().getSkusList());
+  }
+
+  @Test
+  public void queryCachedSkuDetails() {
+    String skuId = "foo";
+    queryForSkus(singletonList(skuId));
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    arguments.put("skusList", asList(skuId, "missing"));
+
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_CACHED_SKU_DETAILS, arguments), result);
+
+    ArgumentCaptor<HashMap<String, Object>> resultCaptor = ArgumentCaptor.forClass(HashMap.class);
+    verify(result).success(resultCaptor.capture());
+    assertEquals(
+        fromSkuDetailsList(singletonList(buildSkuDetails(skuId))),
+        resultCaptor.getValue().get("skuDetailsList"));
+  }
+
+  @Test
+  public void queryCachedSkuDetails_withoutSkusList() {
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_CACHED_SKU_DETAILS, arguments), result);
+
+    verify(result).error(eq("INVALID_ARGUMENT"), any(), any());
+    verify(result, never()).success(any());
+  }
+
+  @Test
+  public void querySkuDetails_savesToDiskOnTheSerializationExecutor() {
+    SkuDetailsDiskCache diskCache = mock(SkuDetailsDiskCache.class);
+    methodChannelHandler =
+        new MethodCallHandlerImpl(activity, context, mockMethodChannel, factory, diskCache);
+    List<Runnable> serializationTasks = new ArrayList<>();
+    methodChannelHandler.setSerializationExecutor(serializationTasks::add);
+    methodChannelHandler.setMainThreadDispatcher(Runnable::run);
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    arguments.put("skusList", singletonList("foo"));
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_SKU_DETAILS, arguments), result);
+    ArgumentCaptor<SkuDetailsResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(SkuDetailsResponseListener.class);
+    verify(mockBillingClient).querySkuDetailsAsync(any(), listenerCaptor.capture());
+    List<SkuDetails> skuDetailsList = singletonList(buildSkuDetails("foo"));
+
+    listenerCaptor
+        .getValue()
+        .onSkuDetailsResponse(
+            BillingResult.newBuilder()
+                .setResponseCode(BillingClient.BillingResponseCode.OK)
+                .build(),
+            skuDetailsList);
+    // The response is serialized on the executor, which queues the save behind it.
+    serializationTasks.remove(0).run();
+    verify(diskCache, never()).save(any());
+    serializationTasks.remove(0).run();
+
+    verify(diskCache).save(skuDetailsList);
+  }
+
   // Test launchBillingFlow not crash if `accountId` is `null`
   // Ideally, we should check if the `accountId` is null in the parameter; however,
   // since PBL 3.0, the `accountId` variable is not public.
@@ -561,26 +915,181 @@ public class MethodCallHandlerTest {
   @Test
   public void queryPurchases() {
     establishConnectedBillingClient(null, null);
-    PurchasesResult purchasesResult = mock(PurchasesResult.class);
-    Purchase purchase = buildPurchase("foo");
-    when(purchasesResult.getPurchasesList()).thenReturn(asList(purchase));
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_PURCHASES, arguments), result);
+
+    // Answer with a non OK response
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), listenerCaptor.capture());
     BillingResult billingResult =
         BillingResult.newBuilder()
             .setResponseCode(100)
             .setDebugMessage("dummy debug message")
             .build();
-    when(purchasesResult.getBillingResult()).thenReturn(billingResult);
-    when(mockBillingClient.queryPurchases(SkuType.INAPP)).thenReturn(purchasesResult);
+    List<Purchase> purchasesList = asList(buildPurchase("foo"));
+    listenerCaptor.getValue().onQueryPurchasesResponse(billingResult, purchasesList);
+
+    // Verify we still pass the response to result
+    ArgumentCaptor<HashMap<String, Object>> resultCaptor = ArgumentCaptor.forClass(HashMap.class);
+    verify(result, never()).error(any(), any(), any());
+    verify(result, times(1)).success(resultCaptor.capture());
+    assertEquals(
+        fromPurchasesResult(new PurchasesResult(billingResult, purchasesList)),
+        resultCaptor.getValue());
+  }
 
+  @Test
+  public void queryPurchases_deltaAlwaysSendsThePurchaseToken() {
+    establishConnectedBillingClient(null, null);
     HashMap<String, Object> arguments = new HashMap<>();
     arguments.put("skuType", SkuType.INAPP);
+    arguments.put("fields", singletonList("purchaseState"));
+    arguments.put("delta", true);
     methodChannelHandler.onMethodCall(new MethodCall(QUERY_PURCHASES, arguments), result);
-
-    // Verify we pass the response to result
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+    listenerCaptor
+        .getValue()
+        .onQueryPurchasesResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            asList(buildPurchaseWithToken("foo", "token")));
+
+    // Dart merges the delta by token, a mask without it would collapse the purchases.
     ArgumentCaptor<HashMap<String, Object>> resultCaptor = ArgumentCaptor.forClass(HashMap.class);
-    verify(result, never()).error(any(), any(), any());
-    verify(result, times(1)).success(resultCaptor.capture());
-    assertEquals(fromPurchasesResult(purchasesResult), resultCaptor.getValue());
+    verify(result).success(resultCaptor.capture());
+    List<Map<String, Object>> purchasesList =
+        (List<Map<String, Object>>) resultCaptor.getValue().get("purchasesList");
+    assertEquals("token", purchasesList.get(0).get("purchaseToken"));
+    assertTrue(purchasesList.get(0).containsKey("purchaseState"));
+  }
+
+  @Test
+  public void queryPurchases_traced() {
+    InAppPurchaseTraceSink sink = mock(InAppPurchaseTraceSink.class);
+    InAppPurchasePlugin.setTraceSink(sink, InAppPurchaseTraceSink.LEVEL_DEBUG);
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_PURCHASES, arguments), result);
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+    listenerCaptor
+        .getValue()
+        .onQueryPurchasesResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            asList(buildPurchase("foo"), buildPurchase("bar")));
+
+    // Only the completion is traced, the dispatch is below the sink's level
+    verify(sink)
+        .onTraceEvent(
+            eq(InAppPurchaseTraceSink.LEVEL_DEBUG),
+            eq(QUERY_PURCHASES),
+            eq(2),
+            anyLong(),
+            eq(BillingClient.BillingResponseCode.OK));
+    verify(sink, never())
+        .onTraceEvent(
+            eq(InAppPurchaseTraceSink.LEVEL_VERBOSE), any(), anyInt(), anyLong(), anyInt());
+  }
+
+  @Test
+  public void getMetrics() {
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_PURCHASES, arguments), result);
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+    listenerCaptor
+        .getValue()
+        .onQueryPurchasesResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            asList(buildPurchase("foo")));
+
+    Result metricsResult = mock(Result.class);
+    methodChannelHandler.onMethodCall(new MethodCall(GET_METRICS, null), metricsResult);
+
+    // Every phase of the request is recorded under its response code
+    ArgumentCaptor<Map<String, Object>> metricsCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(metricsResult).success(metricsCaptor.capture());
+    Map<String, Object> byCode =
+        (Map<String, Object>) metricsCaptor.getValue().get(QUERY_PURCHASES);
+    Map<String, Object> byPhase =
+        (Map<String, Object>) byCode.get(String.valueOf(BillingClient.BillingResponseCode.OK));
+    for (String phase : asList("queue", "ipc", "serialization", "mainThread")) {
+      assertEquals(1L, ((Map<String, Object>) byPhase.get(phase)).get("count"));
+    }
+  }
+
+  @Test
+  public void queryPurchases_serializedOffTheMainThread() {
+    establishConnectedBillingClient(null, null);
+    List<Runnable> serializationTasks = new ArrayList<>();
+    methodChannelHandler.setSerializationExecutor(serializationTasks::add);
+    List<Runnable> mainThreadTasks = new ArrayList<>();
+    methodChannelHandler.setMainThreadDispatcher(mainThreadTasks::add);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_PURCHASES, arguments), result);
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+    listenerCaptor
+        .getValue()
+        .onQueryPurchasesResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            asList(buildPurchase("foo")));
+
+    // Nothing is posted to the main thread until the response is serialized
+    assertTrue(mainThreadTasks.isEmpty());
+    assertEquals(1, serializationTasks.size());
+    serializationTasks.get(0).run();
+    assertEquals(1, mainThreadTasks.size());
+    mainThreadTasks.get(0).run();
+    verify(result).success(any());
+
+    // The main thread time spent on the call and on its reply is recorded
+    MethodChannel.Result metricsResult = mock(MethodChannel.Result.class);
+    methodChannelHandler.onMethodCall(new MethodCall(GET_METRICS, null), metricsResult);
+    ArgumentCaptor<Map<String, Object>> metricsCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(metricsResult).success(metricsCaptor.capture());
+    Map<String, Object> byCode =
+        (Map<String, Object>) metricsCaptor.getValue().get(QUERY_PURCHASES);
+    for (String code : asList("none", String.valueOf(BillingClient.BillingResponseCode.OK))) {
+      Map<String, Object> byPhase = (Map<String, Object>) byCode.get(code);
+      assertEquals(1L, ((Map<String, Object>) byPhase.get("mainThread")).get("count"));
+    }
+  }
+
+  @Test
+  public void queryPurchases_withoutActivity() {
+    methodChannelHandler = new MethodCallHandlerImpl(null, context, mockMethodChannel, factory);
+    methodChannelHandler.setSerializationExecutor(Runnable::run);
+    List<Runnable> mainThreadTasks = new ArrayList<>();
+    methodChannelHandler.setMainThreadDispatcher(mainThreadTasks::add);
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", SkuType.INAPP);
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_PURCHASES, arguments), result);
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+
+    listenerCaptor
+        .getValue()
+        .onQueryPurchasesResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            asList(buildPurchase("foo")));
+    for (Runnable task : mainThreadTasks) {
+      task.run();
+    }
+
+    verify(result).success(any());
   }
 
   @Test
@@ -597,6 +1106,50 @@ public class MethodCallHandlerTest {
     verify(result, never()).success(any());
   }
 
+  @Test
+  public void queryAllPurchases() {
+    establishConnectedBillingClient(null, null);
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_ALL_PURCHASES, null), result);
+
+    // Both sku types are queried before either answers
+    ArgumentCaptor<PurchasesResponseListener> inAppCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    ArgumentCaptor<PurchasesResponseListener> subsCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.INAPP), inAppCaptor.capture());
+    verify(mockBillingClient).queryPurchasesAsync(eq(SkuType.SUBS), subsCaptor.capture());
+
+    BillingResult billingResult =
+        BillingResult.newBuilder()
+            .setResponseCode(BillingClient.BillingResponseCode.OK)
+            .setDebugMessage("dummy debug message")
+            .build();
+    Purchase inApp = buildPurchaseWithToken("foo", "token1");
+    Purchase subscription = buildPurchaseWithToken("bar", "token2");
+    Purchase duplicate = buildPurchaseWithToken("bar", "token2");
+    subsCaptor.getValue().onQueryPurchasesResponse(billingResult, asList(subscription, duplicate));
+    verify(result, never()).success(any());
+    inAppCaptor.getValue().onQueryPurchasesResponse(billingResult, singletonList(inApp));
+
+    // Verify the purchases are merged into a single response
+    ArgumentCaptor<HashMap<String, Object>> resultCaptor = ArgumentCaptor.forClass(HashMap.class);
+    verify(result, times(1)).success(resultCaptor.capture());
+    assertEquals(fromBillingResult(billingResult), resultCaptor.getValue().get("billingResult"));
+    assertEquals(
+        fromPurchasesList(asList(inApp, subscription)),
+        resultCaptor.getValue().get("purchasesList"));
+  }
+
+  @Test
+  public void queryAllPurchases_clientDisconnected() {
+    methodChannelHandler.onMethodCall(new MethodCall(END_CONNECTION, null), mock(Result.class));
+
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_ALL_PURCHASES, null), result);
+
+    verify(result).error(contains("UNAVAILABLE"), contains("BillingClient"), any());
+    verify(result, never()).success(any());
+  }
+
   @Test
   public void queryPurchaseHistoryAsync() {
     // Set up an established billing client and all our mocked responses
@@ -627,6 +1180,130 @@ public class MethodCallHandlerTest {
         fromPurchaseHistoryRecordList(purchasesList), resultData.get("purchaseHistoryRecordList"));
   }
 
+  @Test
+  public void streamPurchaseHistory_sendsChunks() {
+    establishConnectedBillingClient(null, null);
+    EventChannel.EventSink events = mock(EventChannel.EventSink.class);
+    methodChannelHandler.streamPurchaseHistory(
+        SkuType.INAPP, 2, /*fields=*/ null, events, new AtomicBoolean());
+
+    ArgumentCaptor<PurchaseHistoryResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchaseHistoryResponseListener.class);
+    verify(mockBillingClient)
+        .queryPurchaseHistoryAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+    List<PurchaseHistoryRecord> purchasesList =
+        asList(
+            buildPurchaseHistoryRecord("a"),
+            buildPurchaseHistoryRecord("b"),
+            buildPurchaseHistoryRecord("c"));
+    BillingResult billingResult =
+        BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build();
+    listenerCaptor.getValue().onPurchaseHistoryResponse(billingResult, purchasesList);
+
+    // Three records in chunks of two, then the end of the stream
+    ArgumentCaptor<Map<String, Object>> chunkCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(events, times(2)).success(chunkCaptor.capture());
+    Map<String, Object> first = chunkCaptor.getAllValues().get(0);
+    Map<String, Object> second = chunkCaptor.getAllValues().get(1);
+    assertEquals(fromBillingResult(billingResult), first.get("billingResult"));
+    assertEquals(
+        fromPurchaseHistoryRecordList(purchasesList.subList(0, 2)),
+        first.get("purchaseHistoryRecordList"));
+    assertEquals(0, first.get("offset"));
+    assertEquals(
+        fromPurchaseHistoryRecordList(purchasesList.subList(2, 3)),
+        second.get("purchaseHistoryRecordList"));
+    assertEquals(2, second.get("offset"));
+    assertEquals(3, second.get("total"));
+    verify(events).endOfStream();
+  }
+
+  @Test
+  public void streamPurchaseHistory_sendsOnlyTheRequestedFields() {
+    establishConnectedBillingClient(null, null);
+    EventChannel.EventSink events = mock(EventChannel.EventSink.class);
+    Set<String> fields = Translator.fieldMask(singletonList("purchaseToken"));
+    methodChannelHandler.streamPurchaseHistory(
+        SkuType.INAPP, 2, fields, events, new AtomicBoolean());
+    ArgumentCaptor<PurchaseHistoryResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchaseHistoryResponseListener.class);
+    verify(mockBillingClient)
+        .queryPurchaseHistoryAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+    List<PurchaseHistoryRecord> purchasesList = asList(buildPurchaseHistoryRecord("a"));
+    listenerCaptor
+        .getValue()
+        .onPurchaseHistoryResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            purchasesList);
+
+    ArgumentCaptor<Map<String, Object>> chunkCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(events).success(chunkCaptor.capture());
+    List<Map<String, Object>> records =
+        (List<Map<String, Object>>) chunkCaptor.getValue().get("purchaseHistoryRecordList");
+    assertEquals(fromPurchaseHistoryRecordList(purchasesList, fields), records);
+    assertEquals(1, records.get(0).size());
+    assertTrue(records.get(0).containsKey("purchaseToken"));
+  }
+
+  @Test
+  public void streamPurchaseHistory_translatesOneChunkAtATime() {
+    establishConnectedBillingClient(null, null);
+    List<Runnable> serializationTasks = new ArrayList<>();
+    methodChannelHandler.setSerializationExecutor(serializationTasks::add);
+    List<Runnable> mainThreadTasks = new ArrayList<>();
+    methodChannelHandler.setMainThreadDispatcher(mainThreadTasks::add);
+    EventChannel.EventSink events = mock(EventChannel.EventSink.class);
+    methodChannelHandler.streamPurchaseHistory(
+        SkuType.INAPP, 1, /*fields=*/ null, events, new AtomicBoolean());
+    ArgumentCaptor<PurchaseHistoryResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchaseHistoryResponseListener.class);
+    verify(mockBillingClient)
+        .queryPurchaseHistoryAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+    listenerCaptor
+        .getValue()
+        .onPurchaseHistoryResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            asList(
+                buildPurchaseHistoryRecord("a"),
+                buildPurchaseHistoryRecord("b"),
+                buildPurchaseHistoryRecord("c")));
+
+    // Each chunk is translated only after the previous one was sent, so at most one is pending
+    for (int i = 0; i < 3; i++) {
+      assertEquals(1, serializationTasks.size());
+      serializationTasks.remove(0).run();
+      assertEquals(1, mainThreadTasks.size());
+      assertTrue(serializationTasks.isEmpty());
+      mainThreadTasks.remove(0).run();
+      verify(events, times(i + 1)).success(any());
+    }
+    assertTrue(serializationTasks.isEmpty());
+    verify(events).endOfStream();
+  }
+
+  @Test
+  public void streamPurchaseHistory_cancelled() {
+    establishConnectedBillingClient(null, null);
+    EventChannel.EventSink events = mock(EventChannel.EventSink.class);
+    AtomicBoolean cancelled = new AtomicBoolean();
+    methodChannelHandler.streamPurchaseHistory(
+        SkuType.INAPP, 2, /*fields=*/ null, events, cancelled);
+    ArgumentCaptor<PurchaseHistoryResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchaseHistoryResponseListener.class);
+    verify(mockBillingClient)
+        .queryPurchaseHistoryAsync(eq(SkuType.INAPP), listenerCaptor.capture());
+
+    cancelled.set(true);
+    listenerCaptor
+        .getValue()
+        .onPurchaseHistoryResponse(
+            BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build(),
+            asList(buildPurchaseHistoryRecord("a")));
+
+    verify(events, never()).success(any());
+    verify(events, never()).endOfStream();
+  }
+
   @Test
   public void queryPurchaseHistoryAsync_clientDisconnected() {
     // Prepare the launch call after disconnecting the client
@@ -644,7 +1321,22 @@ public class MethodCallHandlerTest {
 
   @Test
   public void onPurchasesUpdatedListener() {
-    PluginPurchaseListener listener = new PluginPurchaseListener(mockMethodChannel);
+    Handler mainHandler = mock(Handler.class);
+    doAnswer(
+            invocation -> {
+              ((Runnable) invocation.getArgument(0)).run();
+              return true;
+            })
+        .when(mainHandler)
+        .post(any(Runnable.class));
+    PluginPurchaseListener listener =
+        new PluginPurchaseListener(
+            new PurchaseUpdateStream(
+                mockMethodChannel,
+                mainHandler,
+                Runnable::run,
+                new PurchaseSignatureVerifier()),
+            new PurchaseTokenIndex());
 
     BillingResult billingResult =
         BillingResult.newBuilder()
@@ -724,6 +1416,153 @@ public class MethodCallHandlerTest {
     verify(result, times(1)).success(fromBillingResult(billingResult));
   }
 
+  @Test
+  public void acknowledgePurchase_answeredFromTheTokenIndex() {
+    establishConnectedBillingClient(null, null);
+    methodChannelHandler.onMethodCall(new MethodCall(QUERY_ALL_PURCHASES, null), result);
+    ArgumentCaptor<PurchasesResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(PurchasesResponseListener.class);
+    verify(mockBillingClient, times(2)).queryPurchasesAsync(any(), listenerCaptor.capture());
+    BillingResult ok = BillingResult.newBuilder().setResponseCode(0).build();
+    Purchase acknowledged = buildPurchaseWithToken("foo", "acknowledged");
+    when(acknowledged.getPurchaseState()).thenReturn(Purchase.PurchaseState.PURCHASED);
+    when(acknowledged.isAcknowledged()).thenReturn(true);
+    Purchase unacknowledged = buildPurchaseWithToken("bar", "unacknowledged");
+    when(unacknowledged.getPurchaseState()).thenReturn(Purchase.PurchaseState.PURCHASED);
+    listenerCaptor.getAllValues().get(0).onQueryPurchasesResponse(ok, singletonList(acknowledged));
+    listenerCaptor
+        .getAllValues()
+        .get(1)
+        .onQueryPurchasesResponse(ok, singletonList(unacknowledged));
+
+    Result acknowledgedResult = mock(Result.class);
+    methodChannelHandler.onMethodCall(
+        new MethodCall(ACKNOWLEDGE_PURCHASE, singletonMap("purchaseToken", "acknowledged")),
+        acknowledgedResult);
+    methodChannelHandler.onMethodCall(
+        new MethodCall(ACKNOWLEDGE_PURCHASE, singletonMap("purchaseToken", "unknown")),
+        mock(Result.class));
+    methodChannelHandler.onMethodCall(
+        new MethodCall(ACKNOWLEDGE_PURCHASE, singletonMap("purchaseToken", "unacknowledged")),
+        mock(Result.class));
+
+    // Only the acknowledged purchase is answered locally, unknown tokens may have been bought
+    // outside the app.
+    ArgumentCaptor<AcknowledgePurchaseParams> paramsCaptor =
+        ArgumentCaptor.forClass(AcknowledgePurchaseParams.class);
+    verify(mockBillingClient, times(2)).acknowledgePurchase(paramsCaptor.capture(), any());
+    assertEquals(
+        asList("unknown", "unacknowledged"),
+        paramsCaptor.getAllValues().stream()
+            .map(AcknowledgePurchaseParams::getPurchaseToken)
+            .collect(toList()));
+    ArgumentCaptor<HashMap<String, Object>> resultCaptor = ArgumentCaptor.forClass(HashMap.class);
+    verify(acknowledgedResult).success(resultCaptor.capture());
+    assertEquals(BillingClient.BillingResponseCode.OK, resultCaptor.getValue().get("responseCode"));
+  }
+
+  @Test
+  public void consumeAsync_consumedTokenAnsweredLocally() {
+    establishConnectedBillingClient(null, null);
+    ArgumentCaptor<ConsumeResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(ConsumeResponseListener.class);
+    methodChannelHandler.onMethodCall(
+        new MethodCall(CONSUME_PURCHASE_ASYNC, singletonMap("purchaseToken", "token")), result);
+    verify(mockBillingClient).consumeAsync(any(), listenerCaptor.capture());
+    listenerCaptor
+        .getValue()
+        .onConsumeResponse(BillingResult.newBuilder().setResponseCode(0).build(), "token");
+
+    Result secondResult = mock(Result.class);
+    methodChannelHandler.onMethodCall(
+        new MethodCall(CONSUME_PURCHASE_ASYNC, singletonMap("purchaseToken", "token")),
+        secondResult);
+
+    verify(mockBillingClient, times(1)).consumeAsync(any(), any());
+    ArgumentCaptor<HashMap<String, Object>> resultCaptor = ArgumentCaptor.forClass(HashMap.class);
+    verify(secondResult).success(resultCaptor.capture());
+    assertEquals(
+        BillingClient.BillingResponseCode.ITEM_NOT_OWNED,
+        resultCaptor.getValue().get("responseCode"));
+
+    // The local answer stays out of the Play IPC timings.
+    Result metricsResult = mock(Result.class);
+    methodChannelHandler.onMethodCall(new MethodCall(GET_METRICS, null), metricsResult);
+    ArgumentCaptor<Map<String, Object>> metricsCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(metricsResult).success(metricsCaptor.capture());
+    Map<String, Object> byCode =
+        (Map<String, Object>) metricsCaptor.getValue().get(CONSUME_PURCHASE_ASYNC);
+    Map<String, Object> ok =
+        (Map<String, Object>) byCode.get(String.valueOf(BillingClient.BillingResponseCode.OK));
+    assertEquals(1L, ((Map<String, Object>) ok.get("ipc")).get("count"));
+    Map<String, Object> notOwned =
+        (Map<String, Object>)
+            byCode.get(String.valueOf(BillingClient.BillingResponseCode.ITEM_NOT_OWNED));
+    assertNull(notOwned.get("ipc"));
+    assertEquals(1L, ((Map<String, Object>) notOwned.get("queue")).get("count"));
+  }
+
+  @Test
+  public void acknowledgePurchases_boundedParallelism() {
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("purchaseTokens", asList("a", "b", "c", "a"));
+    arguments.put("maxConcurrentCalls", 2);
+    ArgumentCaptor<AcknowledgePurchaseParams> paramsCaptor =
+        ArgumentCaptor.forClass(AcknowledgePurchaseParams.class);
+    ArgumentCaptor<AcknowledgePurchaseResponseListener> listenerCaptor =
+        ArgumentCaptor.forClass(AcknowledgePurchaseResponseListener.class);
+
+    methodChannelHandler.onMethodCall(new MethodCall(ACKNOWLEDGE_PURCHASES, arguments), result);
+
+    // Only two calls are in flight, the third starts once one of them answers.
+    verify(mockBillingClient, times(2))
+        .acknowledgePurchase(paramsCaptor.capture(), listenerCaptor.capture());
+    BillingResult ok = BillingResult.newBuilder().setResponseCode(0).build();
+    BillingResult error =
+        BillingResult.newBuilder()
+            .setResponseCode(BillingClient.BillingResponseCode.ITEM_NOT_OWNED)
+            .build();
+    listenerCaptor.getAllValues().get(1).onAcknowledgePurchaseResponse(error);
+    verify(mockBillingClient, times(3))
+        .acknowledgePurchase(paramsCaptor.capture(), listenerCaptor.capture());
+    assertEquals("c", paramsCaptor.getValue().getPurchaseToken());
+    listenerCaptor.getAllValues().get(0).onAcknowledgePurchaseResponse(ok);
+    verify(result, never()).success(any());
+    listenerCaptor.getValue().onAcknowledgePurchaseResponse(ok);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("a", fromBillingResult(ok));
+    expected.put("b", fromBillingResult(error));
+    expected.put("c", fromBillingResult(ok));
+    verify(result).success(expected);
+  }
+
+  @Test
+  public void consumePurchases() {
+    establishConnectedBillingClient(null, null);
+    HashMap<String, Object> arguments = new HashMap<>();
+    arguments.put("purchaseTokens", asList("a", "b"));
+    BillingResult ok = BillingResult.newBuilder().setResponseCode(0).build();
+    doAnswer(
+            invocation -> {
+              ConsumeParams params = invocation.getArgument(0);
+              ((ConsumeResponseListener) invocation.getArgument(1))
+                  .onConsumeResponse(ok, params.getPurchaseToken());
+              return null;
+            })
+        .when(mockBillingClient)
+        .consumeAsync(any(ConsumeParams.class), any(ConsumeResponseListener.class));
+
+    methodChannelHandler.onMethodCall(new MethodCall(CONSUME_PURCHASES, arguments), result);
+
+    verify(mockBillingClient, times(2)).consumeAsync(any(), any());
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("a", fromBillingResult(ok));
+    expected.put("b", fromBillingResult(ok));
+    verify(result).success(expected);
+  }
+
   @Test
   public void endConnection_if_activity_detached() {
     InAppPurchasePlugin plugin = new InAppPurchasePlugin();
@@ -875,6 +1714,30 @@ public class MethodCallHandlerTest {
     return captor;
   }
 
+  /** Posts work for the test to run, calling threads are not the main thread. */
+  private static final class BackgroundThreadDispatcher implements MainThreadDispatcher {
+    final List<Runnable> posted = new ArrayList<>();
+    private boolean onMainThread;
+
+    @Override
+    public void dispatch(@NonNull Runnable runnable) {
+      posted.add(runnable);
+    }
+
+    @Override
+    public boolean isMainThread() {
+      return onMainThread;
+    }
+
+    void runPosted() {
+      onMainThread = true;
+      while (!posted.isEmpty()) {
+        posted.remove(0).run();
+      }
+      onMainThread = false;
+    }
+  }
+
   private void establishConnectedBillingClient(
       @Nullable Map<String, Object> arguments, @Nullable Result result) {
     if (arguments == null) {
@@ -937,6 +1800,12 @@ public class MethodCallHandlerTest {
     return purchase;
   }
 
+  private Purchase buildPurchaseWithToken(String orderId, String purchaseToken) {
+    Purchase purchase = buildPurchase(orderId);
+    when(purchase.getPurchaseToken()).thenReturn(purchaseToken);
+    return purchase;
+  }
+
   private PurchaseHistoryRecord buildPurchaseHistoryRecord(String purchaseToken) {
     PurchaseHistoryRecord purchase = mock(PurchaseHistoryRecord.class);
     when(purchase.getPurchaseToken()).thenReturn(purchaseToken);
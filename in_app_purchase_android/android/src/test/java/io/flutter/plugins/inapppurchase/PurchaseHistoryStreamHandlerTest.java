@@ -0,0 +1,82 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.flutter.plugin.common.EventChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class PurchaseHistoryStreamHandlerTest {
+  private final MethodCallHandlerImpl methodCallHandler = mock(MethodCallHandlerImpl.class);
+  private final PurchaseHistoryStreamHandler handler =
+      new PurchaseHistoryStreamHandler(methodCallHandler);
+
+  @Test
+  public void listeningAgainEndsTheSupersededStream() {
+    EventChannel.EventSink first = mock(EventChannel.EventSink.class);
+    EventChannel.EventSink second = mock(EventChannel.EventSink.class);
+    ArgumentCaptor<AtomicBoolean> cancelled = ArgumentCaptor.forClass(AtomicBoolean.class);
+
+    handler.onListen(arguments(), first);
+    verify(methodCallHandler)
+        .streamPurchaseHistory(
+            anyString(), anyInt(), any(), eq(first), cancelled.capture());
+    handler.onListen(arguments(), second);
+
+    assertTrue(cancelled.getValue().get());
+    verify(first).endOfStream();
+    verify(second, never()).endOfStream();
+  }
+
+  @Test
+  public void listeningAfterCancelLeavesTheCancelledStreamAlone() {
+    EventChannel.EventSink first = mock(EventChannel.EventSink.class);
+
+    handler.onListen(arguments(), first);
+    handler.onCancel(null);
+    handler.onListen(arguments(), mock(EventChannel.EventSink.class));
+
+    verify(first, never()).endOfStream();
+    verify(methodCallHandler, times(2))
+        .streamPurchaseHistory(anyString(), anyInt(), any(), any(), any());
+  }
+
+  @Test
+  public void forwardsTheFieldMask() {
+    Map<String, Object> arguments = arguments();
+    arguments.put("fields", Collections.singletonList("purchaseToken"));
+
+    handler.onListen(arguments, mock(EventChannel.EventSink.class));
+
+    verify(methodCallHandler)
+        .streamPurchaseHistory(
+            eq("inapp"),
+            eq(10),
+            eq(Collections.singleton("purchaseToken")),
+            any(),
+            any());
+  }
+
+  private static Map<String, Object> arguments() {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("skuType", "inapp");
+    arguments.put("chunkSize", 10);
+    return arguments;
+  }
+}
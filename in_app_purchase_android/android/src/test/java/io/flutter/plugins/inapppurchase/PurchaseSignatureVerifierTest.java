@@ -0,0 +1,92 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.android.billingclient.api.Purchase;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PurchaseSignatureVerifierTest {
+  private static final String PURCHASE_JSON_FORMAT =
+      "{\"orderId\":\"%s\",\"packageName\":\"bar\",\"productId\":\"consumable\",\"purchaseTime\":11111111,\"purchaseState\":0,\"purchaseToken\":\"token%s\"}";
+
+  private KeyPair keyPair;
+  private PurchaseSignatureVerifier verifier;
+
+  @Before
+  public void setUp() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(2048);
+    keyPair = generator.generateKeyPair();
+    verifier = new PurchaseSignatureVerifier();
+  }
+
+  @Test
+  public void withoutKey_returnsNull() throws Exception {
+    assertFalse(verifier.isEnabled());
+    assertNull(verifier.verify(asList(signedPurchase("a"))));
+  }
+
+  @Test
+  public void verifiesEveryPurchaseOfTheList() throws Exception {
+    verifier.setPublicKey(Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
+    Purchase tampered =
+        new Purchase(
+            String.format(PURCHASE_JSON_FORMAT, "tampered", "tampered"),
+            signedPurchase("b").getSignature());
+
+    boolean[] verdicts =
+        verifier.verify(asList(signedPurchase("a"), tampered, unsignedPurchase("c")));
+
+    assertArrayEquals(new boolean[] {true, false, false}, verdicts);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidKey_throws() {
+    verifier.setPublicKey(Base64.getEncoder().encodeToString(new byte[] {1, 2, 3}));
+  }
+
+  @Test
+  public void translatorAttachesVerdicts() throws Exception {
+    verifier.setPublicKey(Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()));
+
+    List<Map<String, Object>> serialized =
+        Translator.fromPurchasesList(asList(signedPurchase("a")), verifier);
+
+    assertEquals(true, serialized.get(0).get("isSignatureVerified"));
+    // Nothing is attached while verification is off.
+    assertFalse(
+        Translator.fromPurchasesList(asList(signedPurchase("a")), new PurchaseSignatureVerifier())
+            .get(0)
+            .containsKey("isSignatureVerified"));
+  }
+
+  private Purchase signedPurchase(String orderId) throws Exception {
+    String json = String.format(PURCHASE_JSON_FORMAT, orderId, orderId);
+    Signature signature = Signature.getInstance("SHA1withRSA");
+    signature.initSign(keyPair.getPrivate());
+    signature.update(json.getBytes(StandardCharsets.UTF_8));
+    return new Purchase(json, Base64.getEncoder().encodeToString(signature.sign()));
+  }
+
+  private static Purchase unsignedPurchase(String orderId) throws JSONException {
+    return new Purchase(String.format(PURCHASE_JSON_FORMAT, orderId, orderId), "");
+  }
+}
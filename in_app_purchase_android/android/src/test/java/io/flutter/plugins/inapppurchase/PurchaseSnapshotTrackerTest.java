@@ -0,0 +1,135 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.BillingClient.SkuType;
+import com.android.billingclient.api.Purchase;
+import java.util.Arrays;
+import java.util.Collections;
+import org.json.JSONException;
+import org.junit.Test;
+
+public class PurchaseSnapshotTrackerTest {
+  private final PurchaseSnapshotTracker tracker = new PurchaseSnapshotTracker();
+
+  @Test
+  public void firstQuerySendsTheWholeSnapshot() throws JSONException {
+    final Purchase purchase = purchase("token", false);
+
+    PurchaseSnapshotTracker.Delta delta =
+        tracker.update(SkuType.INAPP, null, null, Collections.singletonList(purchase));
+
+    assertTrue(delta.fullSnapshot);
+    assertEquals(Collections.singletonList(purchase), delta.changedPurchases);
+    assertTrue(delta.removedPurchaseTokens.isEmpty());
+  }
+
+  @Test
+  public void unchangedPurchasesKeepTheVersion() throws JSONException {
+    final long version =
+        tracker.update(SkuType.INAPP, null, null, Arrays.asList(purchase("token", false)))
+            .snapshotVersion;
+
+    PurchaseSnapshotTracker.Delta delta =
+        tracker.update(SkuType.INAPP, version, null, Arrays.asList(purchase("token", false)));
+
+    assertFalse(delta.fullSnapshot);
+    assertEquals(version, delta.snapshotVersion);
+    assertTrue(delta.changedPurchases.isEmpty());
+    assertTrue(delta.removedPurchaseTokens.isEmpty());
+  }
+
+  @Test
+  public void sendsChangedAddedAndRemovedPurchases() throws JSONException {
+    final long version =
+        tracker.update(
+                SkuType.INAPP,
+                null,
+                null,
+                Arrays.asList(purchase("changed", false), purchase("removed", false)))
+            .snapshotVersion;
+    final Purchase changed = purchase("changed", true);
+    final Purchase added = purchase("added", false);
+
+    PurchaseSnapshotTracker.Delta delta =
+        tracker.update(SkuType.INAPP, version, null, Arrays.asList(changed, added));
+
+    assertFalse(delta.fullSnapshot);
+    assertNotEquals(version, delta.snapshotVersion);
+    assertEquals(Arrays.asList(changed, added), delta.changedPurchases);
+    assertEquals(Collections.singletonList("removed"), delta.removedPurchaseTokens);
+  }
+
+  @Test
+  public void changeWithTheSameHashCodeIsSent() throws JSONException {
+    // "Aa" and "BB" have the same String hash code.
+    final long version =
+        tracker.update(
+                SkuType.INAPP,
+                null,
+                null,
+                Arrays.asList(new Purchase("{\"purchaseToken\":\"token\",\"x\":\"Aa\"}", "s")))
+            .snapshotVersion;
+    final Purchase changed = new Purchase("{\"purchaseToken\":\"token\",\"x\":\"BB\"}", "s");
+
+    PurchaseSnapshotTracker.Delta delta =
+        tracker.update(SkuType.INAPP, version, null, Arrays.asList(changed));
+
+    assertEquals(Collections.singletonList(changed), delta.changedPurchases);
+  }
+
+  @Test
+  public void staleVersionGetsTheWholeSnapshot() throws JSONException {
+    final long version =
+        tracker.update(SkuType.SUBS, null, null, Arrays.asList(purchase("token", false)))
+            .snapshotVersion;
+
+    PurchaseSnapshotTracker.Delta delta =
+        tracker.update(SkuType.SUBS, version - 1, null, Arrays.asList(purchase("token", false)));
+
+    assertTrue(delta.fullSnapshot);
+    assertEquals(1, delta.changedPurchases.size());
+  }
+
+  @Test
+  public void changedFieldMaskGetsTheWholeSnapshot() throws JSONException {
+    final long version =
+        tracker.update(SkuType.INAPP, null, null, Arrays.asList(purchase("token", false)))
+            .snapshotVersion;
+
+    PurchaseSnapshotTracker.Delta delta =
+        tracker.update(
+            SkuType.INAPP,
+            version,
+            Translator.fieldMask(Collections.singletonList("purchaseToken")),
+            Arrays.asList(purchase("token", false)));
+
+    assertTrue(delta.fullSnapshot);
+  }
+
+  @Test
+  public void clearForgetsTheSnapshots() throws JSONException {
+    final long version =
+        tracker.update(SkuType.INAPP, null, null, Arrays.asList(purchase("token", false)))
+            .snapshotVersion;
+
+    tracker.clear();
+
+    assertTrue(
+        tracker.update(SkuType.INAPP, version, null, Arrays.asList(purchase("token", false)))
+            .fullSnapshot);
+  }
+
+  private static Purchase purchase(String token, boolean acknowledged) throws JSONException {
+    return new Purchase(
+        "{\"purchaseToken\":\"" + token + "\",\"acknowledged\":" + acknowledged + "}",
+        "signature");
+  }
+}
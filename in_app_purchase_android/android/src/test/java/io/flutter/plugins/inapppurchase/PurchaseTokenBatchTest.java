@@ -0,0 +1,71 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class PurchaseTokenBatchTest {
+  private static final BillingResult OK_RESULT =
+      BillingResult.newBuilder().setResponseCode(BillingResponseCode.OK).build();
+
+  @Test
+  public void boundsTheCallsInFlight() {
+    final List<PurchaseTokenBatch.Callback> inFlight = new ArrayList<>();
+    final AtomicReference<Map<String, BillingResult>> results = new AtomicReference<>();
+    new PurchaseTokenBatch(
+            asList("a", "b", "a", "c"),
+            /*maxConcurrentCalls=*/ 2,
+            (purchaseToken, callback) -> inFlight.add(callback),
+            results::set)
+        .start();
+
+    assertEquals(2, inFlight.size());
+    inFlight.get(0).onResult(OK_RESULT);
+    assertEquals(3, inFlight.size());
+    inFlight.get(1).onResult(OK_RESULT);
+    assertNull(results.get());
+    inFlight.get(2).onResult(OK_RESULT);
+
+    assertNotNull(results.get());
+    assertEquals(asList("a", "b", "c"), new ArrayList<>(results.get().keySet()));
+  }
+
+  @Test
+  public void synchronousAnswersDoNotNest() {
+    final List<String> purchaseTokens = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      purchaseTokens.add("token" + i);
+    }
+    final AtomicReference<Map<String, BillingResult>> results = new AtomicReference<>();
+    final int depth = new Throwable().getStackTrace().length;
+    final int[] maxDepth = {0};
+
+    new PurchaseTokenBatch(
+            purchaseTokens,
+            /*maxConcurrentCalls=*/ 4,
+            (purchaseToken, callback) -> {
+              maxDepth[0] = Math.max(maxDepth[0], new Throwable().getStackTrace().length);
+              callback.onResult(OK_RESULT);
+            },
+            results::set)
+        .start();
+
+    assertEquals(purchaseTokens.size(), results.get().size());
+    // The stack stays as deep as for a single token, however many tokens there are.
+    assertTrue(maxDepth[0] - depth < 20);
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClient.SkuType;
+import com.android.billingclient.api.Purchase;
+import java.util.Collections;
+import org.json.JSONException;
+import org.junit.Test;
+
+public class PurchaseTokenIndexTest {
+  private final PurchaseTokenIndex index = new PurchaseTokenIndex();
+
+  @Test
+  public void snapshotDropsConsumedTokensItNoLongerLists() throws JSONException {
+    index.onSnapshot(SkuType.INAPP, singletonList(purchase("consumed")));
+    index.onConsumed("consumed");
+    index.onSnapshot(SkuType.SUBS, Collections.<Purchase>emptyList());
+    assertEquals(1, index.size());
+
+    index.onSnapshot(SkuType.INAPP, singletonList(purchase("owned")));
+
+    assertEquals(1, index.size());
+    assertNull(index.consumeResult("consumed"));
+    assertNull(index.consumeResult("owned"));
+  }
+
+  @Test
+  public void unknownTokensGoToPlayOnceBothSkuTypesWereQueried() {
+    index.onSnapshot(SkuType.INAPP, Collections.<Purchase>emptyList());
+    index.onSnapshot(SkuType.SUBS, Collections.<Purchase>emptyList());
+
+    // Bought on another device, for instance, and never reported to the listener.
+    assertNull(index.acknowledgeResult("unknown"));
+    assertNull(index.consumeResult("unknown"));
+  }
+
+  @Test
+  public void subscriptionSnapshotKeepsConsumedTokens() throws JSONException {
+    index.onConsumed("consumed");
+
+    index.onSnapshot(SkuType.SUBS, Collections.<Purchase>emptyList());
+
+    assertEquals(
+        BillingResponseCode.ITEM_NOT_OWNED, index.consumeResult("consumed").getResponseCode());
+  }
+
+  @Test
+  public void snapshotDropsLapsedSubscriptions() throws JSONException {
+    index.onSnapshot(SkuType.SUBS, singletonList(acknowledgedPurchase("lapsed")));
+    index.onSnapshot(SkuType.INAPP, singletonList(acknowledgedPurchase("inapp")));
+    assertEquals(BillingResponseCode.OK, index.acknowledgeResult("lapsed").getResponseCode());
+
+    index.onSnapshot(SkuType.SUBS, Collections.<Purchase>emptyList());
+
+    assertNull(index.acknowledgeResult("lapsed"));
+    // Tokens of the other sku type are kept.
+    assertEquals(BillingResponseCode.OK, index.acknowledgeResult("inapp").getResponseCode());
+  }
+
+  @Test
+  public void snapshotDropsUpdatedTokensItDoesNotList() throws JSONException {
+    index.onPurchases(singletonList(acknowledgedPurchase("updated")));
+
+    index.onSnapshot(SkuType.INAPP, Collections.<Purchase>emptyList());
+
+    assertNull(index.acknowledgeResult("updated"));
+  }
+
+  private static Purchase acknowledgedPurchase(String token) throws JSONException {
+    return new Purchase(
+        "{\"purchaseToken\":\"" + token + "\",\"purchaseState\":0,\"acknowledged\":true}",
+        "signature");
+  }
+
+  private static Purchase purchase(String token) throws JSONException {
+    return new Purchase(
+        "{\"purchaseToken\":\"" + token + "\",\"purchaseState\":0}", "signature");
+  }
+}
@@ -0,0 +1,287 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static io.flutter.plugins.inapppurchase.InAppPurchasePlugin.MethodNames.ON_PURCHASES_UPDATED;
+import static io.flutter.plugins.inapppurchase.Translator.fromPurchasesList;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class PurchaseUpdateStreamTest {
+  private static final BillingResult OK_RESULT =
+      BillingResult.newBuilder().setResponseCode(BillingResponseCode.OK).build();
+
+  @Mock MethodChannel mockMethodChannel;
+  @Mock Handler mainHandler;
+  @Mock EventChannel.EventSink events;
+  private PurchaseUpdateStream stream;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.openMocks(this);
+    // Posted runnables run right away, delayed ones are left to the test.
+    doAnswer(
+            invocation -> {
+              ((Runnable) invocation.getArgument(0)).run();
+              return true;
+            })
+        .when(mainHandler)
+        .post(any(Runnable.class));
+    stream =
+        new PurchaseUpdateStream(
+            mockMethodChannel,
+            mainHandler,
+            Runnable::run,
+            new PurchaseSignatureVerifier(),
+            /*capacity=*/ 3,
+            /*coalescingWindowMillis=*/ 50);
+  }
+
+  @Test
+  public void withoutListener_invokesMethodPerUpdate() throws JSONException {
+    stream.add(OK_RESULT, singletonList(buildPurchase("a")));
+    stream.add(OK_RESULT, singletonList(buildPurchase("b")));
+
+    verify(mockMethodChannel, times(2)).invokeMethod(eq(ON_PURCHASES_UPDATED), any());
+    verify(mainHandler, never()).postDelayed(any(), anyLong());
+  }
+
+  @Test
+  public void withoutListener_translatesOnTheSerializationExecutor() throws JSONException {
+    final List<Runnable> serializationTasks = new ArrayList<>();
+    stream =
+        new PurchaseUpdateStream(
+            mockMethodChannel,
+            mainHandler,
+            serializationTasks::add,
+            new PurchaseSignatureVerifier(),
+            /*capacity=*/ 3,
+            /*coalescingWindowMillis=*/ 50);
+    final List<Purchase> purchases = singletonList(buildPurchase("a"));
+    stream.add(OK_RESULT, purchases);
+
+    // Nothing is translated, nor signatures verified, on the calling main thread.
+    verify(mockMethodChannel, never()).invokeMethod(any(), any());
+    serializationTasks.remove(0).run();
+    ArgumentCaptor<Map<String, Object>> argsCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(mockMethodChannel).invokeMethod(eq(ON_PURCHASES_UPDATED), argsCaptor.capture());
+    assertEquals(fromPurchasesList(purchases), argsCaptor.getValue().get("purchasesList"));
+  }
+
+  @Test
+  public void burstIsSentAsOneBatch() throws JSONException {
+    stream.onListen(null, events);
+    List<Purchase> first = singletonList(buildPurchase("a"));
+    List<Purchase> second = singletonList(buildPurchase("b"));
+    stream.add(OK_RESULT, first);
+    stream.add(OK_RESULT, second);
+
+    // A single flush is scheduled for the burst.
+    verify(mainHandler, times(1)).postDelayed(any(), eq(50L));
+    verify(events, never()).success(any());
+    stream.flush();
+
+    Map<String, Object> event = captureEvent();
+    List<Map<String, Object>> updates = (List<Map<String, Object>>) event.get("updates");
+    assertEquals(2, updates.size());
+    assertEquals(fromPurchasesList(first), updates.get(0).get("purchasesList"));
+    assertEquals(fromPurchasesList(second), updates.get(1).get("purchasesList"));
+    assertEquals(0, event.get("droppedCount"));
+    verify(mockMethodChannel, never()).invokeMethod(any(), any());
+  }
+
+  @Test
+  public void keepsLatestStatePerToken() throws JSONException {
+    stream.onListen(null, events);
+    stream.add(OK_RESULT, singletonList(buildPurchase("pending", "x")));
+    stream.add(OK_RESULT, asList(buildPurchase("a", "y"), buildPurchase("pending", "z")));
+    stream.add(OK_RESULT, asList(buildPurchase("purchased", "x"), buildPurchase("purchased", "z")));
+    stream.flush();
+
+    // The first update only held a token reported again, it is not sent.
+    List<Map<String, Object>> updates = (List<Map<String, Object>>) captureEvent().get("updates");
+    assertEquals(2, updates.size());
+    assertEquals(
+        fromPurchasesList(singletonList(buildPurchase("a", "y"))),
+        updates.get(0).get("purchasesList"));
+    assertEquals(
+        fromPurchasesList(asList(buildPurchase("purchased", "x"), buildPurchase("purchased", "z"))),
+        updates.get(1).get("purchasesList"));
+  }
+
+  @Test
+  public void withoutWindow_sendsEveryUpdateRightAway() throws JSONException {
+    stream =
+        new PurchaseUpdateStream(
+            mockMethodChannel, mainHandler, Runnable::run, new PurchaseSignatureVerifier());
+    stream.onListen(null, events);
+    stream.add(OK_RESULT, singletonList(buildPurchase("a")));
+
+    verify(mainHandler, never()).postDelayed(any(), anyLong());
+    List<Map<String, Object>> updates = (List<Map<String, Object>>) captureEvent().get("updates");
+    assertEquals(1, updates.size());
+  }
+
+  @Test
+  public void listenArgumentsSetTheCoalescingWindow() throws JSONException {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("coalescingWindowMillis", 200);
+    stream.onListen(arguments, events);
+    stream.add(OK_RESULT, singletonList(buildPurchase("a")));
+
+    verify(mainHandler).postDelayed(any(), eq(200L));
+  }
+
+  @Test
+  public void overflow_dropsOldestUpdates() throws JSONException {
+    stream.onListen(null, events);
+    stream.add(OK_RESULT, singletonList(buildPurchase("a")));
+    stream.add(OK_RESULT, asList(buildPurchase("b"), buildPurchase("c")));
+    stream.add(OK_RESULT, singletonList(buildPurchase("d")));
+    stream.flush();
+
+    Map<String, Object> event = captureEvent();
+    List<Map<String, Object>> updates = (List<Map<String, Object>>) event.get("updates");
+    assertEquals(2, updates.size());
+    assertEquals(
+        fromPurchasesList(asList(buildPurchase("b"), buildPurchase("c"))),
+        updates.get(0).get("purchasesList"));
+    assertEquals(1, event.get("droppedCount"));
+  }
+
+  @Test
+  public void overflow_keepsUpdatesWithoutPurchases() throws JSONException {
+    final BillingResult canceled =
+        BillingResult.newBuilder().setResponseCode(BillingResponseCode.USER_CANCELED).build();
+    final BillingResult error =
+        BillingResult.newBuilder().setResponseCode(BillingResponseCode.ERROR).build();
+    stream.onListen(null, events);
+    stream.add(canceled, null);
+    stream.add(OK_RESULT, singletonList(buildPurchase("a")));
+    stream.add(error, null);
+    stream.add(OK_RESULT, singletonList(buildPurchase("b")));
+    stream.add(OK_RESULT, singletonList(buildPurchase("c")));
+    stream.flush();
+
+    Map<String, Object> event = captureEvent();
+    List<Map<String, Object>> updates = (List<Map<String, Object>>) event.get("updates");
+    assertEquals(3, updates.size());
+    assertEquals(BillingResponseCode.USER_CANCELED, updates.get(0).get("responseCode"));
+    assertEquals(BillingResponseCode.ERROR, updates.get(1).get("responseCode"));
+    assertEquals(
+        fromPurchasesList(singletonList(buildPurchase("c"))), updates.get(2).get("purchasesList"));
+    assertEquals(2, event.get("droppedCount"));
+  }
+
+  @Test
+  public void cancel_sendsBufferedUpdatesOverTheMethodChannel() throws JSONException {
+    stream.onListen(null, events);
+    stream.add(OK_RESULT, singletonList(buildPurchase("a")));
+    stream.onCancel(null);
+    stream.flush();
+
+    verify(mainHandler).removeCallbacks(any());
+    verify(mockMethodChannel).invokeMethod(eq(ON_PURCHASES_UPDATED), any());
+    verify(events, never()).success(any());
+  }
+
+  @Test
+  public void cancelDuringFlush_sendsTheBatchOverTheMethodChannel() throws JSONException {
+    final List<Runnable> serializationTasks = new ArrayList<>();
+    stream =
+        new PurchaseUpdateStream(
+            mockMethodChannel,
+            mainHandler,
+            serializationTasks::add,
+            new PurchaseSignatureVerifier(),
+            /*capacity=*/ 3,
+            /*coalescingWindowMillis=*/ 50);
+    stream.onListen(null, events);
+    final List<Purchase> purchases = singletonList(buildPurchase("a"));
+    stream.add(OK_RESULT, purchases);
+    stream.flush();
+    stream.onCancel(null);
+    serializationTasks.remove(0).run();
+
+    verify(events, never()).success(any());
+    ArgumentCaptor<Map<String, Object>> argsCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(mockMethodChannel).invokeMethod(eq(ON_PURCHASES_UPDATED), argsCaptor.capture());
+    assertEquals(fromPurchasesList(purchases), argsCaptor.getValue().get("purchasesList"));
+  }
+
+  @Test
+  public void cancelDuringFlush_keepsTheOrderOfLaterUpdates() throws JSONException {
+    final List<Runnable> serializationTasks = new ArrayList<>();
+    stream =
+        new PurchaseUpdateStream(
+            mockMethodChannel,
+            mainHandler,
+            serializationTasks::add,
+            new PurchaseSignatureVerifier(),
+            /*capacity=*/ 3,
+            /*coalescingWindowMillis=*/ 50);
+    stream.onListen(null, events);
+    final List<Purchase> pending = singletonList(buildPurchase("pending", "x"));
+    final List<Purchase> purchased = singletonList(buildPurchase("purchased", "x"));
+    stream.add(OK_RESULT, pending);
+    stream.flush();
+    stream.onCancel(null);
+    stream.add(OK_RESULT, purchased);
+
+    // The newer update must not overtake the batch still being translated.
+    verify(mockMethodChannel, never()).invokeMethod(any(), any());
+    while (!serializationTasks.isEmpty()) {
+      serializationTasks.remove(0).run();
+    }
+    ArgumentCaptor<Map<String, Object>> argsCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(mockMethodChannel, times(2))
+        .invokeMethod(eq(ON_PURCHASES_UPDATED), argsCaptor.capture());
+    assertEquals(fromPurchasesList(pending), argsCaptor.getAllValues().get(0).get("purchasesList"));
+    assertEquals(
+        fromPurchasesList(purchased), argsCaptor.getAllValues().get(1).get("purchasesList"));
+  }
+
+  private Map<String, Object> captureEvent() {
+    ArgumentCaptor<Map<String, Object>> eventCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(events).success(eventCaptor.capture());
+    return eventCaptor.getValue();
+  }
+
+  private static Purchase buildPurchase(String orderId) throws JSONException {
+    return buildPurchase(orderId, "token" + orderId);
+  }
+
+  private static Purchase buildPurchase(String orderId, String purchaseToken)
+      throws JSONException {
+    return new Purchase(
+        String.format("{\"orderId\":\"%s\",\"purchaseToken\":\"%s\"}", orderId, purchaseToken),
+        "signature");
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+import com.android.billingclient.api.SkuDetails;
+import java.util.Map;
+import org.json.JSONException;
+import org.junit.Test;
+
+public class SkuDetailsCacheTest {
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws JSONException {
+    SkuDetailsCache cache = new SkuDetailsCache(2);
+    cache.put(buildSkuDetails("a"));
+    cache.put(buildSkuDetails("b"));
+    // Touch "a" so that "b" becomes the eldest entry.
+    assertNotNull(cache.get("a"));
+    cache.put(buildSkuDetails("c"));
+
+    assertEquals(2, cache.size());
+    assertTrue(cache.containsKey("a"));
+    assertFalse(cache.containsKey("b"));
+    assertTrue(cache.containsKey("c"));
+  }
+
+  @Test
+  public void trimMemory_releasesAccordingToLevel() throws JSONException {
+    SkuDetailsCache cache = new SkuDetailsCache(8);
+    for (int i = 0; i < 8; i++) {
+      cache.put(buildSkuDetails("sku" + i));
+    }
+
+    cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+    assertEquals(8, cache.size());
+    cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+    assertEquals(4, cache.size());
+    cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+    assertEquals(1, cache.size());
+    // The most recently inserted entry survives the longest.
+    assertTrue(cache.containsKey("sku7"));
+    cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void stats() throws JSONException {
+    SkuDetailsCache cache = new SkuDetailsCache(1);
+    cache.put(buildSkuDetails("a"));
+    cache.put(buildSkuDetails("b"));
+    assertNotNull(cache.get("b"));
+    assertNull(cache.get("a"));
+
+    Map<String, Object> stats = cache.stats();
+    assertEquals(1, stats.get("size"));
+    assertEquals(1, stats.get("maxSize"));
+    assertEquals(1L, stats.get("hitCount"));
+    assertEquals(1L, stats.get("missCount"));
+    assertEquals(2L, stats.get("putCount"));
+    assertEquals(1L, stats.get("evictionCount"));
+  }
+
+  private static SkuDetails buildSkuDetails(String id) throws JSONException {
+    return new SkuDetails(
+        String.format(
+            "{\"productId\":\"%s\",\"type\":\"inapp\",\"price\":\"$0.99\",\"price_amount_micros\":990000,\"price_currency_code\":\"USD\",\"title\":\"Example title\",\"description\":\"Example description.\"}",
+            id));
+  }
+}
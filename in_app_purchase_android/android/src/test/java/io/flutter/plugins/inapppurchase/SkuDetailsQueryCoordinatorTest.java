@@ -0,0 +1,205 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.SkuType;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class SkuDetailsQueryCoordinatorTest {
+  private static final BillingResult OK_RESULT =
+      BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build();
+
+  @Mock BillingClient mockBillingClient;
+  private SkuDetailsQueryCoordinator coordinator;
+
+  @Before
+  public void setUp() {
+    MockitoAnnotations.openMocks(this);
+    coordinator = new SkuDetailsQueryCoordinator(/*chunkSize=*/ 2, /*maxConcurrentChunks=*/ 2);
+  }
+
+  @Test
+  public void splitsIntoChunksAndMerges() {
+    SkuDetailsResponseListener listener = mock(SkuDetailsResponseListener.class);
+    coordinator.querySkuDetails(
+        mockBillingClient, SkuType.INAPP, asList("a", "b", "c", "d", "e"), listener);
+
+    // Only two chunks may be in flight at once.
+    ArgumentCaptor<SkuDetailsParams> paramsCaptor = ArgumentCaptor.forClass(SkuDetailsParams.class);
+    ArgumentCaptor<SkuDetailsResponseListener> chunkCaptor =
+        ArgumentCaptor.forClass(SkuDetailsResponseListener.class);
+    verify(mockBillingClient, times(2))
+        .querySkuDetailsAsync(paramsCaptor.capture(), chunkCaptor.capture());
+    assertEquals(asList("a", "b"), paramsCaptor.getAllValues().get(0).getSkusList());
+    assertEquals(asList("c", "d"), paramsCaptor.getAllValues().get(1).getSkusList());
+
+    // Answer out of order; the third chunk starts once a slot is free.
+    chunkCaptor.getAllValues().get(1).onSkuDetailsResponse(OK_RESULT, buildSkuDetails("d", "c"));
+    verify(mockBillingClient, times(3))
+        .querySkuDetailsAsync(paramsCaptor.capture(), chunkCaptor.capture());
+    assertEquals(asList("e"), paramsCaptor.getValue().getSkusList());
+    chunkCaptor.getAllValues().get(0).onSkuDetailsResponse(OK_RESULT, buildSkuDetails("a", "b"));
+    verify(listener, never()).onSkuDetailsResponse(any(), any());
+    chunkCaptor.getValue().onSkuDetailsResponse(OK_RESULT, buildSkuDetails("e"));
+
+    ArgumentCaptor<List<SkuDetails>> resultCaptor = ArgumentCaptor.forClass(List.class);
+    verify(listener).onSkuDetailsResponse(any(), resultCaptor.capture());
+    assertEquals(asList("a", "b", "c", "d", "e"), skusOf(resultCaptor.getValue()));
+  }
+
+  @Test
+  public void overlappingRequestsShareInFlightChunks() {
+    SkuDetailsResponseListener first = mock(SkuDetailsResponseListener.class);
+    SkuDetailsResponseListener second = mock(SkuDetailsResponseListener.class);
+    coordinator.querySkuDetails(mockBillingClient, SkuType.INAPP, asList("a", "b"), first);
+    coordinator.querySkuDetails(mockBillingClient, SkuType.INAPP, asList("b", "c"), second);
+
+    // "b" is only fetched once.
+    ArgumentCaptor<SkuDetailsParams> paramsCaptor = ArgumentCaptor.forClass(SkuDetailsParams.class);
+    ArgumentCaptor<SkuDetailsResponseListener> chunkCaptor =
+        ArgumentCaptor.forClass(SkuDetailsResponseListener.class);
+    verify(mockBillingClient, times(2))
+        .querySkuDetailsAsync(paramsCaptor.capture(), chunkCaptor.capture());
+    assertEquals(asList("a", "b"), paramsCaptor.getAllValues().get(0).getSkusList());
+    assertEquals(asList("c"), paramsCaptor.getAllValues().get(1).getSkusList());
+
+    chunkCaptor.getAllValues().get(0).onSkuDetailsResponse(OK_RESULT, buildSkuDetails("a", "b"));
+    ArgumentCaptor<List<SkuDetails>> firstCaptor = ArgumentCaptor.forClass(List.class);
+    verify(first).onSkuDetailsResponse(any(), firstCaptor.capture());
+    assertEquals(asList("a", "b"), skusOf(firstCaptor.getValue()));
+    verify(second, never()).onSkuDetailsResponse(any(), any());
+
+    chunkCaptor.getAllValues().get(1).onSkuDetailsResponse(OK_RESULT, buildSkuDetails("c"));
+    ArgumentCaptor<List<SkuDetails>> secondCaptor = ArgumentCaptor.forClass(List.class);
+    verify(second).onSkuDetailsResponse(any(), secondCaptor.capture());
+    assertEquals(asList("b", "c"), skusOf(secondCaptor.getValue()));
+  }
+
+  @Test
+  public void reportsFirstChunkError() {
+    SkuDetailsResponseListener listener = mock(SkuDetailsResponseListener.class);
+    coordinator.querySkuDetails(
+        mockBillingClient, SkuType.SUBS, asList("a", "b", "c", "d"), listener);
+    ArgumentCaptor<SkuDetailsResponseListener> chunkCaptor =
+        ArgumentCaptor.forClass(SkuDetailsResponseListener.class);
+    verify(mockBillingClient, times(2)).querySkuDetailsAsync(any(), chunkCaptor.capture());
+
+    BillingResult error =
+        BillingResult.newBuilder()
+            .setResponseCode(BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE)
+            .setDebugMessage("dummy debug message")
+            .build();
+    chunkCaptor.getAllValues().get(0).onSkuDetailsResponse(OK_RESULT, buildSkuDetails("a", "b"));
+    chunkCaptor.getAllValues().get(1).onSkuDetailsResponse(error, null);
+
+    ArgumentCaptor<List<SkuDetails>> resultCaptor = ArgumentCaptor.forClass(List.class);
+    verify(listener).onSkuDetailsResponse(any(), resultCaptor.capture());
+    verify(listener).onSkuDetailsResponse(eq(error), any());
+    assertEquals(asList("a", "b"), skusOf(resultCaptor.getValue()));
+  }
+
+  @Test
+  public void reset_answersWaitingRequestsAndFreesTheSlots() {
+    SkuDetailsResponseListener first = mock(SkuDetailsResponseListener.class);
+    coordinator.querySkuDetails(
+        mockBillingClient, SkuType.INAPP, asList("a", "b", "c", "d", "e"), first);
+    ArgumentCaptor<SkuDetailsResponseListener> chunkCaptor =
+        ArgumentCaptor.forClass(SkuDetailsResponseListener.class);
+    verify(mockBillingClient, times(2)).querySkuDetailsAsync(any(), chunkCaptor.capture());
+
+    coordinator.reset();
+
+    ArgumentCaptor<BillingResult> resultCaptor = ArgumentCaptor.forClass(BillingResult.class);
+    verify(first).onSkuDetailsResponse(resultCaptor.capture(), any());
+    assertEquals(
+        BillingClient.BillingResponseCode.SERVICE_DISCONNECTED,
+        resultCaptor.getValue().getResponseCode());
+    // The queued chunk never starts on the ended client, and late answers are ignored.
+    chunkCaptor.getAllValues().get(0).onSkuDetailsResponse(OK_RESULT, buildSkuDetails("a", "b"));
+    verify(mockBillingClient, times(2)).querySkuDetailsAsync(any(), any());
+    verify(first).onSkuDetailsResponse(any(), any());
+
+    // A new client gets fresh chunks and both slots.
+    BillingClient newBillingClient = mock(BillingClient.class);
+    SkuDetailsResponseListener second = mock(SkuDetailsResponseListener.class);
+    coordinator.querySkuDetails(newBillingClient, SkuType.INAPP, asList("a", "b", "c"), second);
+    verify(newBillingClient, times(2)).querySkuDetailsAsync(any(), any());
+  }
+
+  @Test
+  public void chunksAreNotSharedAcrossClients() {
+    BillingClient otherBillingClient = mock(BillingClient.class);
+    coordinator.querySkuDetails(
+        mockBillingClient, SkuType.INAPP, asList("a"), mock(SkuDetailsResponseListener.class));
+    coordinator.querySkuDetails(
+        otherBillingClient, SkuType.INAPP, asList("a"), mock(SkuDetailsResponseListener.class));
+
+    verify(mockBillingClient).querySkuDetailsAsync(any(), any());
+    verify(otherBillingClient).querySkuDetailsAsync(any(), any());
+  }
+
+  @Test
+  public void nullSkusListIsForwardedLikeAnEmptyOne() {
+    SkuDetailsResponseListener listener = mock(SkuDetailsResponseListener.class);
+    try {
+      coordinator.querySkuDetails(mockBillingClient, SkuType.INAPP, null, listener);
+      ArgumentCaptor<SkuDetailsParams> paramsCaptor =
+          ArgumentCaptor.forClass(SkuDetailsParams.class);
+      verify(mockBillingClient).querySkuDetailsAsync(paramsCaptor.capture(), eq(listener));
+      assertNull(paramsCaptor.getValue().getSkusList());
+    } catch (IllegalArgumentException e) {
+      // The billing library may reject the params itself, as it did before the coordinator.
+      verifyNoInteractions(mockBillingClient);
+    }
+  }
+
+  private static List<SkuDetails> buildSkuDetails(String... ids) {
+    List<SkuDetails> skuDetailsList = new ArrayList<>();
+    for (String id : ids) {
+      try {
+        skuDetailsList.add(
+            new SkuDetails(
+                String.format(
+                    "{\"productId\":\"%s\",\"type\":\"inapp\",\"price\":\"$0.99\",\"price_amount_micros\":990000,\"price_currency_code\":\"USD\",\"title\":\"Example title\",\"description\":\"Example description.\"}",
+                    id)));
+      } catch (JSONException e) {
+        fail("buildSkuDetails failed with JSONException " + e.toString());
+      }
+    }
+    return skuDetailsList;
+  }
+
+  private static List<String> skusOf(List<SkuDetails> skuDetailsList) {
+    List<String> skus = new ArrayList<>();
+    for (SkuDetails skuDetails : skuDetailsList) {
+      skus.add(skuDetails.getSku());
+    }
+    return skus;
+  }
+}
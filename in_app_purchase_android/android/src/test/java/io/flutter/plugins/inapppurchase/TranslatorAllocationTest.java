@@ -0,0 +1,109 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
+import com.android.billingclient.api.SkuDetails;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Keeps the bytes allocated to serialize one record within a budget, so that new fields or billing
+ * library upgrades do not quietly make serialization more expensive.
+ *
+ * <p>Allocation is read from the per thread counter of {@link com.sun.management.ThreadMXBean},
+ * averaged over many calls after a warm-up. The tests are skipped on JVMs without that counter. The
+ * budgets leave headroom over the cost of the records and of the billing getters, which build a new
+ * sku list and account identifiers on every call, but not enough for a per record hash map.
+ */
+public class TranslatorAllocationTest {
+  private static final String SKU_DETAIL_EXAMPLE_JSON =
+      "{\"productId\":\"sku1\",\"type\":\"inapp\",\"price\":\"$0.99\",\"price_amount_micros\":990000,\"price_currency_code\":\"USD\",\"title\":\"Title 1\",\"description\":\"Description 1.\",\"original_price\":\"$0.99\",\"original_price_micros\":990000}";
+  private static final String PURCHASE_EXAMPLE_JSON =
+      "{\"orderId\":\"order1\",\"packageName\":\"bar\",\"productId\":\"sku1\",\"purchaseTime\":1600000000001,\"purchaseState\":0,\"purchaseToken\":\"token1\",\"developerPayload\":\"dummy payload\",\"isAcknowledged\":\"true\",\"obfuscatedAccountId\":\"Account1\",\"obfuscatedProfileId\":\"Profile1\"}";
+
+  private static final int WARMUP_ITERATIONS = 10000;
+  private static final int ITERATIONS = 10000;
+
+  private static final long SKU_DETAIL_BUDGET_BYTES = 512;
+  private static final long PURCHASE_BUDGET_BYTES = 1024;
+  private static final long PURCHASE_HISTORY_RECORD_BUDGET_BYTES = 768;
+
+  private com.sun.management.ThreadMXBean threads;
+  // Keeps the serialized records reachable so that their allocation is not optimized away.
+  private int sink;
+  private Locale previousLocale;
+
+  @Before
+  public void setup() {
+    previousLocale = Locale.getDefault();
+    Locale.setDefault(new Locale("en", "us"));
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    Locale.setDefault(previousLocale);
+  }
+
+  @Test
+  public void fromSkuDetail_withinBudget() throws JSONException {
+    final SkuDetails skuDetails = new SkuDetails(SKU_DETAIL_EXAMPLE_JSON);
+
+    final double bytes = bytesPerCall(() -> sink += Translator.fromSkuDetail(skuDetails).size());
+
+    assertWithinBudget("fromSkuDetail", bytes, SKU_DETAIL_BUDGET_BYTES);
+  }
+
+  @Test
+  public void fromPurchase_withinBudget() throws JSONException {
+    final Purchase purchase = new Purchase(PURCHASE_EXAMPLE_JSON, "signature");
+
+    final double bytes = bytesPerCall(() -> sink += Translator.fromPurchase(purchase).size());
+
+    assertWithinBudget("fromPurchase", bytes, PURCHASE_BUDGET_BYTES);
+  }
+
+  @Test
+  public void fromPurchaseHistoryRecord_withinBudget() throws JSONException {
+    final PurchaseHistoryRecord record =
+        new PurchaseHistoryRecord(PURCHASE_EXAMPLE_JSON, "signature");
+
+    final double bytes =
+        bytesPerCall(() -> sink += Translator.fromPurchaseHistoryRecord(record).size());
+
+    assertWithinBudget("fromPurchaseHistoryRecord", bytes, PURCHASE_HISTORY_RECORD_BUDGET_BYTES);
+  }
+
+  private double bytesPerCall(Runnable call) {
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      call.run();
+    }
+    final long threadId = Thread.currentThread().getId();
+    final long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ITERATIONS; i++) {
+      call.run();
+    }
+    final long after = threads.getThreadAllocatedBytes(threadId);
+    return (after - before) / (double) ITERATIONS;
+  }
+
+  private static void assertWithinBudget(String method, double bytes, long budget) {
+    assertTrue(
+        String.format("%s allocated %.0f bytes per call, the budget is %d", method, bytes, budget),
+        bytes <= budget);
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.inapppurchase;
+
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryRecord;
+import com.android.billingclient.api.SkuDetails;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Measures how fast {@link Translator} serializes synthetic lists of billing records. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TranslatorBenchmark {
+  private static final String[] CURRENCY_CODES = {"USD", "EUR", "JPY", "GBP", "INR", "BRL"};
+
+  @Param({"10", "100", "1000", "10000"})
+  public int size;
+
+  private List<SkuDetails> skuDetailsList;
+  private List<Purchase> purchasesList;
+  private List<PurchaseHistoryRecord> purchaseHistoryRecordList;
+  private int currencyIndex;
+
+  @Setup
+  public void setUp() throws JSONException {
+    skuDetailsList = new ArrayList<>(size);
+    purchasesList = new ArrayList<>(size);
+    purchaseHistoryRecordList = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      skuDetailsList.add(new SkuDetails(skuDetailsJson(i)));
+      purchasesList.add(new Purchase(purchaseJson(i), "signature" + i));
+      purchaseHistoryRecordList.add(new PurchaseHistoryRecord(purchaseJson(i), "signature" + i));
+    }
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> fromSkuDetailsList() {
+    return Translator.fromSkuDetailsList(skuDetailsList);
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> fromPurchasesList() {
+    return Translator.fromPurchasesList(purchasesList);
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> fromPurchaseHistoryRecordList() {
+    return Translator.fromPurchaseHistoryRecordList(purchaseHistoryRecordList);
+  }
+
+  @Benchmark
+  public String currencySymbolFromCode() {
+    currencyIndex = (currencyIndex + 1) % CURRENCY_CODES.length;
+    return Translator.currencySymbolFromCode(CURRENCY_CODES[currencyIndex]);
+  }
+
+  static String skuDetailsJson(int i) {
+    return String.format(
+        "{\"productId\":\"sku%d\",\"type\":\"inapp\",\"price\":\"$0.99\",\"price_amount_micros\":990000,\"price_currency_code\":\"%s\",\"title\":\"Title %d\",\"description\":\"Description %d.\",\"original_price\":\"$0.99\",\"original_price_micros\":990000}",
+        i, CURRENCY_CODES[i % CURRENCY_CODES.length], i, i);
+  }
+
+  static String purchaseJson(int i) {
+    return String.format(
+        "{\"orderId\":\"order%d\",\"packageName\":\"bar\",\"productId\":\"sku%d\",\"purchaseTime\":%d,\"purchaseState\":0,\"purchaseToken\":\"token%d\",\"developerPayload\":\"dummy payload\",\"isAcknowledged\":\"true\",\"obfuscatedAccountId\":\"Account%d\",\"obfuscatedProfileId\":\"Profile%d\"}",
+        i, i, 1600000000000L + i, i, i, i);
+  }
+}
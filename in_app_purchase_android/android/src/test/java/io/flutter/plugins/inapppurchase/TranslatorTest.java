@@ -5,11 +5,12 @@
 package io.flutter.plugins.inapppurchase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
-import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import androidx.annotation.NonNull;
@@ -59,7 +60,7 @@ public class TranslatorTest {
         Arrays.asList(
             new SkuDetails(SKU_DETAIL_EXAMPLE_JSON), new SkuDetails(SKU_DETAIL_EXAMPLE_2_JSON));
 
-    final List<HashMap<String, Object>> serialized = Translator.fromSkuDetailsList(expected);
+    final List<Map<String, Object>> serialized = Translator.fromSkuDetailsList(expected);
 
     assertEquals(expected.size(), serialized.size());
     assertSerialized(expected.get(0), serialized.get(0));
@@ -87,6 +88,55 @@ public class TranslatorTest {
     assertNull(serialized.get("obfuscatedAccountId"));
   }
 
+  @Test
+  public void fromSkuDetail_fieldMask() throws JSONException {
+    final SkuDetails detail = new SkuDetails(SKU_DETAIL_EXAMPLE_JSON);
+
+    Map<String, Object> serialized =
+        Translator.fromSkuDetail(
+            detail, Translator.fieldMask(Arrays.asList("sku", "price", "priceAmountMicros")));
+
+    assertEquals(3, serialized.size());
+    assertEquals(detail.getSku(), serialized.get("sku"));
+    assertEquals(detail.getPrice(), serialized.get("price"));
+    assertEquals(detail.getPriceAmountMicros(), serialized.get("priceAmountMicros"));
+    assertFalse(serialized.containsKey("description"));
+  }
+
+  @Test
+  public void fromPurchase_fieldMask() throws JSONException {
+    final Purchase purchase = new Purchase(PURCHASE_EXAMPLE_JSON, "signature");
+
+    Map<String, Object> serialized =
+        Translator.fromPurchase(
+            purchase, Translator.fieldMask(Arrays.asList("purchaseToken", "purchaseState")));
+
+    assertEquals(2, serialized.size());
+    assertEquals(purchase.getPurchaseToken(), serialized.get("purchaseToken"));
+    assertEquals(purchase.getPurchaseState(), serialized.get("purchaseState"));
+    assertFalse(serialized.containsKey("originalJson"));
+    assertFalse(serialized.containsKey("signature"));
+  }
+
+  @Test
+  public void fromPurchasesList_fieldMaskSkipsSignatureVerification() throws JSONException {
+    final List<Purchase> purchases =
+        Collections.singletonList(new Purchase(PURCHASE_EXAMPLE_JSON, "signature"));
+    final PurchaseSignatureVerifier verifier = mock(PurchaseSignatureVerifier.class);
+
+    final List<Map<String, Object>> serialized =
+        Translator.fromPurchasesList(
+            purchases, verifier, Translator.fieldMask(Collections.singletonList("purchaseToken")));
+
+    verify(verifier, never()).verify(purchases);
+    assertFalse(serialized.get(0).containsKey("isSignatureVerified"));
+  }
+
+  @Test
+  public void fieldMask_absent() {
+    assertNull(Translator.fieldMask(null));
+  }
+
   @Test
   public void fromPurchaseHistoryRecord() throws JSONException {
     final PurchaseHistoryRecord expected =
@@ -104,7 +154,7 @@ public class TranslatorTest {
             new PurchaseHistoryRecord(PURCHASE_EXAMPLE_JSON, signature),
             new PurchaseHistoryRecord(purchase2Json, signature));
 
-    final List<HashMap<String, Object>> serialized =
+    final List<Map<String, Object>> serialized =
         Translator.fromPurchaseHistoryRecordList(expected);
 
     assertEquals(expected.size(), serialized.size());
@@ -126,7 +176,7 @@ public class TranslatorTest {
         Arrays.asList(
             new Purchase(PURCHASE_EXAMPLE_JSON, signature), new Purchase(purchase2Json, signature));
 
-    final List<HashMap<String, Object>> serialized = Translator.fromPurchasesList(expected);
+    final List<Map<String, Object>> serialized = Translator.fromPurchasesList(expected);
 
     assertEquals(expected.size(), serialized.size());
     assertSerialized(expected.get(0), serialized.get(0));
@@ -195,11 +245,21 @@ public class TranslatorTest {
   @Test
   public void currencyCodeFromSymbol() {
     assertEquals("$", Translator.currencySymbolFromCode("USD"));
+    // Unknown codes are returned as is.
+    assertEquals("EUROPACOIN", Translator.currencySymbolFromCode("EUROPACOIN"));
+  }
+
+  @Test
+  public void currencySymbolFromCode_followsLocaleChanges() {
+    final Locale previous = Locale.getDefault();
     try {
-      Translator.currencySymbolFromCode("EUROPACOIN");
-      fail("Translator should throw an exception");
-    } catch (Exception e) {
-      assertTrue(e instanceof IllegalArgumentException);
+      assertEquals("$", Translator.currencySymbolFromCode("USD"));
+      Locale.setDefault(Locale.CANADA);
+      assertEquals("US$", Translator.currencySymbolFromCode("USD"));
+      Locale.setDefault(previous);
+      assertEquals("$", Translator.currencySymbolFromCode("USD"));
+    } finally {
+      Locale.setDefault(previous);
     }
   }
 
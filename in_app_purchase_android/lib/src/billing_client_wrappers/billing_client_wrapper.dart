@@ -3,6 +3,7 @@
 // found in the LICENSE file.
 
 import 'dart:async';
+import 'dart:ui' show hashValues;
 import 'package:flutter/services.dart';
 import 'package:flutter/foundation.dart';
 import 'package:json_annotation/json_annotation.dart';
@@ -29,6 +30,13 @@ const String _kOnBillingServiceDisconnected =
 /// This does not provide any hooks for purchases made in the past. See
 /// [BillingClient.queryPurchases] and [BillingClient.queryPurchaseHistory].
 ///
+/// Once [BillingClient.startConnection] has been called, updates arriving in a
+/// burst are buffered natively and delivered in batches, in order, with only
+/// the latest state of each purchase token. The native buffer is bounded: when
+/// it overflows the oldest updates are dropped, and the callback is instead
+/// called with the results of [BillingClient.queryPurchases] for every
+/// [SkuType] after the rest of the batch.
+///
 /// All purchase information should also be verified manually, with your server
 /// if at all possible. See ["Verify a
 /// purchase"](https://developer.android.com/google/play/billing/billing_library_overview#Verify).
@@ -53,11 +61,20 @@ class BillingClient {
   bool _enablePendingPurchases = false;
 
   /// Creates a billing client.
-  BillingClient(PurchasesUpdatedListener onPurchasesUpdated) {
+  ///
+  /// Purchase updates are delivered as soon as they arrive. Pass a non zero
+  /// [purchaseUpdatesCoalescingWindow] to opt into coalescing: updates
+  /// reported within that window of each other are then delivered together,
+  /// keeping only the latest state of every purchase token.
+  BillingClient(PurchasesUpdatedListener onPurchasesUpdated,
+      {Duration purchaseUpdatesCoalescingWindow = Duration.zero})
+      : _purchaseUpdatesCoalescingWindow = purchaseUpdatesCoalescingWindow {
     channel.setMethodCallHandler(callHandler);
     _callbacks[kOnPurchasesUpdated] = [onPurchasesUpdated];
   }
 
+  final Duration _purchaseUpdatesCoalescingWindow;
+
   // Occasionally methods in the native layer require a Dart callback to be
   // triggered in response to a Java callback. For example,
   // [startConnection] registers an [OnBillingServiceDisconnected] callback.
@@ -68,6 +85,17 @@ class BillingClient {
   // in this array and call it in Dart code. See also [_callHandler].
   Map<String, List<Function>> _callbacks = <String, List<Function>>{};
 
+  StreamSubscription<dynamic>? _purchaseUpdatesSubscription;
+
+  // The purchase history stream in progress and its platform subscription,
+  // see [queryPurchaseHistoryStream].
+  StreamController<PurchasesHistoryResult>? _purchaseHistoryController;
+  StreamSubscription<dynamic>? _purchaseHistorySubscription;
+
+  // The purchases of the last delta mode [queryPurchases] of each sku type.
+  final Map<SkuType, _PurchaseSnapshot> _purchaseSnapshots =
+      <SkuType, _PurchaseSnapshot>{};
+
   /// Calls
   /// [`BillingClient#isReady()`](https://developer.android.com/reference/com/android/billingclient/api/BillingClient.html#isReady())
   /// to get the ready status of the BillingClient instance.
@@ -98,33 +126,67 @@ class BillingClient {
   /// `BillingClient.BillingResultWrapper` describing the connection result.
   ///
   /// This triggers the creation of a new `BillingClient` instance in Java if
-  /// one doesn't already exist.
+  /// one doesn't already exist. If the connection is already up, or still
+  /// being set up, for example because the app enabled the connection warm-up
+  /// with the `io.flutter.plugins.inapppurchase.WARM_UP_CONNECTION` manifest
+  /// meta-data, it is reused instead of connecting again.
+  ///
+  /// When [autoReconnect] is true, the plugin reconnects natively whenever the
+  /// connection to Play drops or fails to set up with a transient error,
+  /// waiting a jittered, exponentially growing delay between attempts. In that
+  /// mode [onBillingServiceDisconnected] is not called for dropped
+  /// connections; listen to [connectionStateStream] to follow the reconnects.
   Future<BillingResultWrapper> startConnection(
-      {required OnBillingServiceDisconnected
-          onBillingServiceDisconnected}) async {
+      {required OnBillingServiceDisconnected onBillingServiceDisconnected,
+      bool autoReconnect = false}) async {
     assert(_enablePendingPurchases,
         'enablePendingPurchases() must be called before calling startConnection');
     List<Function> disconnectCallbacks =
         _callbacks[_kOnBillingServiceDisconnected] ??= [];
     disconnectCallbacks.add(onBillingServiceDisconnected);
+    // asyncMap handles one batch at a time, so the purchases queried after an
+    // overflow are reported before any newer batch.
+    _purchaseUpdatesSubscription ??=
+        purchaseUpdatesChannel.receiveBroadcastStream(<String, dynamic>{
+      'coalescingWindowMillis':
+          _purchaseUpdatesCoalescingWindow.inMilliseconds,
+    }).asyncMap(_onPurchaseUpdates).listen(null,
+            onError: (Object error) => _reportPurchaseUpdatesError(
+                error is PlatformException ? error.message : error.toString()));
     return BillingResultWrapper.fromJson((await channel
             .invokeMapMethod<String, dynamic>(
                 "BillingClient#startConnection(BillingClientStateListener)",
                 <String, dynamic>{
               'handle': disconnectCallbacks.length - 1,
-              'enablePendingPurchases': _enablePendingPurchases
+              'enablePendingPurchases': _enablePendingPurchases,
+              if (autoReconnect) 'autoReconnect': true,
             })) ??
         <String, dynamic>{});
   }
 
+  /// The state of the native connection to Play.
+  ///
+  /// The current state is emitted as soon as the stream is listened to, then
+  /// every transition after it, including the native reconnects enabled by the
+  /// `autoReconnect` argument of [startConnection].
+  Stream<BillingConnectionStatus> get connectionStateStream =>
+      connectionStateChannel.receiveBroadcastStream().map((dynamic event) =>
+          BillingConnectionStatus.fromMap(
+              (event as Map<dynamic, dynamic>).cast<String, dynamic>()));
+
   /// Calls
   /// [`BillingClient#endConnection(BillingClientStateListener)`](https://developer.android.com/reference/com/android/billingclient/api/BillingClient.html#endconnect
   /// to disconnect a `BillingClient` instance.
   ///
   /// Will trigger the [OnBillingServiceDisconnected] callback passed to [startConnection].
   ///
-  /// This triggers the destruction of the `BillingClient` instance in Java.
+  /// This triggers the destruction of the `BillingClient` instance in Java and
+  /// stops listening to the batched purchase updates until [startConnection]
+  /// is called again.
   Future<void> endConnection() async {
+    _purchaseSnapshots.clear();
+    await _purchaseUpdatesSubscription?.cancel();
+    _purchaseUpdatesSubscription = null;
     return channel.invokeMethod<void>("BillingClient#endConnection()", null);
   }
 
@@ -137,11 +199,19 @@ class BillingClient {
   /// [SkuDetailsResponseWrapper]. It also takes the values of
   /// `SkuDetailsParams` as direct arguments instead of requiring it constructed
   /// and passed in as a class.
+  ///
+  /// If [fields] is set, only the [SkuDetailsWrapper] fields with those JSON
+  /// names are read and sent by the platform side, the others keep their
+  /// default values. For example `['sku', 'price', 'type']` is enough for a
+  /// price list and skips the descriptions and introductory prices.
   Future<SkuDetailsResponseWrapper> querySkuDetails(
-      {required SkuType skuType, required List<String> skusList}) async {
+      {required SkuType skuType,
+      required List<String> skusList,
+      List<String>? fields}) async {
     final Map<String, dynamic> arguments = <String, dynamic>{
       'skuType': SkuTypeConverter().toJson(skuType),
-      'skusList': skusList
+      'skusList': skusList,
+      if (fields != null) 'fields': fields,
     };
     return SkuDetailsResponseWrapper.fromJson((await channel.invokeMapMethod<
                 String, dynamic>(
@@ -150,10 +220,40 @@ class BillingClient {
         <String, dynamic>{});
   }
 
+  /// Returns the [SkuDetailsWrapper]s that the native side already holds for
+  /// `skusList`, without waiting for Play.
+  ///
+  /// The plugin persists every fetched `SkuDetails` on disk and restores them
+  /// when the plugin is attached, so this is able to answer right after a cold
+  /// start, before [startConnection] has completed. Restored entries are
+  /// refreshed from Play in the background once connected. Skus that are not
+  /// cached are left out of the response.
+  ///
+  /// Details returned here can be passed straight to [launchBillingFlow].
+  /// [fields] works like it does for [querySkuDetails].
+  Future<SkuDetailsResponseWrapper> queryCachedSkuDetails(
+      {required SkuType skuType,
+      required List<String> skusList,
+      List<String>? fields}) async {
+    final Map<String, dynamic> arguments = <String, dynamic>{
+      'skuType': SkuTypeConverter().toJson(skuType),
+      'skusList': skusList,
+      if (fields != null) 'fields': fields,
+    };
+    return SkuDetailsResponseWrapper.fromJson((await channel
+            .invokeMapMethod<String, dynamic>(
+                'BillingClient#queryCachedSkuDetails(String, List<String>)',
+                arguments)) ??
+        <String, dynamic>{});
+  }
+
   /// Attempt to launch the Play Billing Flow for a given [skuDetails].
   ///
   /// The [skuDetails] needs to have already been fetched in a [querySkuDetails]
-  /// call. The [accountId] is an optional hashed string associated with the user
+  /// call. Details the plugin released from memory under memory pressure are
+  /// restored from its disk cache, so a sku fetched within the last day can
+  /// still be bought; otherwise the call fails with `NOT_FOUND` and the sku has
+  /// to be fetched again. The [accountId] is an optional hashed string associated with the user
   /// that's unique to your app. It's used by Google to detect unusual behavior.
   /// Do not pass in a cleartext [accountId], and do not use this field to store any Personally Identifiable Information (PII)
   /// such as emails in cleartext. Attempting to store PII in this field will result in purchases being blocked.
@@ -222,13 +322,85 @@ class BillingClient {
   ///
   /// This wraps [`BillingClient#queryPurchases(String
   /// skutype)`](https://developer.android.com/reference/com/android/billingclient/api/BillingClient#querypurchases).
-  Future<PurchasesResultWrapper> queryPurchases(SkuType skuType) async {
+  ///
+  /// If [fields] is set, only the [PurchaseWrapper] fields with those JSON
+  /// names are read and sent by the platform side, the others keep their
+  /// default values. An entitlement check can for example pass
+  /// `['skus', 'purchaseToken', 'purchaseState', 'isAcknowledged']` to skip
+  /// the original JSON and the signature. Signatures are only verified, see
+  /// [setPurchaseVerificationKey], if `isSignatureVerified` is one of them.
+  ///
+  /// When [delta] is true the platform side only sends the purchases that
+  /// were added or changed since the last delta query of [skuType], and the
+  /// tokens of the removed ones. The full list is then rebuilt from the
+  /// purchases this client kept from the previous queries, so polling while
+  /// nothing changes costs next to nothing. The purchases are matched by
+  /// token, so `purchaseToken` is always read in delta mode, even if [fields]
+  /// leaves it out.
+  Future<PurchasesResultWrapper> queryPurchases(SkuType skuType,
+      {List<String>? fields, bool delta = false}) async {
     assert(skuType != null);
-    return PurchasesResultWrapper.fromJson((await channel
+    final _PurchaseSnapshot? snapshot =
+        delta ? _purchaseSnapshots[skuType] : null;
+    final List<String>? requestedFields =
+        delta && fields != null && !fields.contains('purchaseToken')
+            ? <String>[...fields, 'purchaseToken']
+            : fields;
+    final Map<String, dynamic> response = (await channel
             .invokeMapMethod<String, dynamic>(
                 'BillingClient#queryPurchases(String)', <String, dynamic>{
-          'skuType': SkuTypeConverter().toJson(skuType)
+          'skuType': SkuTypeConverter().toJson(skuType),
+          if (requestedFields != null) 'fields': requestedFields,
+          if (delta) 'delta': true,
+          if (snapshot != null) 'snapshotVersion': snapshot.version,
         })) ??
+        <String, dynamic>{};
+    final PurchasesResultWrapper result =
+        PurchasesResultWrapper.fromJson(response);
+    // Failed queries are answered in full.
+    if (!delta || response['snapshotVersion'] == null) {
+      return result;
+    }
+
+    final bool fullSnapshot = response['fullSnapshot'] as bool? ?? true;
+    if (!fullSnapshot &&
+        (snapshot == null || _purchaseSnapshots[skuType] != snapshot)) {
+      // Another delta query replaced the snapshot this one was based on.
+      _purchaseSnapshots.remove(skuType);
+      return queryPurchases(skuType, fields: fields, delta: true);
+    }
+    final Map<String, PurchaseWrapper> purchasesByToken = fullSnapshot
+        ? <String, PurchaseWrapper>{}
+        : Map<String, PurchaseWrapper>.of(snapshot!.purchasesByToken);
+    for (final dynamic token
+        in response['removedPurchaseTokens'] as List<dynamic>? ?? <dynamic>[]) {
+      purchasesByToken.remove(token);
+    }
+    for (final PurchaseWrapper purchase in result.purchasesList) {
+      purchasesByToken[purchase.purchaseToken] = purchase;
+    }
+    _purchaseSnapshots[skuType] = _PurchaseSnapshot(
+        response['snapshotVersion'] as int, purchasesByToken);
+    return PurchasesResultWrapper(
+        responseCode: result.responseCode,
+        billingResult: result.billingResult,
+        purchasesList: purchasesByToken.values.toList());
+  }
+
+  /// Fetches recent purchases of every [SkuType] in a single call.
+  ///
+  /// This is equivalent to calling [queryPurchases] for [SkuType.inapp] and
+  /// [SkuType.subs], except that both queries run concurrently on the native
+  /// side and come back as one [PurchasesResultWrapper]. A purchase is only
+  /// listed once even if Play reports it for both types. If either query fails,
+  /// the result carries the failing response code. [fields] works like it
+  /// does for [queryPurchases].
+  Future<PurchasesResultWrapper> queryAllPurchases(
+      {List<String>? fields}) async {
+    return PurchasesResultWrapper.fromJson((await channel
+            .invokeMapMethod<String, dynamic>(
+                'BillingClient#queryAllPurchases()',
+                fields == null ? null : <String, dynamic>{'fields': fields})) ??
         <String, dynamic>{});
   }
 
@@ -245,17 +417,88 @@ class BillingClient {
   /// This wraps [`BillingClient#queryPurchaseHistoryAsync(String skuType,
   /// PurchaseHistoryResponseListener
   /// listener)`](https://developer.android.com/reference/com/android/billingclient/api/BillingClient#querypurchasehistoryasync).
-  Future<PurchasesHistoryResult> queryPurchaseHistory(SkuType skuType) async {
+  ///
+  /// If [fields] is set, only the [PurchaseHistoryRecordWrapper] fields with
+  /// those JSON names are read and sent by the platform side.
+  Future<PurchasesHistoryResult> queryPurchaseHistory(SkuType skuType,
+      {List<String>? fields}) async {
     assert(skuType != null);
     return PurchasesHistoryResult.fromJson((await channel.invokeMapMethod<
                 String, dynamic>(
             'BillingClient#queryPurchaseHistoryAsync(String, PurchaseHistoryResponseListener)',
             <String, dynamic>{
-              'skuType': SkuTypeConverter().toJson(skuType)
+              'skuType': SkuTypeConverter().toJson(skuType),
+              if (fields != null) 'fields': fields,
             })) ??
         <String, dynamic>{});
   }
 
+  /// Streams the purchase history for the given [SkuType] in chunks of at
+  /// most [chunkSize] records.
+  ///
+  /// This makes the same request as [queryPurchaseHistory], but the platform
+  /// side translates and sends the records one chunk at a time, so the first
+  /// records can be shown before the whole history has been received. Every
+  /// chunk carries the [BillingResultWrapper] of the request, and the stream
+  /// closes after the last chunk. An empty history is sent as a single empty
+  /// chunk. [fields] works like it does for [queryPurchaseHistory].
+  ///
+  /// Only one history stream can be active at a time: listening to a new one
+  /// cancels the stream in progress, which then reports a [PlatformException]
+  /// with the `CANCELLED` code and closes.
+  Stream<PurchasesHistoryResult> queryPurchaseHistoryStream(SkuType skuType,
+      {int chunkSize = 50, List<String>? fields}) {
+    assert(chunkSize > 0);
+    late final StreamController<PurchasesHistoryResult> controller;
+    controller = StreamController<PurchasesHistoryResult>.broadcast(
+      onListen: () {
+        final StreamController<PurchasesHistoryResult>? superseded =
+            _purchaseHistoryController;
+        // Cancelled before listening again, so the platform handles the
+        // cancel before the new query.
+        _endPurchaseHistoryStream();
+        if (superseded != null) {
+          superseded.addError(PlatformException(
+              code: 'CANCELLED',
+              message: 'Superseded by a newer purchase history stream.'));
+          superseded.close();
+        }
+        _purchaseHistoryController = controller;
+        _purchaseHistorySubscription =
+            purchaseHistoryChannel.receiveBroadcastStream(<String, dynamic>{
+          'skuType': SkuTypeConverter().toJson(skuType),
+          'chunkSize': chunkSize,
+          if (fields != null) 'fields': fields,
+        }).listen(
+          (dynamic chunk) => controller.add(PurchasesHistoryResult.fromJson(
+              Map<String, dynamic>.from(chunk as Map))),
+          onError: controller.addError,
+          onDone: () {
+            if (_purchaseHistoryController == controller) {
+              _purchaseHistoryController = null;
+              _purchaseHistorySubscription = null;
+            }
+            controller.close();
+          },
+        );
+      },
+      onCancel: () {
+        if (_purchaseHistoryController == controller) {
+          _endPurchaseHistoryStream();
+        }
+      },
+    );
+    return controller.stream;
+  }
+
+  Future<void>? _endPurchaseHistoryStream() {
+    final StreamSubscription<dynamic>? subscription =
+        _purchaseHistorySubscription;
+    _purchaseHistoryController = null;
+    _purchaseHistorySubscription = null;
+    return subscription?.cancel();
+  }
+
   /// Consumes a given in-app product.
   ///
   /// Consuming can only be done on an item that's owned, and as a result of consumption, the user will no longer own it.
@@ -301,6 +544,70 @@ class BillingClient {
         <String, dynamic>{});
   }
 
+  /// Acknowledges every purchase in [purchaseTokens] in a single channel call.
+  ///
+  /// This makes the same Play calls as [acknowledgePurchase], at most
+  /// [maxConcurrentCalls] at a time, and completes once all of them have
+  /// answered with the [BillingResultWrapper] of each token. Repeated tokens
+  /// are only acknowledged once.
+  Future<Map<String, BillingResultWrapper>> acknowledgePurchases(
+      List<String> purchaseTokens,
+      {int maxConcurrentCalls = 4}) {
+    return _runPurchaseTokenBatch(
+        'BillingClient#acknowledgePurchases(List<String>)',
+        purchaseTokens,
+        maxConcurrentCalls);
+  }
+
+  /// Consumes every purchase in [purchaseTokens] in a single channel call.
+  ///
+  /// This makes the same Play calls as [consumeAsync], at most
+  /// [maxConcurrentCalls] at a time, and completes once all of them have
+  /// answered with the [BillingResultWrapper] of each token. Repeated tokens
+  /// are only consumed once.
+  Future<Map<String, BillingResultWrapper>> consumePurchases(
+      List<String> purchaseTokens,
+      {int maxConcurrentCalls = 4}) {
+    return _runPurchaseTokenBatch('BillingClient#consumePurchases(List<String>)',
+        purchaseTokens, maxConcurrentCalls);
+  }
+
+  Future<Map<String, BillingResultWrapper>> _runPurchaseTokenBatch(
+      String method, List<String> purchaseTokens, int maxConcurrentCalls) async {
+    assert(maxConcurrentCalls > 0);
+    final Map<String, dynamic> results =
+        (await channel.invokeMapMethod<String, dynamic>(method,
+                <String, dynamic>{
+              'purchaseTokens': purchaseTokens,
+              'maxConcurrentCalls': maxConcurrentCalls,
+            })) ??
+            <String, dynamic>{};
+    return results.map((String token, dynamic result) =>
+        MapEntry<String, BillingResultWrapper>(
+            token,
+            BillingResultWrapper.fromJson(
+                Map<String, dynamic>.from(result as Map<dynamic, dynamic>))));
+  }
+
+  /// Verifies the signature of every purchase on the platform side with
+  /// [base64PublicKey], the app's Base64 encoded licensing key from the Play
+  /// Console.
+  ///
+  /// The key is decoded once. The purchases returned by [queryPurchases] and
+  /// [queryAllPurchases], and the purchase updates, are then verified in
+  /// batches off the platform thread, with the result in
+  /// [PurchaseWrapper.isSignatureVerified]. Passing `null` turns verification
+  /// off again. Throws a [PlatformException] if the key cannot be decoded.
+  ///
+  /// Verifying on the device is no substitute for verifying on a server, see
+  /// ["Verify a
+  /// purchase"](https://developer.android.com/google/play/billing/billing_library_overview#Verify).
+  Future<void> setPurchaseVerificationKey(String? base64PublicKey) {
+    return channel.invokeMethod<void>(
+        'BillingClient#setPurchaseVerificationKey(String)',
+        <String, dynamic>{'base64PublicKey': base64PublicKey});
+  }
+
   /// Checks if the specified feature or capability is supported by the Play Store.
   /// Call this to check if a [BillingClientFeature] is supported by the device.
   Future<bool> isFeatureSupported(BillingClientFeature feature) async {
@@ -331,6 +638,41 @@ class BillingClient {
         <String, dynamic>{});
   }
 
+  /// Returns the counters of the native sku details cache.
+  ///
+  /// The map contains the current `size`, the `maxSize` bound, and the
+  /// `hitCount`, `missCount`, `putCount` and `evictionCount` totals since the
+  /// plugin was attached. Use it to size the cache for your catalog: a growing
+  /// `evictionCount` means `maxSize` is smaller than the set of skus the app
+  /// uses. Raise the bound with the
+  /// `io.flutter.plugins.inapppurchase.SKU_CACHE_MAX_SIZE` integer manifest
+  /// meta-data, or `InAppPurchasePlugin.setSkuCacheMaxSize` before the engine
+  /// is created.
+  Future<Map<String, dynamic>> getSkuCacheStats() async {
+    return (await channel.invokeMapMethod<String, dynamic>(
+            'BillingClient#getSkuCacheStats()')) ??
+        <String, dynamic>{};
+  }
+
+  /// Returns latency histograms of the requests the plugin sent to Play.
+  ///
+  /// The map is keyed by method name, then by `BillingResponse` code as a
+  /// string, with codes this version does not know grouped under `other`,
+  /// then by phase: `ipc` is the time Play took to answer,
+  /// `serialization` the time spent translating the answer, `queue` the time
+  /// spent waiting for threads before replying and `mainThread` the time the
+  /// reply blocked the platform main thread. Calls dispatched on the main
+  /// thread also record the time the dispatch blocked it, as the `mainThread`
+  /// phase under the `none` code. Each phase holds the
+  /// `count`, `sumMicros`, `maxMicros`, the `p50Micros`, `p90Micros` and
+  /// `p99Micros` percentiles and the raw power of two `buckets` in
+  /// microseconds.
+  Future<Map<String, dynamic>> getMetrics() async {
+    return (await channel
+            .invokeMapMethod<String, dynamic>('BillingClient#getMetrics()')) ??
+        <String, dynamic>{};
+  }
+
   /// The method call handler for [channel].
   @visibleForTesting
   Future<void> callHandler(MethodCall call) async {
@@ -349,6 +691,36 @@ class BillingClient {
         break;
     }
   }
+
+  Future<void> _onPurchaseUpdates(dynamic event) async {
+    final Map<dynamic, dynamic> batch = event as Map<dynamic, dynamic>;
+    final PurchasesUpdatedListener listener =
+        _callbacks[kOnPurchasesUpdated]!.first as PurchasesUpdatedListener;
+    for (final dynamic update in batch['updates'] as List<dynamic>) {
+      listener(PurchasesResultWrapper.fromJson(
+          Map<String, dynamic>.from(update as Map<dynamic, dynamic>)));
+    }
+    if ((batch['droppedCount'] as int? ?? 0) > 0) {
+      // The native buffer overflowed, report what is owned now instead of the
+      // dropped transitions.
+      try {
+        listener(await queryPurchases(SkuType.inapp));
+        listener(await queryPurchases(SkuType.subs));
+      } on PlatformException catch (e) {
+        _reportPurchaseUpdatesError(e.message);
+      }
+    }
+  }
+
+  void _reportPurchaseUpdatesError(String? debugMessage) {
+    final PurchasesUpdatedListener listener =
+        _callbacks[kOnPurchasesUpdated]!.first as PurchasesUpdatedListener;
+    listener(PurchasesResultWrapper(
+        responseCode: BillingResponse.error,
+        billingResult: BillingResultWrapper(
+            responseCode: BillingResponse.error, debugMessage: debugMessage),
+        purchasesList: <PurchaseWrapper>[]));
+  }
 }
 
 /// Callback triggered when the [BillingClientWrapper] is disconnected.
@@ -358,6 +730,67 @@ class BillingClient {
 /// to call back on `BillingClient` disconnect.
 typedef void OnBillingServiceDisconnected();
 
+/// The states of the native connection to Play, see
+/// [BillingClient.connectionStateStream].
+enum BillingConnectionState {
+  /// Not connected, and no reconnect is scheduled.
+  disconnected,
+
+  /// A connection is being set up.
+  connecting,
+
+  /// Connected and ready to use.
+  connected,
+
+  /// The connection was lost and a reconnect is scheduled.
+  waitingToReconnect,
+}
+
+/// A transition of the native connection to Play.
+@immutable
+class BillingConnectionStatus {
+  /// Creates a status.
+  const BillingConnectionStatus(
+      {required this.state, required this.attempt, this.retryDelay});
+
+  /// Builds a status from the map sent by the platform side.
+  factory BillingConnectionStatus.fromMap(Map<String, dynamic> map) {
+    final BillingConnectionState state =
+        BillingConnectionState.values[map['state'] as int];
+    return BillingConnectionStatus(
+      state: state,
+      attempt: map['attempt'] as int,
+      retryDelay: state == BillingConnectionState.waitingToReconnect
+          ? Duration(milliseconds: map['retryDelayMillis'] as int)
+          : null,
+    );
+  }
+
+  /// The current state.
+  final BillingConnectionState state;
+
+  /// The number of consecutive reconnects scheduled since the connection was
+  /// last stable.
+  final int attempt;
+
+  /// The delay before the next reconnect, when [state] is
+  /// [BillingConnectionState.waitingToReconnect].
+  final Duration? retryDelay;
+
+  @override
+  bool operator ==(Object other) {
+    if (identical(other, this)) return true;
+    if (other.runtimeType != runtimeType) return false;
+    return other is BillingConnectionStatus &&
+        other.state == state &&
+        other.attempt == attempt &&
+        other.retryDelay == retryDelay;
+  }
+
+  @override
+  int get hashCode => hashValues(state, attempt, retryDelay);
+}
+
 /// Possible `BillingClient` response statuses.
 ///
 /// Wraps
@@ -504,3 +937,10 @@ enum BillingClientFeature {
   @JsonValue('subscriptionsUpdate')
   subscriptionsUpdate
 }
+
+class _PurchaseSnapshot {
+  _PurchaseSnapshot(this.version, this.purchasesByToken);
+
+  final int version;
+  final Map<String, PurchaseWrapper> purchasesByToken;
+}
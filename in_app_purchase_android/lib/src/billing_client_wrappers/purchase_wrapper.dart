@@ -41,6 +41,7 @@ class PurchaseWrapper {
     required this.purchaseState,
     this.obfuscatedAccountId,
     this.obfuscatedProfileId,
+    this.isSignatureVerified,
   });
 
   /// Factory for creating a [PurchaseWrapper] from a [Map] with the purchase details.
@@ -61,7 +62,8 @@ class PurchaseWrapper {
         typedOther.isAutoRenewing == isAutoRenewing &&
         typedOther.originalJson == originalJson &&
         typedOther.isAcknowledged == isAcknowledged &&
-        typedOther.purchaseState == purchaseState;
+        typedOther.purchaseState == purchaseState &&
+        typedOther.isSignatureVerified == isSignatureVerified;
   }
 
   @override
@@ -75,7 +77,8 @@ class PurchaseWrapper {
       isAutoRenewing,
       originalJson,
       isAcknowledged,
-      purchaseState);
+      purchaseState,
+      isSignatureVerified);
 
   /// The unique ID for this purchase. Corresponds to the Google Payments order
   /// ID.
@@ -110,6 +113,7 @@ class PurchaseWrapper {
   /// false.
   ///
   /// The value is `false` for [SkuType.inapp] products.
+  @JsonKey(defaultValue: false)
   final bool isAutoRenewing;
 
   /// Details about this purchase, in JSON.
@@ -154,6 +158,13 @@ class PurchaseWrapper {
   /// directly calling [BillingClient.launchBillingFlow] and is not available
   /// on the generic [InAppPurchasePlatform].
   final String? obfuscatedProfileId;
+
+  /// Whether [signature] is valid for [originalJson], as checked on the device.
+  ///
+  /// The value is `null` unless a public key was passed to
+  /// [BillingClient.setPurchaseVerificationKey]. Verifying on the device is no
+  /// substitute for verifying on a server.
+  final bool? isSignatureVerified;
 }
 
 /// Data structure representing a purchase history record.
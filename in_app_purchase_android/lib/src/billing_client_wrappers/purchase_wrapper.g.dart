@@ -14,7 +14,7 @@ PurchaseWrapper _$PurchaseWrapperFromJson(Map json) {
     purchaseToken: json['purchaseToken'] as String? ?? '',
     signature: json['signature'] as String? ?? '',
     sku: json['sku'] as String? ?? '',
-    isAutoRenewing: json['isAutoRenewing'] as bool,
+    isAutoRenewing: json['isAutoRenewing'] as bool? ?? false,
     originalJson: json['originalJson'] as String? ?? '',
     developerPayload: json['developerPayload'] as String?,
     isAcknowledged: json['isAcknowledged'] as bool? ?? false,
@@ -22,6 +22,7 @@ PurchaseWrapper _$PurchaseWrapperFromJson(Map json) {
         const PurchaseStateConverter().fromJson(json['purchaseState'] as int?),
     obfuscatedAccountId: json['obfuscatedAccountId'] as String?,
     obfuscatedProfileId: json['obfuscatedProfileId'] as String?,
+    isSignatureVerified: json['isSignatureVerified'] as bool?,
   );
 }
 
@@ -41,6 +42,7 @@ Map<String, dynamic> _$PurchaseWrapperToJson(PurchaseWrapper instance) =>
           const PurchaseStateConverter().toJson(instance.purchaseState),
       'obfuscatedAccountId': instance.obfuscatedAccountId,
       'obfuscatedProfileId': instance.obfuscatedProfileId,
+      'isSignatureVerified': instance.isSignatureVerified,
     };
 
 PurchaseHistoryRecordWrapper _$PurchaseHistoryRecordWrapperFromJson(Map json) {
@@ -2,8 +2,169 @@
 // Use of this source code is governed by a BSD-style license that can be
 // found in the LICENSE file.
 
+import 'package:flutter/foundation.dart';
 import 'package:flutter/services.dart';
 
 /// Method channel for the plugin's platform<-->Dart calls.
-const MethodChannel channel =
-    MethodChannel('plugins.flutter.io/in_app_purchase');
+const MethodChannel channel = MethodChannel('plugins.flutter.io/in_app_purchase',
+    StandardMethodCodec(InAppPurchaseMessageCodec()));
+
+/// Event channel streaming the state of the native connection to Play.
+const EventChannel connectionStateChannel =
+    EventChannel('plugins.flutter.io/in_app_purchase_connection_state');
+
+/// Event channel streaming the purchase history in chunks.
+const EventChannel purchaseHistoryChannel = EventChannel(
+    'plugins.flutter.io/in_app_purchase_purchase_history',
+    StandardMethodCodec(InAppPurchaseMessageCodec()));
+
+/// Event channel streaming batches of purchase updates.
+const EventChannel purchaseUpdatesChannel = EventChannel(
+    'plugins.flutter.io/in_app_purchase_purchase_updates',
+    StandardMethodCodec(InAppPurchaseMessageCodec()));
+
+/// Decodes the positional records the platform side sends for sku details,
+/// purchases and purchase history records.
+///
+/// A record is the type tag `128`, a schema id, an int32 bitmask of the fields
+/// that are present and then the present fields in schema order. Each record is
+/// decoded into the same `Map<String, dynamic>` the `fromJson` constructors of
+/// the wrappers expect, so they do not need to know about the wire format.
+///
+/// WARNING: The format needs to stay in sync with `InAppPurchaseMessageCodec`
+/// and `RecordSchema` in the Android plugin.
+@visibleForTesting
+class InAppPurchaseMessageCodec extends StandardMessageCodec {
+  /// Creates the codec.
+  const InAppPurchaseMessageCodec();
+
+  static const int _kRecord = 128;
+
+  @override
+  dynamic readValueOfType(int type, ReadBuffer buffer) {
+    if (type != _kRecord) {
+      return super.readValueOfType(type, buffer);
+    }
+
+    final _RecordSchema schema = _recordSchemas[buffer.getUint8()];
+    final int presence = buffer.getInt32();
+    final Map<String, dynamic> record = <String, dynamic>{};
+    for (int i = 0; i < schema.fields.length; i++) {
+      if ((presence & (1 << i)) == 0) {
+        continue;
+      }
+      switch (schema.kinds[i]) {
+        case _FieldKind.int64:
+          record[schema.fields[i]] = buffer.getInt64();
+          break;
+        case _FieldKind.int32:
+          record[schema.fields[i]] = buffer.getInt32();
+          break;
+        case _FieldKind.boolean:
+          record[schema.fields[i]] = buffer.getUint8() != 0;
+          break;
+        case _FieldKind.value:
+          record[schema.fields[i]] = readValue(buffer);
+          break;
+      }
+    }
+    return record;
+  }
+}
+
+enum _FieldKind { value, int64, int32, boolean }
+
+class _RecordSchema {
+  const _RecordSchema(this.fields, this.kinds);
+
+  final List<String> fields;
+  final List<_FieldKind> kinds;
+}
+
+// Indexed by schema id.
+const List<_RecordSchema> _recordSchemas = <_RecordSchema>[
+  // Sku details.
+  _RecordSchema(<String>[
+    'title',
+    'description',
+    'freeTrialPeriod',
+    'introductoryPrice',
+    'introductoryPriceAmountMicros',
+    'introductoryPriceCycles',
+    'introductoryPricePeriod',
+    'price',
+    'priceAmountMicros',
+    'priceCurrencyCode',
+    'priceCurrencySymbol',
+    'sku',
+    'type',
+    'subscriptionPeriod',
+    'originalPrice',
+    'originalPriceAmountMicros',
+  ], <_FieldKind>[
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.int64,
+    _FieldKind.int32,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.int64,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.int64,
+  ]),
+  // Purchase.
+  _RecordSchema(<String>[
+    'orderId',
+    'packageName',
+    'purchaseTime',
+    'purchaseToken',
+    'signature',
+    'skus',
+    'isAutoRenewing',
+    'originalJson',
+    'developerPayload',
+    'isAcknowledged',
+    'purchaseState',
+    'obfuscatedAccountId',
+    'obfuscatedProfileId',
+    'isSignatureVerified',
+  ], <_FieldKind>[
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.int64,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.boolean,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.boolean,
+    _FieldKind.int32,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.boolean,
+  ]),
+  // Purchase history record.
+  _RecordSchema(<String>[
+    'purchaseTime',
+    'purchaseToken',
+    'signature',
+    'skus',
+    'developerPayload',
+    'originalJson',
+  ], <_FieldKind>[
+    _FieldKind.int64,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+    _FieldKind.value,
+  ]),
+];
@@ -179,12 +179,9 @@ class InAppPurchaseAndroidPlatform extends InAppPurchasePlatform {
   Future<void> restorePurchases({
     String? applicationUserName,
   }) async {
-    List<PurchasesResultWrapper> responses;
-
-    responses = await Future.wait([
-      billingClient.queryPurchases(SkuType.inapp),
-      billingClient.queryPurchases(SkuType.subs)
-    ]);
+    List<PurchasesResultWrapper> responses = <PurchasesResultWrapper>[
+      await billingClient.queryAllPurchases()
+    ];
 
     Set errorCodeSet = responses
         .where((PurchasesResultWrapper response) =>
@@ -2,6 +2,8 @@
 // Use of this source code is governed by a BSD-style license that can be
 // found in the LICENSE file.
 
+import 'dart:async';
+
 import 'package:flutter_test/flutter_test.dart';
 import 'package:flutter/services.dart';
 import 'package:in_app_purchase_android/billing_client_wrappers.dart';
@@ -18,8 +20,10 @@ void main() {
   final StubInAppPurchasePlatform stubPlatform = StubInAppPurchasePlatform();
   late BillingClient billingClient;
 
-  setUpAll(() =>
-      channel.setMockMethodCallHandler(stubPlatform.fakeMethodCallHandler));
+  setUpAll(() {
+    channel.setMockMethodCallHandler(stubPlatform.fakeMethodCallHandler);
+    stubPlatform.stubEventChannel(purchaseUpdatesChannel);
+  });
 
   setUp(() {
     billingClient = BillingClient((PurchasesResultWrapper _) {});
@@ -97,6 +101,26 @@ void main() {
               <dynamic, dynamic>{'handle': 0, 'enablePendingPurchases': true}));
     });
 
+    test('passes autoReconnect when enabled', () async {
+      stubPlatform.addResponse(
+        name: methodName,
+        value: <String, dynamic>{
+          'responseCode': BillingResponseConverter().toJson(BillingResponse.ok),
+          'debugMessage': '',
+        },
+      );
+      await billingClient.startConnection(
+          onBillingServiceDisconnected: () {}, autoReconnect: true);
+      final MethodCall call = stubPlatform.previousCallMatching(methodName);
+      expect(
+          call.arguments,
+          equals(<dynamic, dynamic>{
+            'handle': 0,
+            'enablePendingPurchases': true,
+            'autoReconnect': true,
+          }));
+    });
+
     test('handles method channel returning null', () async {
       stubPlatform.addResponse(
         name: methodName,
@@ -112,6 +136,32 @@ void main() {
     });
   });
 
+  group('BillingConnectionStatus', () {
+    test('fromMap waiting to reconnect', () {
+      expect(
+          BillingConnectionStatus.fromMap(<String, dynamic>{
+            'state': 3,
+            'attempt': 2,
+            'retryDelayMillis': 1500,
+          }),
+          equals(BillingConnectionStatus(
+              state: BillingConnectionState.waitingToReconnect,
+              attempt: 2,
+              retryDelay: Duration(milliseconds: 1500))));
+    });
+
+    test('fromMap connected', () {
+      expect(
+          BillingConnectionStatus.fromMap(<String, dynamic>{
+            'state': 2,
+            'attempt': 0,
+            'retryDelayMillis': 0,
+          }),
+          equals(BillingConnectionStatus(
+              state: BillingConnectionState.connected, attempt: 0)));
+    });
+  });
+
   test('endConnection', () async {
     final String endConnectionName = 'BillingClient#endConnection()';
     expect(stubPlatform.countPreviousCalls(endConnectionName), equals(0));
@@ -181,6 +231,40 @@ void main() {
     });
   });
 
+  group('queryCachedSkuDetails', () {
+    final String queryCachedMethodName =
+        'BillingClient#queryCachedSkuDetails(String, List<String>)';
+
+    test('returns SkuDetailsResponseWrapper', () async {
+      stubPlatform.addResponse(
+          name: queryCachedMethodName,
+          value: <String, dynamic>{
+            'billingResult': <String, dynamic>{
+              'responseCode': BillingResponseConverter().toJson(BillingResponse.ok),
+              'debugMessage': null,
+            },
+            'skuDetailsList': <Map<String, dynamic>>[
+              buildSkuMap(dummySkuDetails)
+            ]
+          });
+
+      final SkuDetailsResponseWrapper response =
+          await billingClient.queryCachedSkuDetails(
+              skuType: SkuType.inapp, skusList: <String>[dummySkuDetails.sku]);
+
+      expect(response.billingResult.responseCode, equals(BillingResponse.ok));
+      expect(response.skuDetailsList, contains(dummySkuDetails));
+      final MethodCall call =
+          stubPlatform.previousCallMatching(queryCachedMethodName);
+      expect(
+          call.arguments,
+          equals(<dynamic, dynamic>{
+            'skuType': 'inapp',
+            'skusList': <String>[dummySkuDetails.sku]
+          }));
+    });
+  });
+
   group('launchBillingFlow', () {
     final String launchMethodName =
         'BillingClient#launchBillingFlow(Activity, BillingFlowParams)';
@@ -348,6 +432,153 @@ void main() {
     });
   });
 
+  group('purchase updates', () {
+    const String queryPurchasesMethodName =
+        'BillingClient#queryPurchases(String)';
+    final BillingResultWrapper okResult =
+        BillingResultWrapper(responseCode: BillingResponse.ok);
+    late List<PurchasesResultWrapper> updates;
+
+    Map<String, dynamic> buildUpdateMap(List<PurchaseWrapper> purchases) =>
+        <String, dynamic>{
+          'billingResult': buildBillingResultMap(okResult),
+          'responseCode': BillingResponseConverter().toJson(BillingResponse.ok),
+          'purchasesList': purchases
+              .map((PurchaseWrapper purchase) => buildPurchaseMap(purchase))
+              .toList(),
+        };
+
+    setUp(() async {
+      updates = <PurchasesResultWrapper>[];
+      billingClient = BillingClient(updates.add);
+      billingClient.enablePendingPurchases();
+      await billingClient.startConnection(onBillingServiceDisconnected: () {});
+    });
+
+    test('delivers every update of a batch in order', () async {
+      await stubPlatform.sendEvent(purchaseUpdatesChannel, <String, dynamic>{
+        'updates': <dynamic>[
+          buildUpdateMap(<PurchaseWrapper>[dummyPurchase]),
+          buildUpdateMap(<PurchaseWrapper>[dummyOldPurchase]),
+        ],
+        'droppedCount': 0,
+      });
+
+      expect(updates.length, 2);
+      expect(updates[0].purchasesList, <PurchaseWrapper>[dummyPurchase]);
+      expect(updates[1].purchasesList, <PurchaseWrapper>[dummyOldPurchase]);
+      expect(stubPlatform.countPreviousCalls(queryPurchasesMethodName), 0);
+    });
+
+    test('queries the current purchases after an overflow', () async {
+      stubPlatform.addResponse(
+          name: queryPurchasesMethodName,
+          value: buildUpdateMap(<PurchaseWrapper>[dummyPurchase]));
+      await stubPlatform.sendEvent(purchaseUpdatesChannel, <String, dynamic>{
+        'updates': <dynamic>[
+          buildUpdateMap(<PurchaseWrapper>[dummyOldPurchase]),
+        ],
+        'droppedCount': 3,
+      });
+      await Future<void>.delayed(Duration.zero);
+
+      expect(updates.length, 3);
+      expect(updates[0].purchasesList, <PurchaseWrapper>[dummyOldPurchase]);
+      expect(stubPlatform.countPreviousCalls(queryPurchasesMethodName), 2);
+    });
+
+    test('reports the queried purchases before any newer batch', () async {
+      final Completer<void> queried = Completer<void>();
+      channel.setMockMethodCallHandler((MethodCall call) async {
+        if (call.method == queryPurchasesMethodName) {
+          await queried.future;
+        }
+        return stubPlatform.fakeMethodCallHandler(call);
+      });
+      stubPlatform.addResponse(
+          name: queryPurchasesMethodName,
+          value: buildUpdateMap(<PurchaseWrapper>[dummyPurchase]));
+
+      await stubPlatform.sendEvent(purchaseUpdatesChannel, <String, dynamic>{
+        'updates': <dynamic>[
+          buildUpdateMap(<PurchaseWrapper>[dummyOldPurchase]),
+        ],
+        'droppedCount': 1,
+      });
+      await stubPlatform.sendEvent(purchaseUpdatesChannel, <String, dynamic>{
+        'updates': <dynamic>[
+          buildUpdateMap(<PurchaseWrapper>[dummyUnacknowledgedPurchase]),
+        ],
+        'droppedCount': 0,
+      });
+      await pumpEventQueue();
+      expect(updates.length, 1);
+
+      queried.complete();
+      await pumpEventQueue();
+      channel.setMockMethodCallHandler(stubPlatform.fakeMethodCallHandler);
+
+      expect(
+          updates.map(
+              (PurchasesResultWrapper update) => update.purchasesList),
+          <List<PurchaseWrapper>>[
+            <PurchaseWrapper>[dummyOldPurchase],
+            <PurchaseWrapper>[dummyPurchase],
+            <PurchaseWrapper>[dummyPurchase],
+            <PurchaseWrapper>[dummyUnacknowledgedPurchase],
+          ]);
+    });
+
+    test('reports a failed query after an overflow to the listener', () async {
+      channel.setMockMethodCallHandler((MethodCall call) async {
+        if (call.method == queryPurchasesMethodName) {
+          throw PlatformException(code: 'UNAVAILABLE', message: 'no client');
+        }
+        return stubPlatform.fakeMethodCallHandler(call);
+      });
+
+      await stubPlatform.sendEvent(purchaseUpdatesChannel, <String, dynamic>{
+        'updates': <dynamic>[],
+        'droppedCount': 1,
+      });
+      await pumpEventQueue();
+      channel.setMockMethodCallHandler(stubPlatform.fakeMethodCallHandler);
+
+      expect(updates.single.responseCode, BillingResponse.error);
+      expect(updates.single.billingResult.debugMessage, 'no client');
+      expect(updates.single.purchasesList, isEmpty);
+    });
+
+    test('stops listening on endConnection', () async {
+      final List<MethodCall> streamCalls = <MethodCall>[];
+      MethodChannel(purchaseUpdatesChannel.name, purchaseUpdatesChannel.codec)
+          .setMockMethodCallHandler((MethodCall call) async {
+        streamCalls.add(call);
+      });
+      await billingClient.endConnection();
+      stubPlatform.stubEventChannel(purchaseUpdatesChannel);
+
+      expect(streamCalls.single.method, 'cancel');
+    });
+
+    test('passes the coalescing window when listening', () async {
+      final List<MethodCall> listenCalls = <MethodCall>[];
+      MethodChannel(purchaseUpdatesChannel.name, purchaseUpdatesChannel.codec)
+          .setMockMethodCallHandler((MethodCall call) async {
+        listenCalls.add(call);
+      });
+      billingClient = BillingClient(updates.add,
+          purchaseUpdatesCoalescingWindow: const Duration(milliseconds: 200));
+      billingClient.enablePendingPurchases();
+      await billingClient.startConnection(onBillingServiceDisconnected: () {});
+
+      expect(listenCalls.single.method, 'listen');
+      expect(listenCalls.single.arguments,
+          <String, dynamic>{'coalescingWindowMillis': 200});
+      stubPlatform.stubEventChannel(purchaseUpdatesChannel);
+    });
+  });
+
   group('queryPurchases', () {
     const String queryPurchasesMethodName =
         'BillingClient#queryPurchases(String)';
@@ -397,6 +628,104 @@ void main() {
       expect(response.purchasesList, isEmpty);
     });
 
+    test('passes the field mask', () async {
+      stubPlatform.addResponse(
+          name: queryPurchasesMethodName,
+          value: <String, dynamic>{
+            'billingResult': buildBillingResultMap(
+                BillingResultWrapper(responseCode: BillingResponse.ok)),
+            'responseCode': BillingResponseConverter().toJson(BillingResponse.ok),
+            'purchasesList': <Map<String, dynamic>>[
+              <String, dynamic>{
+                'purchaseToken': 'token',
+                'purchaseState': 1,
+              }
+            ],
+          });
+
+      final PurchasesResultWrapper response = await billingClient.queryPurchases(
+          SkuType.inapp,
+          fields: <String>['purchaseToken', 'purchaseState']);
+
+      final MethodCall call =
+          stubPlatform.previousCallMatching(queryPurchasesMethodName);
+      expect(call.arguments['fields'],
+          equals(<String>['purchaseToken', 'purchaseState']));
+      expect(response.purchasesList.single.purchaseToken, 'token');
+      expect(response.purchasesList.single.originalJson, isEmpty);
+      expect(response.purchasesList.single.isAutoRenewing, isFalse);
+    });
+
+    test('rebuilds the purchases from deltas', () async {
+      final Map<String, dynamic> okResult = buildBillingResultMap(
+          BillingResultWrapper(responseCode: BillingResponse.ok));
+      stubPlatform
+          .addResponse(name: queryPurchasesMethodName, value: <String, dynamic>{
+        'billingResult': okResult,
+        'responseCode': BillingResponseConverter().toJson(BillingResponse.ok),
+        'purchasesList': <Map<String, dynamic>>[
+          <String, dynamic>{'purchaseToken': 'kept', 'isAcknowledged': false},
+          <String, dynamic>{'purchaseToken': 'removed'},
+        ],
+        'snapshotVersion': 7,
+        'fullSnapshot': true,
+        'removedPurchaseTokens': <String>[],
+      });
+      await billingClient.queryPurchases(SkuType.inapp, delta: true);
+      expect(
+          stubPlatform.previousCalls.last.arguments['snapshotVersion'], isNull);
+
+      stubPlatform
+          .addResponse(name: queryPurchasesMethodName, value: <String, dynamic>{
+        'billingResult': okResult,
+        'responseCode': BillingResponseConverter().toJson(BillingResponse.ok),
+        'purchasesList': <Map<String, dynamic>>[
+          <String, dynamic>{'purchaseToken': 'kept', 'isAcknowledged': true},
+          <String, dynamic>{'purchaseToken': 'added'},
+        ],
+        'snapshotVersion': 8,
+        'fullSnapshot': false,
+        'removedPurchaseTokens': <String>['removed'],
+      });
+      final PurchasesResultWrapper response =
+          await billingClient.queryPurchases(SkuType.inapp, delta: true);
+
+      expect(stubPlatform.previousCalls.last.arguments['delta'], isTrue);
+      expect(stubPlatform.previousCalls.last.arguments['snapshotVersion'], 7);
+      expect(
+          response.purchasesList
+              .map((PurchaseWrapper purchase) => purchase.purchaseToken),
+          equals(<String>['kept', 'added']));
+      expect(response.purchasesList.first.isAcknowledged, isTrue);
+    });
+
+    test('always reads the purchase token of deltas', () async {
+      stubPlatform
+          .addResponse(name: queryPurchasesMethodName, value: <String, dynamic>{
+        'billingResult': buildBillingResultMap(
+            BillingResultWrapper(responseCode: BillingResponse.ok)),
+        'responseCode': BillingResponseConverter().toJson(BillingResponse.ok),
+        'purchasesList': <Map<String, dynamic>>[
+          <String, dynamic>{'purchaseToken': 'first', 'purchaseState': 1},
+          <String, dynamic>{'purchaseToken': 'second', 'purchaseState': 1},
+        ],
+        'snapshotVersion': 7,
+        'fullSnapshot': true,
+        'removedPurchaseTokens': <String>[],
+      });
+
+      final PurchasesResultWrapper response = await billingClient
+          .queryPurchases(SkuType.inapp,
+              fields: <String>['purchaseState'], delta: true);
+
+      expect(stubPlatform.previousCalls.last.arguments['fields'],
+          equals(<String>['purchaseState', 'purchaseToken']));
+      expect(
+          response.purchasesList
+              .map((PurchaseWrapper purchase) => purchase.purchaseToken),
+          equals(<String>['first', 'second']));
+    });
+
     test('handles method channel returning null', () async {
       stubPlatform.addResponse(
         name: queryPurchasesMethodName,
@@ -415,6 +744,50 @@ void main() {
     });
   });
 
+  group('queryAllPurchases', () {
+    const String queryAllMethodName = 'BillingClient#queryAllPurchases()';
+
+    test('serializes and deserializes data', () async {
+      final BillingResponse expectedCode = BillingResponse.ok;
+      final List<PurchaseWrapper> expectedList = <PurchaseWrapper>[
+        dummyPurchase
+      ];
+      const String debugMessage = 'dummy message';
+      final BillingResultWrapper expectedBillingResult = BillingResultWrapper(
+          responseCode: expectedCode, debugMessage: debugMessage);
+      stubPlatform
+          .addResponse(name: queryAllMethodName, value: <String, dynamic>{
+        'billingResult': buildBillingResultMap(expectedBillingResult),
+        'responseCode': BillingResponseConverter().toJson(expectedCode),
+        'purchasesList': expectedList
+            .map((PurchaseWrapper purchase) => buildPurchaseMap(purchase))
+            .toList(),
+      });
+
+      final PurchasesResultWrapper response =
+          await billingClient.queryAllPurchases();
+
+      expect(response.billingResult, equals(expectedBillingResult));
+      expect(response.responseCode, equals(expectedCode));
+      expect(response.purchasesList, equals(expectedList));
+    });
+
+    test('handles method channel returning null', () async {
+      stubPlatform.addResponse(name: queryAllMethodName, value: null);
+
+      final PurchasesResultWrapper response =
+          await billingClient.queryAllPurchases();
+
+      expect(
+          response.billingResult,
+          equals(BillingResultWrapper(
+              responseCode: BillingResponse.error,
+              debugMessage: kInvalidBillingResultErrorMessage)));
+      expect(response.responseCode, BillingResponse.error);
+      expect(response.purchasesList, isEmpty);
+    });
+  });
+
   group('queryPurchaseHistory', () {
     const String queryPurchaseHistoryMethodName =
         'BillingClient#queryPurchaseHistoryAsync(String, PurchaseHistoryResponseListener)';
@@ -478,6 +851,127 @@ void main() {
     });
   });
 
+  group('queryPurchaseHistoryStream', () {
+    final BillingResultWrapper okResult =
+        BillingResultWrapper(responseCode: BillingResponse.ok);
+    late List<MethodCall> streamCalls;
+
+    Map<String, dynamic> buildChunkMap(int offset, int total) =>
+        <String, dynamic>{
+          'billingResult': buildBillingResultMap(okResult),
+          'purchaseHistoryRecordList': <dynamic>[
+            buildPurchaseHistoryRecordMap(dummyPurchaseHistoryRecord),
+          ],
+          'offset': offset,
+          'total': total,
+        };
+
+    setUp(() {
+      streamCalls = <MethodCall>[];
+      MethodChannel(purchaseHistoryChannel.name, purchaseHistoryChannel.codec)
+          .setMockMethodCallHandler((MethodCall call) async {
+        streamCalls.add(call);
+      });
+    });
+
+    tearDown(() {
+      MethodChannel(purchaseHistoryChannel.name, purchaseHistoryChannel.codec)
+          .setMockMethodCallHandler(null);
+    });
+
+    test('delivers the chunks until the platform ends the stream', () async {
+      final List<PurchasesHistoryResult> chunks = <PurchasesHistoryResult>[];
+      final Completer<void> done = Completer<void>();
+      billingClient
+          .queryPurchaseHistoryStream(SkuType.inapp, chunkSize: 1)
+          .listen(chunks.add, onDone: done.complete);
+      await Future<void>.delayed(Duration.zero);
+
+      expect(streamCalls.single.method, 'listen');
+      expect(streamCalls.single.arguments,
+          <String, dynamic>{'skuType': 'inapp', 'chunkSize': 1});
+
+      await stubPlatform.sendEvent(purchaseHistoryChannel, buildChunkMap(0, 2));
+      await stubPlatform.sendEvent(purchaseHistoryChannel, buildChunkMap(1, 2));
+      await stubPlatform.endStream(purchaseHistoryChannel);
+      await done.future;
+
+      expect(chunks.length, 2);
+      for (final PurchasesHistoryResult chunk in chunks) {
+        expect(chunk.billingResult, okResult);
+        expect(chunk.purchaseHistoryRecordList,
+            <PurchaseHistoryRecordWrapper>[dummyPurchaseHistoryRecord]);
+      }
+    });
+
+    test('passes the requested fields', () async {
+      billingClient.queryPurchaseHistoryStream(SkuType.inapp,
+          fields: <String>['purchaseToken']).listen((_) {});
+      await Future<void>.delayed(Duration.zero);
+
+      expect(streamCalls.single.arguments, <String, dynamic>{
+        'skuType': 'inapp',
+        'chunkSize': 50,
+        'fields': <String>['purchaseToken'],
+      });
+    });
+
+    test('reports platform errors', () async {
+      final Completer<Object> error = Completer<Object>();
+      billingClient
+          .queryPurchaseHistoryStream(SkuType.subs)
+          .listen((_) {}, onError: error.complete);
+      await Future<void>.delayed(Duration.zero);
+
+      expect(streamCalls.single.arguments,
+          <String, dynamic>{'skuType': 'subs', 'chunkSize': 50});
+      await stubPlatform.sendError(purchaseHistoryChannel, 'UNAVAILABLE');
+
+      final Object exception = await error.future;
+      expect(exception, isA<PlatformException>());
+      expect((exception as PlatformException).code, 'UNAVAILABLE');
+    });
+
+    test('cancels the platform query when the subscription is cancelled',
+        () async {
+      final StreamSubscription<PurchasesHistoryResult> subscription =
+          billingClient.queryPurchaseHistoryStream(SkuType.inapp).listen((_) {});
+      await Future<void>.delayed(Duration.zero);
+      await subscription.cancel();
+
+      expect(streamCalls.map((MethodCall call) => call.method),
+          <String>['listen', 'cancel']);
+    });
+
+    test('ends the superseded stream when a new one starts', () async {
+      final Completer<Object> error = Completer<Object>();
+      final Completer<void> supersededDone = Completer<void>();
+      billingClient.queryPurchaseHistoryStream(SkuType.inapp).listen((_) {},
+          onError: error.complete, onDone: supersededDone.complete);
+      await Future<void>.delayed(Duration.zero);
+
+      final List<PurchasesHistoryResult> chunks = <PurchasesHistoryResult>[];
+      final Completer<void> done = Completer<void>();
+      billingClient
+          .queryPurchaseHistoryStream(SkuType.subs)
+          .listen(chunks.add, onDone: done.complete);
+      await Future<void>.delayed(Duration.zero);
+
+      final Object exception = await error.future;
+      expect((exception as PlatformException).code, 'CANCELLED');
+      await supersededDone.future;
+      expect(streamCalls.map((MethodCall call) => call.method),
+          <String>['listen', 'cancel', 'listen']);
+      expect(streamCalls.last.arguments,
+          <String, dynamic>{'skuType': 'subs', 'chunkSize': 50});
+
+      await stubPlatform.sendEvent(purchaseHistoryChannel, buildChunkMap(0, 1));
+      await stubPlatform.endStream(purchaseHistoryChannel);
+      await done.future;
+      expect(chunks.length, 1);
+    });
+  });
+
   group('consume purchases', () {
     const String consumeMethodName =
         'BillingClient#consumeAsync(String, ConsumeResponseListener)';
@@ -545,6 +1039,62 @@ void main() {
     });
   });
 
+  group('batched purchase token calls', () {
+    const String acknowledgePurchasesMethodName =
+        'BillingClient#acknowledgePurchases(List<String>)';
+    const String consumePurchasesMethodName =
+        'BillingClient#consumePurchases(List<String>)';
+    final BillingResultWrapper okResult = BillingResultWrapper(
+        responseCode: BillingResponse.ok, debugMessage: 'dummy message');
+    final BillingResultWrapper errorResult = BillingResultWrapper(
+        responseCode: BillingResponse.itemNotOwned,
+        debugMessage: 'dummy message');
+
+    test('acknowledgePurchases returns the result of every token', () async {
+      stubPlatform
+          .addResponse(name: acknowledgePurchasesMethodName, value: <String, dynamic>{
+        'a': buildBillingResultMap(okResult),
+        'b': buildBillingResultMap(errorResult),
+      });
+
+      final Map<String, BillingResultWrapper> results = await billingClient
+          .acknowledgePurchases(<String>['a', 'b'], maxConcurrentCalls: 2);
+
+      expect(results, <String, BillingResultWrapper>{
+        'a': okResult,
+        'b': errorResult,
+      });
+      expect(
+          stubPlatform.previousCallMatching(acknowledgePurchasesMethodName).arguments,
+          <String, dynamic>{
+            'purchaseTokens': <String>['a', 'b'],
+            'maxConcurrentCalls': 2,
+          });
+    });
+
+    test('consumePurchases returns the result of every token', () async {
+      stubPlatform.addResponse(
+          name: consumePurchasesMethodName,
+          value: <String, dynamic>{'a': buildBillingResultMap(okResult)});
+
+      expect(await billingClient.consumePurchases(<String>['a']),
+          <String, BillingResultWrapper>{'a': okResult});
+      expect(
+          stubPlatform
+              .previousCallMatching(consumePurchasesMethodName)
+              .arguments['maxConcurrentCalls'],
+          4);
+    });
+  });
+
+  test('setPurchaseVerificationKey passes the key', () async {
+    const String methodName = 'BillingClient#setPurchaseVerificationKey(String)';
+    await billingClient.setPurchaseVerificationKey('dummy key');
+
+    expect(stubPlatform.previousCallMatching(methodName).arguments,
+        <String, dynamic>{'base64PublicKey': 'dummy key'});
+  });
+
   group('isFeatureSupported', () {
     const String isFeatureSupportedMethodName =
         'BillingClient#isFeatureSupported(String)';
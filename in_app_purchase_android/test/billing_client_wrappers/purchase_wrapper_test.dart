@@ -71,6 +71,30 @@ void main() {
       expect(parsed, equals(expected));
     });
 
+    test('reads the signature verdict', () {
+      expect(PurchaseWrapper.fromJson(buildPurchaseMap(dummyPurchase)).isSignatureVerified,
+          isNull);
+      expect(
+          PurchaseWrapper.fromJson(<String, dynamic>{
+            ...buildPurchaseMap(dummyPurchase),
+            'isSignatureVerified': true,
+          }).isSignatureVerified,
+          isTrue);
+    });
+
+    test('compares the signature verdict', () {
+      PurchaseWrapper withVerdict(bool? verified) =>
+          PurchaseWrapper.fromJson(<String, dynamic>{
+            ...buildPurchaseMap(dummyPurchase),
+            'isSignatureVerified': verified,
+          });
+
+      expect(withVerdict(true), equals(withVerdict(true)));
+      expect(withVerdict(true).hashCode, withVerdict(true).hashCode);
+      expect(withVerdict(false), isNot(equals(withVerdict(true))));
+      expect(withVerdict(null), isNot(equals(withVerdict(false))));
+    });
+
     test('fromPurchase() should return correct PurchaseDetail object', () {
       final GooglePlayPurchaseDetails details =
           GooglePlayPurchaseDetails.fromPurchase(dummyPurchase);
@@ -215,6 +239,7 @@ Map<String, dynamic> buildPurchaseMap(PurchaseWrapper original) {
     'isAcknowledged': original.isAcknowledged,
     'obfuscatedAccountId': original.obfuscatedAccountId,
     'obfuscatedProfileId': original.obfuscatedProfileId,
+    'isSignatureVerified': original.isSignatureVerified,
   };
 }
 
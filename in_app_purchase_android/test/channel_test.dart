@@ -0,0 +1,78 @@
+// Copyright 2013 The Flutter Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+import 'dart:typed_data';
+
+import 'package:flutter/foundation.dart';
+import 'package:flutter_test/flutter_test.dart';
+import 'package:in_app_purchase_android/billing_client_wrappers.dart';
+import 'package:in_app_purchase_android/src/channel.dart';
+
+void main() {
+  const InAppPurchaseMessageCodec codec = InAppPurchaseMessageCodec();
+
+  test('decodes purchase history records', () {
+    final WriteBuffer buffer = WriteBuffer();
+    // A list holding a single record.
+    buffer.putUint8(12);
+    buffer.putUint8(1);
+    buffer.putUint8(128);
+    // Purchase history record schema, with every field but developerPayload.
+    buffer.putUint8(2);
+    buffer.putInt32(0x2f);
+    buffer.putInt64(1111);
+    codec.writeValue(buffer, 'token');
+    codec.writeValue(buffer, 'signature');
+    codec.writeValue(buffer, '[sku]');
+    codec.writeValue(buffer, '{"json":true}');
+
+    final List<dynamic> decoded = codec.decodeMessage(buffer.done());
+    expect(
+        decoded.single,
+        equals(<String, dynamic>{
+          'purchaseTime': 1111,
+          'purchaseToken': 'token',
+          'signature': 'signature',
+          'skus': '[sku]',
+          'originalJson': '{"json":true}',
+        }));
+    final PurchaseHistoryRecordWrapper record =
+        PurchaseHistoryRecordWrapper.fromJson(
+            Map<String, dynamic>.from(decoded.single));
+    expect(record.purchaseTime, 1111);
+    expect(record.developerPayload, isNull);
+  });
+
+  test('decodes untagged primitives', () {
+    final WriteBuffer buffer = WriteBuffer();
+    buffer.putUint8(128);
+    // Purchase schema with purchaseTime, isAutoRenewing and purchaseState.
+    buffer.putUint8(1);
+    buffer.putInt32((1 << 2) | (1 << 6) | (1 << 10));
+    buffer.putInt64(42);
+    buffer.putUint8(1);
+    buffer.putInt32(2);
+
+    expect(
+        codec.decodeMessage(buffer.done()),
+        equals(<String, dynamic>{
+          'purchaseTime': 42,
+          'isAutoRenewing': true,
+          'purchaseState': 2,
+        }));
+  });
+
+  test('leaves standard values untouched', () {
+    final ByteData? encoded = codec.encodeMessage(<String, dynamic>{
+      'responseCode': 0,
+      'purchasesList': <dynamic>[],
+    });
+    expect(
+        codec.decodeMessage(encoded),
+        equals(<String, dynamic>{
+          'responseCode': 0,
+          'purchasesList': <dynamic>[],
+        }));
+  });
+}
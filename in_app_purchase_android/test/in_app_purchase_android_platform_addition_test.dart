@@ -25,6 +25,7 @@ void main() {
 
   setUpAll(() {
     channel.setMockMethodCallHandler(stubPlatform.fakeMethodCallHandler);
+    stubPlatform.stubEventChannel(purchaseUpdatesChannel);
   });
 
   setUp(() {
@@ -29,6 +29,7 @@ void main() {
 
   setUpAll(() {
     channel.setMockMethodCallHandler(stubPlatform.fakeMethodCallHandler);
+    stubPlatform.stubEventChannel(purchaseUpdatesChannel);
   });
 
   setUp(() {
@@ -161,7 +162,7 @@ void main() {
   });
 
   group('restorePurchases', () {
-    const String queryMethodName = 'BillingClient#queryPurchases(String)';
+    const String queryMethodName = 'BillingClient#queryAllPurchases()';
     test('handles error', () async {
       const String debugMessage = 'dummy message';
       final BillingResponse responseCode = BillingResponse.developerError;
@@ -242,13 +243,13 @@ void main() {
         ]
       });
 
-      // Since queryPastPurchases makes 2 platform method calls (one for each
-      // SkuType), the result will contain 2 dummyPurchase instances instead
-      // of 1.
+      // Both SkuTypes are queried by a single platform method call, so the
+      // result contains the dummyPurchase once.
       await iapAndroidPlatform.restorePurchases();
       final List<PurchaseDetails> restoredPurchases = await completer.future;
 
-      expect(restoredPurchases.length, 2);
+      expect(restoredPurchases.length, 1);
+      expect(stubPlatform.countPreviousCalls(queryMethodName), equals(1));
       restoredPurchases.forEach((element) {
         GooglePlayPurchaseDetails purchase =
             element as GooglePlayPurchaseDetails;
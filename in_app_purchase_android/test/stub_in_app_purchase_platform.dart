@@ -42,4 +42,34 @@ class StubInAppPurchasePlatform {
       return Future<void>.sync(() => null);
     }
   }
+
+  /// Answers the `listen` and `cancel` calls of [eventChannel].
+  void stubEventChannel(EventChannel eventChannel) {
+    MethodChannel(eventChannel.name, eventChannel.codec)
+        .setMockMethodCallHandler((MethodCall call) async => null);
+  }
+
+  /// Sends [event] to the listeners of [eventChannel] as if the platform did.
+  Future<void> sendEvent(EventChannel eventChannel, dynamic event) {
+    return ServicesBinding.instance!.defaultBinaryMessenger
+        .handlePlatformMessage(eventChannel.name,
+            eventChannel.codec.encodeSuccessEnvelope(event), (ByteData? _) {});
+  }
+
+  /// Sends an error to the listeners of [eventChannel] as if the platform did.
+  Future<void> sendError(EventChannel eventChannel, String code,
+      {String? message}) {
+    return ServicesBinding.instance!.defaultBinaryMessenger
+        .handlePlatformMessage(
+            eventChannel.name,
+            eventChannel.codec
+                .encodeErrorEnvelope(code: code, message: message),
+            (ByteData? _) {});
+  }
+
+  /// Ends the stream of [eventChannel] as if the platform did.
+  Future<void> endStream(EventChannel eventChannel) {
+    return ServicesBinding.instance!.defaultBinaryMessenger
+        .handlePlatformMessage(eventChannel.name, null, (ByteData? _) {});
+  }
 }